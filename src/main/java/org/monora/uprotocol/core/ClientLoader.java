@@ -4,6 +4,7 @@ import net.iharder.Base64;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.monora.uprotocol.core.persistence.ClientUsageBatch;
 import org.monora.uprotocol.core.persistence.PersistenceProvider;
 import org.monora.uprotocol.core.protocol.*;
 import org.monora.uprotocol.core.protocol.communication.ProtocolException;
@@ -88,21 +89,41 @@ public class ClientLoader
         final long revisionOfPicture = response.getLong(Keyword.CLIENT_REVISION_PICTURE);
         final long lastUsageTime = System.currentTimeMillis();
         final boolean local = persistenceProvider.getClientUid().equals(clientUid);
+        final boolean pictureIncluded = !response.has(Keyword.CLIENT_REVISION_PICTURE_KNOWN)
+                || response.has(Keyword.CLIENT_PICTURE);
 
         Client client = persistenceProvider.getClientFor(clientUid);
 
         final boolean updating = client != null;
         final boolean needsPictureRevision = client == null || client.getClientRevisionOfPicture() != revisionOfPicture;
 
+        // When the picture is left out, the known revision is kept so that the picture is asked for.
+        final long knownRevisionOfPicture;
+        if (!needsPictureRevision || pictureIncluded) {
+            knownRevisionOfPicture = revisionOfPicture;
+        } else {
+            knownRevisionOfPicture = client == null ? -1 : client.getClientRevisionOfPicture();
+        }
+
+        final boolean changed;
         if (client == null) {
             client = persistenceProvider.createClientFor(clientUid, nickname, manufacturer, product, clientType,
-                    versionName, versionCode, protocolVersion, protocolVersionMin, revisionOfPicture);
+                    versionName, versionCode, protocolVersion, protocolVersionMin, knownRevisionOfPicture);
+            changed = true;
         } else {
-            Clients.fill(client, clientUid, client.getClientCertificate(), nickname, manufacturer, product, clientType,
-                    versionName, versionCode, protocolVersion, protocolVersionMin, revisionOfPicture,
-                    client.isClientTrusted(), client.isClientBlocked());
+            changed = !matches(client, nickname, manufacturer, product, clientType, versionName, versionCode,
+                    protocolVersion, protocolVersionMin, knownRevisionOfPicture);
+
+            if (changed) {
+                Clients.fill(client, clientUid, client.getClientCertificate(), nickname, manufacturer, product,
+                        clientType, versionName, versionCode, protocolVersion, protocolVersionMin,
+                        knownRevisionOfPicture, client.isClientTrusted(), client.isClientBlocked());
+            }
         }
 
+        final boolean blocked = client.isClientBlocked();
+        final boolean trusted = client.isClientTrusted();
+
         try {
             if (asClient) {
                 if (unblockAsClient) {
@@ -113,23 +134,93 @@ public class ClientLoader
                 client.setClientTrusted(true);
             }
         } finally {
+            ClientUsageBatch usageBatch = persistenceProvider.getClientUsageBatch();
+            ClientAddress knownAddress = persistenceProvider.getClientAddressFor(clientAddress.getClientAddress());
+
             client.setClientLastUsageTime(lastUsageTime);
-            client.setClientLocal(local);
-            persistenceProvider.persist(client, updating);
-            persistenceProvider.persist(clientAddress);
-
-            if (needsPictureRevision) {
-                String data = response.optString(Keyword.CLIENT_PICTURE);
-                try {
-                    persistenceProvider.persistClientPicture(client, data != null ? Base64.decode(data) : null);
-                } catch (IOException ignored) {
+
+            // When only the last usage time changes, it is saved later along with the others.
+            if (usageBatch == null || changed || blocked != client.isClientBlocked()
+                    || trusted != client.isClientTrusted() || local != client.isClientLocal()) {
+                client.setClientLocal(local);
+                persistenceProvider.persist(client, updating);
+
+                if (usageBatch != null) {
+                    usageBatch.remove(client);
+                }
+            } else {
+                usageBatch.add(client);
+            }
+
+            if (usageBatch != null && knownAddress != null
+                    && knownAddress.getClientAddressOwnerUid().equals(clientAddress.getClientAddressOwnerUid())) {
+                usageBatch.add(clientAddress);
+            } else {
+                persistenceProvider.persist(clientAddress);
+
+                if (usageBatch != null) {
+                    usageBatch.remove(clientAddress);
                 }
             }
+
+            if (needsPictureRevision && pictureIncluded) {
+                persistPicture(persistenceProvider, client, response);
+            }
         }
 
         return client;
     }
 
+    /**
+     * Load the picture that the remote sent after it was left out of its details.
+     * <p>
+     * The remote sends it when the revision that this side knows, {@link Keyword#CLIENT_REVISION_PICTURE_KNOWN},
+     * differs from the one it has.
+     *
+     * @param persistenceProvider That stores persistent data.
+     * @param client              That the picture belongs to.
+     * @param revisionOfPicture   That the remote sent along with its details.
+     * @param object              To load the picture from.
+     * @throws JSONException If something goes wrong when inflating the JSON data.
+     */
+    static void loadPicture(@NotNull PersistenceProvider persistenceProvider, @NotNull Client client,
+                            long revisionOfPicture, @NotNull JSONObject object) throws JSONException
+    {
+        if (persistPicture(persistenceProvider, client, object)) {
+            client.setClientRevisionOfPicture(revisionOfPicture);
+            persistenceProvider.persist(client, true);
+        }
+    }
+
+    private static boolean matches(@NotNull Client client, @NotNull String nickname, @NotNull String manufacturer,
+                                   @NotNull String product, @NotNull ClientType clientType,
+                                   @NotNull String versionName, int versionCode, int protocolVersion,
+                                   int protocolVersionMin, long revisionOfPicture)
+    {
+        return client.getClientRevisionOfPicture() == revisionOfPicture
+                && client.getClientVersionCode() == versionCode
+                && client.getClientProtocolVersion() == protocolVersion
+                && client.getClientProtocolVersionMin() == protocolVersionMin
+                && client.getClientType() == clientType
+                && client.getClientNickname().equals(nickname)
+                && client.getClientManufacturer().equals(manufacturer)
+                && client.getClientProduct().equals(product)
+                && client.getClientVersionName().equals(versionName);
+    }
+
+    private static boolean persistPicture(@NotNull PersistenceProvider persistenceProvider, @NotNull Client client,
+                                          @NotNull JSONObject object)
+    {
+        String data = object.optString(Keyword.CLIENT_PICTURE);
+
+        try {
+            persistenceProvider.persistClientPicture(client, data.isEmpty() ? null : Base64.decode(data));
+            return true;
+        } catch (IOException ignored) {
+            return false;
+        }
+    }
+
     /**
      * Load a client's details by connection to its internet address.
      *
@@ -35,24 +35,39 @@ import org.monora.uprotocol.core.protocol.communication.ProtocolException;
 import org.monora.uprotocol.core.protocol.communication.SecurityException;
 import org.monora.uprotocol.core.protocol.communication.client.BlockedRemoteClientException;
 import org.monora.uprotocol.core.protocol.communication.client.DifferentRemoteClientException;
+import org.monora.uprotocol.core.spec.v1.Config;
 import org.monora.uprotocol.core.spec.v1.Keyword;
+import org.monora.uprotocol.core.transfer.BinaryIndexWriter;
+import org.monora.uprotocol.core.transfer.IndexReader;
 import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.TransferOperation;
+import org.monora.uprotocol.core.transfer.TransferOptions;
 import org.monora.uprotocol.core.transfer.Transfers;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.monora.uprotocol.core.spec.v1.Config.PORT_UPROTOCOL;
 import static org.monora.uprotocol.core.spec.v1.Config.TIMEOUT_SOCKET_DEFAULT;
@@ -145,18 +160,36 @@ public class CommunicationBridge implements Closeable
             throws IOException, ProtocolException, CertificateException
     {
         Socket socket = activeConnection.getSocket();
-        SSLSocketFactory sslSocketFactory = persistenceProvider.getSSLContextFor(client).getSocketFactory();
-        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, socket.getInetAddress().getHostAddress(),
-                activeConnection.getSocket().getPort(), true);
-        ArrayList<String> enabledCiphersSuites = new ArrayList<>();
-
-        enabledCiphersSuites.add("TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA");
-        connectionFactory.enableCipherSuites(sslSocket.getSupportedCipherSuites(), enabledCiphersSuites);
-        sslSocket.setEnabledCipherSuites(enabledCiphersSuites.toArray(new String[0]));
+        X509Certificate pinnedCertificate = client.getClientCertificate();
+        SSLContext sslContext = persistenceProvider.getSSLContextFor(client);
+        SSLSessionContext sessionContext = isClient ? sslContext.getClientSessionContext()
+                : sslContext.getServerSessionContext();
+        // The sessions are looked up with the host and port, so the client uid is passed as the host to resume the
+        // session with the same peer even when its address changes. It is not a host name, so the endpoint
+        // identification stays disabled, and the peer is verified with its pinned certificate instead.
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, client.getClientUid(),
+                socket.getPort(), true);
+        String[] supportedCipherSuites = sslSocket.getSupportedCipherSuites();
+        String[] supportedProtocols = sslSocket.getSupportedProtocols();
+        List<String> enabledCipherSuiteList = new ArrayList<>(Config.CIPHER_SUITES_DEFAULT);
+        List<String> enabledProtocolList = new ArrayList<>(Config.PROTOCOLS_DEFAULT);
+
+        connectionFactory.enableCipherSuites(supportedCipherSuites, enabledCipherSuiteList);
+        connectionFactory.enableProtocols(supportedProtocols, enabledProtocolList);
+        sslSocket.setEnabledCipherSuites(retainSupported(supportedCipherSuites, enabledCipherSuiteList));
+        sslSocket.setEnabledProtocols(retainSupported(supportedProtocols, enabledProtocolList));
+
+        SSLParameters sslParameters = sslSocket.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm(null);
 
         if (isClient) {
+            sslSocket.setSSLParameters(sslParameters);
             sslSocket.setUseClientMode(true);
         } else {
+            // The server picks the first suite that the client also enabled, so that the faster suites are preferred
+            // when the client is an older version that lists the CBC suite first.
+            sslParameters.setUseCipherSuitesOrder(true);
+            sslSocket.setSSLParameters(sslParameters);
             sslSocket.setUseClientMode(false);
 
             if (client.getClientCertificate() == null) {
@@ -166,29 +199,35 @@ public class CommunicationBridge implements Closeable
             }
         }
 
-        sslSocket.addHandshakeCompletedListener(event -> {
-            try {
-                Certificate certificate = event.getPeerCertificates()[0];
-
-                if (certificate instanceof X509Certificate) {
-                    if (!certificate.equals(client.getClientCertificate())) {
-                        client.setClientCertificate((X509Certificate) certificate);
-                        persistenceProvider.persist(client, true);
-                    }
-                } else {
-                    throw new CertificateException("The certificate is not in X.509 format");
-                }
-            } catch (Exception e) {
-                client.setClientCertificate(null);
-                persistenceProvider.persist(client, true);
-                e.printStackTrace();
-            }
-        });
-
         activeConnection.setSocket(sslSocket);
 
         try {
+            // A resumed session keeps the id it had when it was cached by an earlier connection. A server that resumes
+            // a session from a stateless ticket does not cache it, so that is counted as a full handshake.
+            Set<ByteBuffer> cachedIdSet = new HashSet<>();
+            Enumeration<byte[]> ids = sessionContext.getIds();
+            while (ids.hasMoreElements()) {
+                cachedIdSet.add(ByteBuffer.wrap(ids.nextElement()));
+            }
+
             sslSocket.startHandshake();
+
+            SSLSession session = sslSocket.getSession();
+            boolean resumed = cachedIdSet.contains(ByteBuffer.wrap(session.getId()));
+            Certificate certificate = session.getPeerCertificates()[0];
+
+            if (!(certificate instanceof X509Certificate))
+                throw new CertificateException("The certificate is not in X.509 format");
+
+            if (pinnedCertificate == null) {
+                client.setClientCertificate((X509Certificate) certificate);
+                persistenceProvider.persist(client, true);
+            } else if (!pinnedCertificate.equals(certificate)) {
+                session.invalidate();
+                throw new SSLPeerUnverifiedException("The session is not bound to the pinned certificate.");
+            }
+
+            connectionFactory.onSecureSessionEstablished(client, resumed);
         } catch (SSLException e) {
             boolean firstTime = !persistenceProvider.hasRequestForInvalidationOfCredentials(client.getClientUid());
             if (firstTime) {
@@ -317,6 +356,13 @@ public class CommunicationBridge implements Closeable
      * <p>
      * Finally, if the response is positive (that is the remote doesn't report any errors), the items will be saved to
      * the persistence database using {@link PersistenceProvider#persist(String, List)}.
+     * <p>
+     * If the remote is {@link Config#VERSION_UPROTOCOL_INDEX_STREAM} or newer, the index is streamed after the request
+     * using {@link Transfers#sendIndex(ActiveConnection, List, boolean)} instead of being embedded in it. If it is
+     * {@link Config#VERSION_UPROTOCOL_INDEX_BINARY} or newer, the index is also in the compact binary format written
+     * by {@link BinaryIndexWriter} instead of JSON.
+     * <p>
+     * The index is sent in pages of {@link Config#LENGTH_INDEX_PAGE} items.
      *
      * @param groupId          That ties a group of {@link TransferItem} as in {@link TransferItem#getItemGroupId()}.
      * @param transferItemList That you will send.
@@ -325,15 +371,65 @@ public class CommunicationBridge implements Closeable
      * @throws IOException       If an IO error occurs.
      * @throws JSONException     If something goes wrong when creating JSON object.
      * @throws ProtocolException When there is a communication error due to misconfiguration.
+     * @see #requestFileTransfer(long, List, OnPrepareListener, int)
      */
     public boolean requestFileTransfer(long groupId, @NotNull List<@NotNull TransferItem> transferItemList,
                                        @Nullable OnPrepareListener prepareListener)
             throws JSONException, IOException, ProtocolException
     {
-        send(true, new JSONObject()
+        return requestFileTransfer(groupId, transferItemList, prepareListener, Config.LENGTH_INDEX_PAGE);
+    }
+
+    /**
+     * Request a file transfer operation by informing the remote that you will send files, and send the index in
+     * pages.
+     * <p>
+     * This is the same as {@link #requestFileTransfer(long, List, OnPrepareListener)}, except that when the remote is
+     * {@link Config#VERSION_UPROTOCOL_INDEX_PAGE} or newer, only the first page of the index goes with the request.
+     * The remote decides on the request with that page, so it can prompt the user or prepare for the transfer while
+     * the rest of the pages arrive. Each of the pages after it is persisted by the remote and acknowledged before the
+     * next one is sent, and is persisted on this side after that.
+     * <p>
+     * The pages do not make the data move earlier. This returns after the last page, and the transfer on this
+     * connection, if the remote starts it, begins only after that, since the connection carries the pages until then.
+     * <p>
+     * The older remotes receive the whole index with the request.
+     *
+     * @param groupId          That ties a group of {@link TransferItem} as in {@link TransferItem#getItemGroupId()}.
+     * @param transferItemList That you will send.
+     * @param prepareListener  To call on success to prepare dependencies.
+     * @param pageLength       The maximum number of items in a page, which should be larger than '0'.
+     * @return True if the transfer should be started now, or false the prompted the user.
+     * @throws IOException       If an IO error occurs.
+     * @throws JSONException     If something goes wrong when creating JSON object.
+     * @throws ProtocolException When there is a communication error due to misconfiguration.
+     * @see TransportSeat#handleFileTransferIndexPage(Client, long, IndexReader, boolean)
+     */
+    public boolean requestFileTransfer(long groupId, @NotNull List<@NotNull TransferItem> transferItemList,
+                                       @Nullable OnPrepareListener prepareListener, int pageLength)
+            throws JSONException, IOException, ProtocolException
+    {
+        if (pageLength < 1)
+            throw new IllegalArgumentException("The page length should be larger than zero.");
+
+        final int protocolVersion = getRemoteClient().getClientProtocolVersion();
+        final boolean binary = protocolVersion >= Config.VERSION_UPROTOCOL_INDEX_BINARY;
+        final int length = protocolVersion >= Config.VERSION_UPROTOCOL_INDEX_PAGE
+                ? Math.min(pageLength, transferItemList.size()) : transferItemList.size();
+        List<TransferItem> page = transferItemList.subList(0, length);
+        JSONObject jsonObject = new JSONObject()
                 .put(Keyword.REQUEST, Keyword.REQUEST_TRANSFER)
-                .put(Keyword.TRANSFER_GROUP_ID, groupId)
-                .put(Keyword.INDEX, Transfers.toJson(transferItemList).toString()));
+                .put(Keyword.TRANSFER_GROUP_ID, groupId);
+
+        if (protocolVersion >= Config.VERSION_UPROTOCOL_INDEX_STREAM) {
+            send(true, jsonObject
+                    .put(Keyword.INDEX_STREAM, true)
+                    .put(Keyword.INDEX_FORMAT, binary ? Keyword.INDEX_FORMAT_BINARY : Keyword.INDEX_FORMAT_JSON)
+                    .put(Keyword.INDEX_MORE, length < transferItemList.size()));
+            Transfers.sendIndex(getActiveConnection(), page, binary);
+        } else {
+            send(true, jsonObject.put(Keyword.INDEX, Transfers.toJson(page).toString()));
+        }
 
         boolean result = receiveResult();
 
@@ -341,7 +437,62 @@ public class CommunicationBridge implements Closeable
             prepareListener.onPrepare();
         }
 
-        getPersistenceProvider().persist(getRemoteClient().getClientUid(), transferItemList);
+        getPersistenceProvider().persist(getRemoteClient().getClientUid(), page);
+
+        for (int start = length; start < transferItemList.size(); start += pageLength) {
+            int end = Math.min(start + pageLength, transferItemList.size());
+            page = transferItemList.subList(start, end);
+
+            send(true, new JSONObject().put(Keyword.INDEX_MORE, end < transferItemList.size()));
+            Transfers.sendIndex(getActiveConnection(), page, binary);
+
+            if (!receiveResult())
+                throw new ProtocolException();
+
+            getPersistenceProvider().persist(getRemoteClient().getClientUid(), page);
+        }
+
+        return result;
+    }
+
+    /**
+     * Add items to a transfer group that you have requested with
+     * {@link #requestFileTransfer(long, List, OnPrepareListener)}, even while its transfer is running.
+     * <p>
+     * The remote persists the items with
+     * {@link TransportSeat#handleFileTransferAppend(Client, long, IndexReader)}, after which an ongoing
+     * {@link Transfers#receive} for the group picks them up before it runs out of items. If it has already ended, the
+     * items are received the next time the transfer starts.
+     * <p>
+     * If the response is positive, the items will be saved to the persistence database using
+     * {@link PersistenceProvider#persist(String, List)}.
+     * <p>
+     * This needs the remote to be {@link Config#VERSION_UPROTOCOL_TRANSFER_APPEND} or newer. The older versions will
+     * refuse it as an unknown request.
+     *
+     * @param groupId          That ties a group of {@link TransferItem} as in {@link TransferItem#getItemGroupId()}.
+     * @param transferItemList That you will send in addition to the items that are already in the group.
+     * @return True if the remote added the items to the group.
+     * @throws IOException       If an IO error occurs.
+     * @throws JSONException     If something goes wrong when creating JSON object.
+     * @throws ProtocolException When there is a communication error due to misconfiguration.
+     */
+    public boolean requestFileTransferAppend(long groupId, @NotNull List<@NotNull TransferItem> transferItemList)
+            throws JSONException, IOException, ProtocolException
+    {
+        final boolean binary = getRemoteClient().getClientProtocolVersion() >= Config.VERSION_UPROTOCOL_INDEX_BINARY;
+
+        send(true, new JSONObject()
+                .put(Keyword.REQUEST, Keyword.REQUEST_TRANSFER_APPEND)
+                .put(Keyword.TRANSFER_GROUP_ID, groupId)
+                .put(Keyword.INDEX_FORMAT, binary ? Keyword.INDEX_FORMAT_BINARY : Keyword.INDEX_FORMAT_JSON));
+        Transfers.sendIndex(getActiveConnection(), transferItemList, binary);
+
+        boolean result = receiveResult();
+
+        if (result) {
+            getPersistenceProvider().persist(getRemoteClient().getClientUid(), transferItemList);
+        }
 
         return result;
     }
@@ -374,6 +525,37 @@ public class CommunicationBridge implements Closeable
         return receiveResult();
     }
 
+    /**
+     * Request the remote to serve an ongoing transfer that you are receiving over this connection as well.
+     * <p>
+     * This is the same as {@link #requestFileTransferStart(long, Direction)} for {@link Direction#Incoming}, except
+     * that the remote will not refuse it because the transfer is already ongoing on another connection. The
+     * connections can then be used together with {@link Transfers#receive(List, TransferOperation, long,
+     * TransferOptions)}.
+     * <p>
+     * This needs the remote to be {@link Config#VERSION_UPROTOCOL_TRANSFER_JOIN} or newer. The older versions would
+     * treat this as a start request, so they are not asked, and the result is negative.
+     *
+     * @param groupId That ties a group of {@link TransferItem} as in {@link TransferItem#getItemGroupId()}.
+     * @return True if successful.
+     * @throws IOException       If an IO error occurs.
+     * @throws JSONException     If something goes wrong when creating JSON object.
+     * @throws ProtocolException When there is a communication error due to misconfiguration.
+     * @see #requestFileTransferStart(long, Direction)
+     */
+    public boolean requestFileTransferJoin(long groupId) throws JSONException, IOException, ProtocolException
+    {
+        if (getRemoteClient().getClientProtocolVersion() < Config.VERSION_UPROTOCOL_TRANSFER_JOIN)
+            return false;
+
+        send(true, new JSONObject()
+                .put(Keyword.REQUEST, Keyword.REQUEST_TRANSFER_START)
+                .put(Keyword.TRANSFER_GROUP_ID, groupId)
+                .put(Keyword.DIRECTION, Direction.Incoming.protocolValue)
+                .put(Keyword.TRANSFER_JOIN, true));
+        return receiveResult();
+    }
+
     /**
      * Request the remote to choose you if it's about to choose pick a client.
      * <p>
@@ -475,6 +657,26 @@ public class CommunicationBridge implements Closeable
         return Responses.receiveResult(getActiveConnection(), getRemoteClient());
     }
 
+    /**
+     * Keep the items of the list that are supported, in the same order and without the duplicates.
+     *
+     * @param supported The supported items.
+     * @param list      To keep the items of.
+     * @return The supported items of the list.
+     */
+    private static String @NotNull [] retainSupported(String @NotNull [] supported, @NotNull List<@NotNull String> list)
+    {
+        List<String> supportedList = Arrays.asList(supported);
+        Set<String> retainedSet = new LinkedHashSet<>();
+
+        for (String item : list) {
+            if (supportedList.contains(item))
+                retainedSet.add(item);
+        }
+
+        return retainedSet.toArray(new String[0]);
+    }
+
     /**
      * Send a JSON data that includes the result.
      * <p>
@@ -644,7 +846,14 @@ public class CommunicationBridge implements Closeable
                 throw new DifferentRemoteClientException(clientUid, remoteClientUid, address);
             }
 
-            Responses.send(activeConnection, true, persistenceProvider.clientAsJson(pin));
+            // The remotes that leave out their picture ask for it if they do not have its revision.
+            Client knownClient = persistenceProvider.getClientFor(remoteClientUid);
+            boolean includePicture = knownClient == null
+                    || knownClient.getClientProtocolVersion() < Config.VERSION_UPROTOCOL_PICTURE_LAZY;
+            Responses.sendClient(activeConnection, persistenceProvider, true, includePicture, new JSONObject()
+                    .put(Keyword.CLIENT_PIN, pin)
+                    .put(Keyword.CLIENT_REVISION_PICTURE_KNOWN,
+                            knownClient == null ? -1 : knownClient.getClientRevisionOfPicture()));
 
             JSONObject jsonObject = activeConnection.receive().getAsJson();
             ClientAddress clientAddress = persistenceProvider.createClientAddressFor(address, remoteClientUid);
@@ -653,6 +862,13 @@ public class CommunicationBridge implements Closeable
 
             Responses.checkError(client, jsonObject);
 
+            if (jsonObject.has(Keyword.CLIENT_REVISION_PICTURE_KNOWN)
+                    && jsonObject.getLong(Keyword.CLIENT_REVISION_PICTURE_KNOWN)
+                    != persistenceProvider.getClient().getClientRevisionOfPicture()) {
+                Responses.sendClient(activeConnection, persistenceProvider, true, true,
+                        new JSONObject().put(Keyword.CLIENT_PIN, pin));
+            }
+
             try {
                 convertToSSL(connectionFactory, persistenceProvider, activeConnection, client, true);
             } catch (SecurityException e) {
@@ -15,8 +15,12 @@ import org.monora.uprotocol.core.protocol.communication.client.BlockedRemoteClie
 import org.monora.uprotocol.core.protocol.communication.client.UnauthorizedClientException;
 import org.monora.uprotocol.core.protocol.communication.client.UntrustedClientException;
 import org.monora.uprotocol.core.spec.v1.Keyword;
+import org.monora.uprotocol.core.transfer.IndexReader;
+import org.monora.uprotocol.core.transfer.JsonIndexReader;
+import org.monora.uprotocol.core.transfer.Transfers;
 
 import java.io.IOException;
+import java.io.StringReader;
 
 /**
  * Handle reading and writing of a response for the protocol
@@ -121,18 +125,53 @@ public class Responses
             }
             case (Keyword.REQUEST_TRANSFER): {
                 long groupId = response.getLong(Keyword.TRANSFER_GROUP_ID);
-                String jsonIndex = response.getString(Keyword.INDEX);
+                boolean streamed = response.has(Keyword.INDEX_STREAM) && response.getBoolean(Keyword.INDEX_STREAM);
+                boolean more = response.has(Keyword.INDEX_MORE) && response.getBoolean(Keyword.INDEX_MORE);
+                boolean binary = Keyword.INDEX_FORMAT_BINARY.equals(response.optString(Keyword.INDEX_FORMAT));
+                boolean result;
 
-                if (transportSeat.hasOngoingIndexingFor(groupId) || persistenceProvider.containsTransfer(groupId)) {
-                    throw new ContentException(ContentException.Error.AlreadyExists);
-                } else {
-                    boolean result = transportSeat.handleFileTransferRequest(client, hasPin, groupId, jsonIndex);
-                    bridge.send(result);
+                // The streamed index is consumed fully when the reader closes, even if the request is refused.
+                try (IndexReader indexReader = streamed
+                        ? Transfers.receiveIndex(bridge.getActiveConnection(), binary)
+                        : new JsonIndexReader(new StringReader(response.getString(Keyword.INDEX)))) {
+                    if (transportSeat.hasOngoingIndexingFor(groupId) || persistenceProvider.containsTransfer(groupId))
+                        throw new ContentException(ContentException.Error.AlreadyExists);
+
+                    result = transportSeat.handleFileTransferRequest(client, hasPin, groupId, indexReader);
+                }
 
-                    if (result) {
-                        transportSeat.beginFileTransfer(bridge, client, groupId, Direction.Incoming);
+                bridge.send(result);
+
+                // The rest of the pages are persisted and acknowledged one by one, and the transfer can only begin on
+                // this connection after the last of them.
+                while (more) {
+                    more = bridge.receiveChecked().getBoolean(Keyword.INDEX_MORE);
+
+                    try (IndexReader indexReader = Transfers.receiveIndex(bridge.getActiveConnection(), binary)) {
+                        transportSeat.handleFileTransferIndexPage(client, groupId, indexReader, !more);
                     }
+
+                    bridge.send(true);
+                }
+
+                if (result) {
+                    transportSeat.beginFileTransfer(bridge, client, groupId, Direction.Incoming);
+                }
+                break;
+            }
+            case (Keyword.REQUEST_TRANSFER_APPEND): {
+                long groupId = response.getLong(Keyword.TRANSFER_GROUP_ID);
+                boolean binary = Keyword.INDEX_FORMAT_BINARY.equals(response.optString(Keyword.INDEX_FORMAT));
+                boolean result;
+
+                try (IndexReader indexReader = Transfers.receiveIndex(bridge.getActiveConnection(), binary)) {
+                    if (!persistenceProvider.containsTransfer(groupId))
+                        throw new ContentException(ContentException.Error.NotFound);
+
+                    result = transportSeat.handleFileTransferAppend(client, groupId, indexReader);
                 }
+
+                bridge.send(result);
                 break;
             }
             case (Keyword.REQUEST_NOTIFY_TRANSFER_REJECTION): {
@@ -155,6 +194,7 @@ public class Responses
             case (Keyword.REQUEST_TRANSFER_START): {
                 long groupId = response.getLong(Keyword.TRANSFER_GROUP_ID);
                 Direction direction = Direction.from(response.getString(Keyword.DIRECTION));
+                boolean joining = response.has(Keyword.TRANSFER_JOIN) && response.getBoolean(Keyword.TRANSFER_JOIN);
 
                 // The direction is reversed to match our side
                 if (Direction.Incoming.equals(direction)) {
@@ -165,7 +205,10 @@ public class Responses
 
                 if (Direction.Incoming.equals(direction) && !client.isClientTrusted()) {
                     bridge.send(Keyword.ERROR_NOT_TRUSTED);
-                } else if (transportSeat.hasOngoingTransferFor(groupId, client.getClientUid(), direction)) {
+                } else if (joining && !Direction.Outgoing.equals(direction)) {
+                    // Only the receiver can add connections since it is the one that decides which item goes where.
+                    throw new UnsupportedException(client);
+                } else if (!joining && transportSeat.hasOngoingTransferFor(groupId, client.getClientUid(), direction)) {
                     throw new ContentException(ContentException.Error.NotAccessible);
                 } else if (!persistenceProvider.containsTransfer(groupId)) {
                     throw new ContentException(ContentException.Error.NotFound);
@@ -308,4 +351,33 @@ public class Responses
         insertError(jsonObject, errorCode);
         send(activeConnection, false, jsonObject);
     }
+
+    /**
+     * Send the details of this client along with the result.
+     * <p>
+     * The details come from {@link PersistenceProvider#getClientDetails(boolean)}, and the fields of the given JSON
+     * object are put into them.
+     *
+     * @param activeConnection    The active connection instance.
+     * @param persistenceProvider That provides the details of this client.
+     * @param result              If the result is successful.
+     * @param includePicture      True to include the picture of this client.
+     * @param jsonObject          To send along with the result and the details, e.g., with the PIN.
+     * @throws IOException   If an IO error occurs.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     * @see #send(ActiveConnection, boolean, JSONObject)
+     */
+    public static void sendClient(@NotNull ActiveConnection activeConnection,
+                                  @NotNull PersistenceProvider persistenceProvider, boolean result,
+                                  boolean includePicture, @NotNull JSONObject jsonObject)
+            throws IOException, JSONException
+    {
+        JSONObject details = persistenceProvider.getClientDetails(includePicture);
+
+        for (String key : jsonObject.keySet()) {
+            details.put(key, jsonObject.get(key));
+        }
+
+        send(activeConnection, result, details);
+    }
 }
@@ -0,0 +1,73 @@
+package org.monora.uprotocol.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.persistence.PersistenceProvider;
+import org.monora.uprotocol.core.persistence.SSLContextCache;
+import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ConnectionFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class counts the secure sessions that were resumed and the ones that needed a full handshake.
+ * <p>
+ * The sessions are kept by the SSL context that they were established with, and looked up with the unique identifier
+ * of the peer rather than its address, so that a session is resumed as long as the same context is used for the same
+ * peer again, as it is with {@link SSLContextCache}. Since the context is created for the certificate of the peer, a
+ * session is not resumed once the certificate changes.
+ * <p>
+ * An instance only counts the sessions it is given, e.g., by a connection factory with
+ * {@link ConnectionFactory#onSecureSessionEstablished(Client, boolean)}, so the counts of different factories are kept
+ * apart.
+ *
+ * @see PersistenceProvider#getSSLContextFor(Client)
+ */
+public class SecureSessions
+{
+    private final @NotNull AtomicLong fullHandshakeCount = new AtomicLong();
+
+    private final @NotNull AtomicLong resumedCount = new AtomicLong();
+
+    /**
+     * The number of sessions that needed a full handshake since the creation or the last reset.
+     *
+     * @return The number of misses.
+     */
+    public long getFullHandshakeCount()
+    {
+        return fullHandshakeCount.get();
+    }
+
+    /**
+     * The number of sessions that were resumed since the creation or the last reset.
+     *
+     * @return The number of hits.
+     */
+    public long getResumedCount()
+    {
+        return resumedCount.get();
+    }
+
+    /**
+     * Count a session that was established.
+     *
+     * @param resumed True if it was resumed.
+     */
+    public void record(boolean resumed)
+    {
+        if (resumed) {
+            resumedCount.incrementAndGet();
+        } else {
+            fullHandshakeCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reset the counts to zero.
+     */
+    public void reset()
+    {
+        fullHandshakeCount.set(0);
+        resumedCount.set(0);
+    }
+}
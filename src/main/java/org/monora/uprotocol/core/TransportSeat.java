@@ -7,6 +7,7 @@ import org.monora.uprotocol.core.persistence.PersistenceProvider;
 import org.monora.uprotocol.core.protocol.*;
 import org.monora.uprotocol.core.protocol.communication.ProtocolException;
 import org.monora.uprotocol.core.spec.v1.Config;
+import org.monora.uprotocol.core.transfer.IndexReader;
 import org.monora.uprotocol.core.transfer.TransferItem;
 import org.monora.uprotocol.core.transfer.TransferOperation;
 import org.monora.uprotocol.core.transfer.Transfers;
@@ -37,6 +38,12 @@ public interface TransportSeat
      * {@link Direction#Incoming} or {@link Transfers#send(CommunicationBridge, TransferOperation, long)}
      * for {@link Direction#Outgoing} types.
      *
+     * <p>
+     * When the remote joins more connections to a transfer that you are sending with
+     * {@link CommunicationBridge#requestFileTransferJoin(long)}, this is invoked for each of them while the others are
+     * still ongoing. Every invocation serves the items requested over its own bridge, so the operation objects they
+     * use should be thread-safe or separate.
+     *
      * @param bridge    The bridge that speaks on behalf of you when making requests.
      * @param client    That is making the request.
      * @param groupId   {@link TransferItem#getItemGroupId()}.
@@ -76,19 +83,71 @@ public interface TransportSeat
      * Returning false will mean you have prompted the user and he or she will decide whether the transfer is going
      * to be accepted or rejected.
      * <p>
-     * The JSON array can be consumed using {@link Transfers#toTransferItemList(String)}.
+     * The items should be read from the index one at a time using {@link IndexReader#read()}, so that a large index
+     * is never held in memory as a whole. The part of the index that is left unread is skipped after this returns.
+     * <p>
+     * If the remote sends the index in pages, this only receives the first page, and the rest of the pages arrive
+     * with {@link #handleFileTransferIndexPage(Client, long, IndexReader, boolean)} after this returns.
      *
-     * @param client    That is making the file transfer request.
-     * @param hasPin    Whether the remote client had a valid PIN when it made this request.
-     * @param groupId   The unique transfer id to mention a group of items.
-     * @param jsonArray The transfer item data.
+     * @param client      That is making the file transfer request.
+     * @param hasPin      Whether the remote client had a valid PIN when it made this request.
+     * @param groupId     The unique transfer id to mention a group of items.
+     * @param indexReader To read the transfer items from.
      * @return True if the transfer is accepted and is about to start, or false if the user prompt is needed, and it
      * will be started or rejected after it.
+     * @throws IOException          If an IO error occurs when reading the index.
      * @throws PersistenceException If anything related to handling of the persistent data goes wrong.
-     * @throws ProtocolException    If something related to permissions or similar goes wrong.
+     * @throws ProtocolException    If something related to permissions or similar goes wrong, or the index is
+     *                              corrupted.
      */
-    boolean handleFileTransferRequest(@NotNull Client client, boolean hasPin, long groupId, @NotNull String jsonArray)
-            throws PersistenceException, ProtocolException;
+    boolean handleFileTransferRequest(@NotNull Client client, boolean hasPin, long groupId,
+                                      @NotNull IndexReader indexReader)
+            throws IOException, PersistenceException, ProtocolException;
+
+    /**
+     * Handle the items that the remote adds to one of its existing transfer groups.
+     * <p>
+     * The items should be persisted as {@link TransferItem.State#Pending} before this returns, so that an ongoing
+     * {@link Transfers#receive} for the group picks them up. The group is known to exist, but whether it belongs to the
+     * remote client should be checked here.
+     * <p>
+     * The items should be read from the index one at a time using {@link IndexReader#read()}.
+     *
+     * @param client      That owns the transfer group.
+     * @param groupId     The transfer id as in {@link TransferItem#getItemGroupId()}.
+     * @param indexReader To read the added transfer items from.
+     * @return True if the items are added to the group.
+     * @throws IOException          If an IO error occurs when reading the index.
+     * @throws PersistenceException If anything related to handling of the persistent data goes wrong.
+     * @throws ProtocolException    If something related to permissions or similar goes wrong, or the index is
+     *                              corrupted.
+     * @see CommunicationBridge#requestFileTransferAppend(long, List)
+     */
+    boolean handleFileTransferAppend(@NotNull Client client, long groupId, @NotNull IndexReader indexReader)
+            throws IOException, PersistenceException, ProtocolException;
+
+    /**
+     * Handle a page of the index that follows the first page given to
+     * {@link #handleFileTransferRequest(Client, boolean, long, IndexReader)}.
+     * <p>
+     * The items should be persisted before this returns, after which the page is acknowledged and the remote sends the
+     * next one. The index of the group is complete only after the page that is marked as the last one is handled.
+     * <p>
+     * This is invoked regardless of the result of the request, since the index should be complete if the user
+     * accepts the transfer later.
+     *
+     * @param client      That is making the file transfer request.
+     * @param groupId     The unique transfer id to mention a group of items.
+     * @param indexReader To read the transfer items from.
+     * @param last        True if this is the last page of the index.
+     * @throws IOException          If an IO error occurs when reading the index.
+     * @throws PersistenceException If anything related to handling of the persistent data goes wrong.
+     * @throws ProtocolException    If something related to permissions or similar goes wrong, or the index is
+     *                              corrupted.
+     * @see CommunicationBridge#requestFileTransfer(long, List, OnPrepareListener, int)
+     */
+    void handleFileTransferIndexPage(@NotNull Client client, long groupId, @NotNull IndexReader indexReader,
+                                     boolean last) throws IOException, PersistenceException, ProtocolException;
 
     /**
      * The remote has rejected the file transfer request we made with
@@ -7,6 +7,7 @@ import org.monora.coolsocket.core.CoolSocket;
 import org.monora.coolsocket.core.session.ActiveConnection;
 import org.monora.coolsocket.core.session.CancelledException;
 import org.monora.coolsocket.core.session.ClosedException;
+import org.monora.uprotocol.core.persistence.ClientUsageBatch;
 import org.monora.uprotocol.core.persistence.PersistenceException;
 import org.monora.uprotocol.core.persistence.PersistenceProvider;
 import org.monora.uprotocol.core.protocol.Client;
@@ -62,8 +63,6 @@ public class TransportSession extends CoolSocket
     @Override
     public void onConnected(@NotNull ActiveConnection activeConnection)
     {
-        final JSONObject clientIndex = persistenceProvider.clientAsJson(0);
-
         try {
             activeConnection.reply(persistenceProvider.getClientUid());
 
@@ -85,8 +84,19 @@ public class TransportSession extends CoolSocket
                     activeConnection.getAddress(), clientUid);
             final Client client = ClientLoader.loadAsServer(persistenceProvider, response, clientUid, clientAddress,
                     hasPin);
-
-            Responses.send(activeConnection, true, clientIndex);
+            final long revisionOfPicture = response.getLong(Keyword.CLIENT_REVISION_PICTURE);
+            final boolean lazyPicture = response.has(Keyword.CLIENT_REVISION_PICTURE_KNOWN);
+            final boolean includePicture = !lazyPicture || response.getLong(Keyword.CLIENT_REVISION_PICTURE_KNOWN)
+                    != persistenceProvider.getClient().getClientRevisionOfPicture();
+
+            Responses.sendClient(activeConnection, persistenceProvider, true, includePicture, new JSONObject()
+                    .put(Keyword.CLIENT_PIN, 0)
+                    .put(Keyword.CLIENT_REVISION_PICTURE_KNOWN, client.getClientRevisionOfPicture()));
+
+            if (lazyPicture && client.getClientRevisionOfPicture() != revisionOfPicture) {
+                ClientLoader.loadPicture(persistenceProvider, client, revisionOfPicture,
+                        activeConnection.receive().getAsJson());
+            }
 
             CommunicationBridge.convertToSSL(connectionFactory, persistenceProvider, activeConnection, client,
                     false);
@@ -112,7 +122,7 @@ public class TransportSession extends CoolSocket
             getLogger().log(Level.INFO, "Cancelled successfully by " + (e.remoteRequested ? "remote" : "you"));
         } catch (Exception e) {
             try {
-                Responses.send(activeConnection, e, clientIndex);
+                Responses.send(activeConnection, e, persistenceProvider.clientAsJson(0));
             } catch (Exception e1) {
                 e1.printStackTrace();
             }
@@ -127,4 +137,24 @@ public class TransportSession extends CoolSocket
     {
         Responses.handleRequest(persistenceProvider, transportSeat, bridge, client, clientAddress, hasPin, response);
     }
+
+    /**
+     * Stop the session and save the last usage times that are waiting in the
+     * {@link PersistenceProvider#getClientUsageBatch()}, since there will be no new connections to save them with.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the session to stop.
+     */
+    @Override
+    public void stop() throws InterruptedException
+    {
+        try {
+            super.stop();
+        } finally {
+            ClientUsageBatch usageBatch = persistenceProvider.getClientUsageBatch();
+
+            if (usageBatch != null) {
+                usageBatch.flush();
+            }
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package org.monora.uprotocol.core.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.coolsocket.core.session.ActiveConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a read operation that has begun with {@link ActiveConnection#readBegin()}.
+ * <p>
+ * This reaches its end when the remote ends the operation, after which the operation is complete.
+ */
+public class DescriptionInputStream extends InputStream
+{
+    private final @NotNull ActiveConnection activeConnection;
+
+    private final @NotNull ActiveConnection.Description description;
+
+    private boolean started = false;
+
+    /**
+     * Create a new instance.
+     *
+     * @param activeConnection To read from.
+     * @param description      Of the read operation that has begun.
+     */
+    public DescriptionInputStream(@NotNull ActiveConnection activeConnection,
+                                  @NotNull ActiveConnection.Description description)
+    {
+        this.activeConnection = activeConnection;
+        this.description = description;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] bytes = new byte[1];
+        return read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+
+        ByteBuffer buffer = description.byteBuffer;
+
+        // The buffer belongs to the description and its content is only valid after the first read.
+        while (!started || !buffer.hasRemaining()) {
+            if (!description.hasAvailable() || activeConnection.read(description) == -1)
+                return -1;
+
+            started = true;
+        }
+
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+}
@@ -0,0 +1,57 @@
+package org.monora.uprotocol.core.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.coolsocket.core.session.ActiveConnection;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes to a write operation that has begun with {@link ActiveConnection#writeBegin}.
+ * <p>
+ * Every write is sent as a separate chunk, so you should wrap this with a {@link BufferedOutputStream} when writing
+ * small pieces of data.
+ * <p>
+ * Closing this will not end the operation. You should still invoke {@link ActiveConnection#writeEnd}.
+ */
+public class DescriptionOutputStream extends OutputStream
+{
+    private final @NotNull ActiveConnection activeConnection;
+
+    private final @NotNull ActiveConnection.Description description;
+
+    /**
+     * Create a new instance.
+     *
+     * @param activeConnection To write to.
+     * @param description      Of the write operation that has begun.
+     */
+    public DescriptionOutputStream(@NotNull ActiveConnection activeConnection,
+                                   @NotNull ActiveConnection.Description description)
+    {
+        this.activeConnection = activeConnection;
+        this.description = description;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte @NotNull [] b, int off, int len) throws IOException
+    {
+        if (len <= 0)
+            return;
+
+        // The connection only writes the slices that start at the beginning of the array correctly.
+        if (off == 0) {
+            activeConnection.write(description, b, 0, len);
+        } else {
+            activeConnection.write(description, Arrays.copyOfRange(b, off, off + len), 0, len);
+        }
+    }
+}
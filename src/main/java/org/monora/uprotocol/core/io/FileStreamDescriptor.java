@@ -0,0 +1,41 @@
+package org.monora.uprotocol.core.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.persistence.PersistenceProvider;
+import org.monora.uprotocol.core.transfer.Transfers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * This represents a descriptor that is backed by a file, which can be accessed directly using a {@link FileChannel}.
+ * <p>
+ * When a descriptor implements this, {@link Transfers#send} will read the file from its channel directly into its
+ * buffers instead of copying it through the {@link InputStream} from
+ * {@link PersistenceProvider#openInputStream(StreamDescriptor)}.
+ */
+public interface FileStreamDescriptor extends StreamDescriptor
+{
+    /**
+     * Open a read-only channel for the file this descriptor points to.
+     * <p>
+     * The caller owns the returned channel and closes it after use.
+     *
+     * @return The open file channel.
+     * @throws IOException If an IO error occurs.
+     */
+    @NotNull FileChannel openReadableChannel() throws IOException;
+
+    /**
+     * Open a writable channel for the file this descriptor points to, creating the file if it doesn't exist.
+     * <p>
+     * This is used to write the parts of a large item at their own positions when it is received in ranges, so the
+     * channel should not be in append mode. The caller owns the returned channel and closes it after use.
+     *
+     * @return The open file channel.
+     * @throws IOException If an IO error occurs.
+     * @see PersistenceProvider#getCompletedRanges(TransferItem)
+     */
+    @NotNull FileChannel openWritableChannel() throws IOException;
+}
@@ -0,0 +1,148 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ClientType;
+import org.monora.uprotocol.core.spec.v1.Keyword;
+
+/**
+ * Keeps the details of the client of a persistence provider as {@link PersistenceProvider#clientAsJson(int, boolean)}
+ * creates them without the PIN, so that the picture is not read and encoded again for every connection.
+ * <p>
+ * The details are kept along with the fields of the client they were created for. When any of those changes, including
+ * the revision of the picture, which changes along with the picture, the details are created again.
+ *
+ * @see PersistenceProvider#getClientDetails(boolean)
+ */
+public class ClientDescriptorCache
+{
+    private final @NotNull PersistenceProvider persistenceProvider;
+
+    private volatile @Nullable Entry entry;
+
+    /**
+     * Create a new instance.
+     *
+     * @param persistenceProvider That provides the client and creates its details.
+     */
+    public ClientDescriptorCache(@NotNull PersistenceProvider persistenceProvider)
+    {
+        this.persistenceProvider = persistenceProvider;
+    }
+
+    /**
+     * Remove the details, e.g., after the picture changed without a new revision.
+     */
+    public void clear()
+    {
+        entry = null;
+    }
+
+    /**
+     * Find the details of the client, or create and keep them if there are none or they are out of date.
+     * <p>
+     * The returned JSON object is a copy, so the PIN and the other fields can be put into it.
+     *
+     * @param includePicture True to include the picture.
+     * @return A copy of the details without the PIN.
+     * @throws JSONException If the creation of the JSON object fails for some reason.
+     */
+    public @NotNull JSONObject get(boolean includePicture) throws JSONException
+    {
+        Client client = persistenceProvider.getClient();
+        Entry entry = this.entry;
+
+        if (entry == null || !entry.matches(client)) {
+            entry = new Entry(client);
+            this.entry = entry;
+        }
+
+        JSONObject details = entry.get(persistenceProvider, includePicture);
+        JSONObject copy = new JSONObject();
+
+        // The values are strings and numbers, so the picture is shared with the copy instead of being copied.
+        for (String key : details.keySet()) {
+            copy.put(key, details.get(key));
+        }
+
+        return copy;
+    }
+
+    private static class Entry
+    {
+        private final @NotNull String uid;
+
+        private final @NotNull String nickname;
+
+        private final @NotNull String manufacturer;
+
+        private final @NotNull String product;
+
+        private final @NotNull ClientType type;
+
+        private final @NotNull String versionName;
+
+        private final int versionCode;
+
+        private final int protocolVersion;
+
+        private final int protocolVersionMin;
+
+        private final long revisionOfPicture;
+
+        private volatile @Nullable JSONObject detailsWithPicture;
+
+        private volatile @Nullable JSONObject detailsWithoutPicture;
+
+        Entry(@NotNull Client client)
+        {
+            this.uid = client.getClientUid();
+            this.nickname = client.getClientNickname();
+            this.manufacturer = client.getClientManufacturer();
+            this.product = client.getClientProduct();
+            this.type = client.getClientType();
+            this.versionName = client.getClientVersionName();
+            this.versionCode = client.getClientVersionCode();
+            this.protocolVersion = client.getClientProtocolVersion();
+            this.protocolVersionMin = client.getClientProtocolVersionMin();
+            this.revisionOfPicture = client.getClientRevisionOfPicture();
+        }
+
+        @NotNull JSONObject get(@NotNull PersistenceProvider persistenceProvider, boolean includePicture)
+                throws JSONException
+        {
+            // Creating them twice when two connections ask at once is harmless, so there is no lock.
+            JSONObject details = includePicture ? detailsWithPicture : detailsWithoutPicture;
+
+            if (details == null) {
+                details = persistenceProvider.clientAsJson(0, includePicture);
+                details.remove(Keyword.CLIENT_PIN);
+
+                if (includePicture) {
+                    detailsWithPicture = details;
+                } else {
+                    detailsWithoutPicture = details;
+                }
+            }
+
+            return details;
+        }
+
+        boolean matches(@NotNull Client client)
+        {
+            return revisionOfPicture == client.getClientRevisionOfPicture()
+                    && versionCode == client.getClientVersionCode()
+                    && protocolVersion == client.getClientProtocolVersion()
+                    && protocolVersionMin == client.getClientProtocolVersionMin()
+                    && type == client.getClientType()
+                    && uid.equals(client.getClientUid())
+                    && nickname.equals(client.getClientNickname())
+                    && manufacturer.equals(client.getClientManufacturer())
+                    && product.equals(client.getClientProduct())
+                    && versionName.equals(client.getClientVersionName());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ClientAddress;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the clients and client addresses of a persistence provider that did not change other than being used again,
+ * and saves their last usage times in batches with {@link PersistenceProvider#persistClientUsage(List, List)}.
+ * <p>
+ * The batch is saved when it has the given number of them or when the given time has passed since the last save, both
+ * of which are checked when a new one is added. Since nothing is saved when there are no new connections, the last
+ * usage times in the persistence database can be behind until then. {@link #flush()} saves them anyway, which
+ * {@link org.monora.uprotocol.core.TransportSession} does when it stops.
+ * <p>
+ * A client or an address that changed should be saved directly, and removed from the batch so that it is not saved
+ * again with its old details.
+ *
+ * @see PersistenceProvider#getClientUsageBatch()
+ */
+public class ClientUsageBatch
+{
+    private final @NotNull PersistenceProvider persistenceProvider;
+
+    private final int size;
+
+    private final long interval;
+
+    private final @NotNull Map<@NotNull String, @NotNull Long> clientTimeMap = new LinkedHashMap<>();
+
+    private final @NotNull Map<@NotNull InetAddress, @NotNull ClientAddress> addressMap = new LinkedHashMap<>();
+
+    private long lastFlushTime = System.currentTimeMillis();
+
+    /**
+     * Create a new instance.
+     *
+     * @param persistenceProvider That the clients and client addresses belong to.
+     * @param size                The number of clients and addresses after which they are saved, which should be '1'
+     *                            or larger.
+     * @param interval            The time in milliseconds after which they are saved, which should be '0' or larger.
+     */
+    public ClientUsageBatch(@NotNull PersistenceProvider persistenceProvider, int size, long interval)
+    {
+        if (size < 1)
+            throw new IllegalArgumentException("The size cannot be smaller than 1.");
+        if (interval < 0)
+            throw new IllegalArgumentException("The interval cannot be smaller than 0.");
+
+        this.persistenceProvider = persistenceProvider;
+        this.size = size;
+        this.interval = interval;
+    }
+
+    /**
+     * Add a client whose last usage time should be saved.
+     *
+     * @param client That was used again.
+     */
+    public synchronized void add(@NotNull Client client)
+    {
+        Long time = clientTimeMap.get(client.getClientUid());
+
+        clientTimeMap.put(client.getClientUid(), time == null ? client.getClientLastUsageTime()
+                : Math.max(time, client.getClientLastUsageTime()));
+        flushIfNeeded();
+    }
+
+    /**
+     * Add a client address whose last usage time should be saved.
+     *
+     * @param clientAddress That was used again.
+     */
+    public synchronized void add(@NotNull ClientAddress clientAddress)
+    {
+        addressMap.put(clientAddress.getClientAddress(), clientAddress);
+        flushIfNeeded();
+    }
+
+    /**
+     * Save all the clients and client addresses in the batch.
+     * <p>
+     * The clients are read again before they are saved, so that the changes made to them in the meantime are not
+     * lost.
+     */
+    public synchronized void flush()
+    {
+        if (!clientTimeMap.isEmpty() || !addressMap.isEmpty()) {
+            List<Client> clientList = new ArrayList<>(clientTimeMap.size());
+
+            for (Map.Entry<String, Long> timeEntry : clientTimeMap.entrySet()) {
+                Client client = persistenceProvider.getClientFor(timeEntry.getKey());
+
+                if (client != null) {
+                    client.setClientLastUsageTime(Math.max(client.getClientLastUsageTime(), timeEntry.getValue()));
+                    clientList.add(client);
+                }
+            }
+
+            persistenceProvider.persistClientUsage(clientList, new ArrayList<>(addressMap.values()));
+            clientTimeMap.clear();
+            addressMap.clear();
+        }
+
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    private void flushIfNeeded()
+    {
+        if (size() >= size || System.currentTimeMillis() - lastFlushTime >= interval) {
+            flush();
+        }
+    }
+
+    /**
+     * Remove a client from the batch after it was saved directly.
+     *
+     * @param client To remove.
+     */
+    public synchronized void remove(@NotNull Client client)
+    {
+        clientTimeMap.remove(client.getClientUid());
+    }
+
+    /**
+     * Remove a client address from the batch after it was saved directly.
+     *
+     * @param clientAddress To remove.
+     */
+    public synchronized void remove(@NotNull ClientAddress clientAddress)
+    {
+        addressMap.remove(clientAddress.getClientAddress());
+    }
+
+    /**
+     * The number of clients and client addresses that are waiting to be saved.
+     *
+     * @return The size.
+     */
+    public synchronized int size()
+    {
+        return clientTimeMap.size() + addressMap.size();
+    }
+}
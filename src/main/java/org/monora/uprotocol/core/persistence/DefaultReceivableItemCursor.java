@@ -0,0 +1,79 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.transfer.TransferItem;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * The cursor that {@link PersistenceProvider#getReceivableItemCursor(long, int)} falls back to when it is not
+ * overridden.
+ * <p>
+ * It reads the items in batches with {@link PersistenceProvider#getReceivableItems(long, int)} and skips the ones it
+ * has handed out before. Those that are still receivable, e.g., because they are still being received, are at the
+ * start of every batch, so only their ids are kept.
+ * <p>
+ * It can only go past the items it handed out if the batches have more than those, so it hands out a single item at a
+ * time when {@link PersistenceProvider#getReceivableItems(long, int)} is not overridden, until that item is no longer
+ * receivable.
+ */
+public class DefaultReceivableItemCursor implements ReceivableItemCursor
+{
+    private final @NotNull PersistenceProvider persistenceProvider;
+
+    private final long groupId;
+
+    private final int prefetch;
+
+    private final @NotNull Queue<@NotNull TransferItem> itemQueue = new ArrayDeque<>();
+
+    private @NotNull Set<@NotNull Long> handedIdSet = new HashSet<>();
+
+    /**
+     * Create a new instance.
+     *
+     * @param persistenceProvider To read the items from.
+     * @param groupId             As in {@link TransferItem#getItemGroupId()}.
+     * @param prefetch            The number of items to read at once.
+     */
+    public DefaultReceivableItemCursor(@NotNull PersistenceProvider persistenceProvider, long groupId, int prefetch)
+    {
+        this.persistenceProvider = persistenceProvider;
+        this.groupId = groupId;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public @Nullable TransferItem next()
+    {
+        if (itemQueue.isEmpty()) {
+            List<TransferItem> itemList = persistenceProvider.getReceivableItems(groupId,
+                    handedIdSet.size() + prefetch);
+            Set<Long> idSet = new HashSet<>();
+
+            for (TransferItem item : itemList) {
+                if (handedIdSet.contains(item.getItemId())) {
+                    idSet.add(item.getItemId());
+                } else {
+                    itemQueue.add(item);
+                }
+            }
+
+            // The items that are no longer receivable will not be in the next batches either.
+            handedIdSet = idSet;
+        }
+
+        TransferItem item = itemQueue.poll();
+
+        if (item != null) {
+            handedIdSet.add(item.getItemId());
+        }
+
+        return item;
+    }
+}
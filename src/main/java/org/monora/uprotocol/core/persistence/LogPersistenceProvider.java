@@ -0,0 +1,1069 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ClientAddress;
+import org.monora.uprotocol.core.protocol.ClientType;
+import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.TransferRange;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A persistence provider that keeps everything in memory like {@link MemoryPersistenceProvider} and also appends every
+ * change to a log file, which is replayed when it is opened again.
+ * <p>
+ * Every change is a single record that is written with a single write, so a change costs an append instead of a
+ * random update, and the items that are saved together with {@link #persistStates(String, List)} are all in the same
+ * record. Every record has its length and checksum before it, so a record that was being written when the process was
+ * killed is detected and dropped when the log is replayed, along with whatever comes after it. The records reach the
+ * operating system as soon as they are written, which is enough to survive the process being killed. If the log
+ * should also survive a power loss, the records can be forced to the storage device as well, in which case the
+ * records that were written while the log was being forced are forced together afterwards.
+ * <p>
+ * The ranges of the items that are received in ranges are logged as well, so those items are continued from where they
+ * were left. The rest of the items are continued from the length of their data as usual.
+ * <p>
+ * Once the log grows twice as large as it was after the last compaction, it is compacted by writing what is in memory
+ * to a new log which then replaces the old one. The new log is written while the changes keep being appended to the
+ * old one, and only the changes that were made in the meantime are copied over while they are stopped.
+ * <p>
+ * {@link #open()} should be invoked before any other method since it replays the log using the factory methods of the
+ * implementation, e.g., {@link #createTransferItemFor}, which cannot be invoked from the constructor.
+ */
+public abstract class LogPersistenceProvider extends MemoryPersistenceProvider implements Closeable
+{
+    private static final byte TAG_CLIENT = 1;
+
+    private static final byte TAG_CLIENT_ADDRESS = 2;
+
+    private static final byte TAG_CLIENT_PICTURE = 3;
+
+    private static final byte TAG_INVALIDATION_REQUEST = 4;
+
+    private static final byte TAG_ITEMS = 5;
+
+    private static final byte TAG_RANGES = 6;
+
+    private static final byte TAG_REMOVE_TRANSFER = 7;
+
+    private static final byte TAG_CLIENT_USAGE = 8;
+
+    private static final int LENGTH_HEADER = 8;
+
+    private static final int LENGTH_RECORD_MAX = 0x4000000; // 64MiB
+
+    private static final int LENGTH_SNAPSHOT_ITEMS = 1024;
+
+    private static final long LENGTH_COMPACT_MIN = 0x100000; // 1MiB
+
+    private final @NotNull File file;
+
+    private final boolean sync;
+
+    private final @NotNull Object lock = new Object();
+
+    private @Nullable FileOutputStream outputStream;
+
+    private @Nullable List<byte @NotNull []> compactTail;
+
+    private boolean compacting;
+
+    private boolean syncing;
+
+    private long length;
+
+    private long compactedLength;
+
+    private long writtenCount;
+
+    private long syncedCount;
+
+    /**
+     * Create a new instance.
+     *
+     * @param file To keep the log in, which will be created if it does not exist.
+     * @param sync True if every record should be forced to the storage device, which is slower but also survives a
+     *             power loss.
+     */
+    protected LogPersistenceProvider(@NotNull File file, boolean sync)
+    {
+        this.file = file;
+        this.sync = sync;
+    }
+
+    /**
+     * Write a record to the log.
+     * <p>
+     * This should be invoked while holding the lock together with the change in memory, so that the records are in the
+     * same order as the changes. The record is not forced to the storage device until {@link #commit(long)} is invoked
+     * after releasing the lock.
+     *
+     * @param record The record that was written with {@link #newRecord(byte)}.
+     * @return The number of the record to pass to {@link #commit(long)}.
+     */
+    private long append(@NotNull ByteArrayOutputStream record)
+    {
+        if (outputStream == null)
+            throw new IllegalStateException("The log is not open.");
+
+        byte[] frame = frame(record);
+
+        try {
+            outputStream.write(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to the log.", e);
+        }
+
+        if (compactTail != null) {
+            compactTail.add(frame);
+        }
+
+        length += frame.length;
+        return ++writtenCount;
+    }
+
+    /**
+     * Apply a record that was read from the log to the memory.
+     *
+     * @param record To apply.
+     * @throws IOException If the record is corrupted.
+     */
+    private void apply(byte @NotNull [] record) throws IOException
+    {
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(record));
+
+        switch (inputStream.readByte()) {
+            case TAG_CLIENT:
+                super.persist(readClient(inputStream), true);
+                break;
+            case TAG_CLIENT_ADDRESS:
+                super.persist(readClientAddress(inputStream));
+                break;
+            case TAG_CLIENT_PICTURE: {
+                String clientUid = inputStream.readUTF();
+                putClientPicture(clientUid, inputStream.readBoolean() ? readBytes(inputStream) : null);
+                break;
+            }
+            case TAG_INVALIDATION_REQUEST: {
+                String clientUid = inputStream.readUTF();
+
+                // The approval has its own client record, so only the request is removed here.
+                if (inputStream.readBoolean()) {
+                    super.saveRequestForInvalidationOfCredentials(clientUid);
+                } else {
+                    removeRequestForInvalidationOfCredentials(clientUid);
+                }
+                break;
+            }
+            case TAG_ITEMS: {
+                String clientUid = inputStream.readUTF();
+                boolean updating = inputStream.readBoolean();
+
+                for (int i = inputStream.readInt(); i > 0; i--) {
+                    TransferItem item = readItem(inputStream);
+                    TransferItem.State state = TransferItem.State.valueOf(inputStream.readUTF());
+
+                    if (updating) {
+                        super.persist(clientUid, item);
+                    } else {
+                        super.persist(clientUid, Collections.singletonList(item));
+                    }
+
+                    super.setState(clientUid, item, state, null);
+                }
+                break;
+            }
+            case TAG_RANGES: {
+                String clientUid = inputStream.readUTF();
+                long groupId = inputStream.readLong();
+                long id = inputStream.readLong();
+                Direction direction = Direction.from(inputStream.readUTF());
+                List<TransferRange> rangeList = new ArrayList<>();
+
+                for (int i = inputStream.readInt(); i > 0; i--) {
+                    rangeList.add(new TransferRange(inputStream.readLong(), inputStream.readLong()));
+                }
+
+                try {
+                    super.persistCompletedRanges(clientUid, loadTransferItem(clientUid, groupId, id, direction),
+                            rangeList);
+                } catch (PersistenceException ignored) {
+                }
+                break;
+            }
+            case TAG_REMOVE_TRANSFER:
+                super.removeTransfer(inputStream.readLong());
+                break;
+            case TAG_CLIENT_USAGE:
+                for (int i = inputStream.readInt(); i > 0; i--) {
+                    super.persist(readClient(inputStream), true);
+                }
+
+                for (int i = inputStream.readInt(); i > 0; i--) {
+                    super.persist(readClientAddress(inputStream));
+                }
+                break;
+            default:
+                throw new IOException("Unknown record type.");
+        }
+    }
+
+    @Override
+    public boolean approveInvalidationOfCredentials(@NotNull Client client)
+    {
+        long number;
+
+        synchronized (lock) {
+            if (!super.approveInvalidationOfCredentials(client))
+                return false;
+
+            number = append(newInvalidationRequestRecord(client.getClientUid(), false));
+        }
+
+        commit(number);
+        return true;
+    }
+
+    /**
+     * Wait for the lock to be notified.
+     * <p>
+     * This should be invoked while holding the lock.
+     *
+     * @return True if the thread was interrupted, which should be restored once the waiting is over.
+     */
+    private boolean await()
+    {
+        try {
+            lock.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Close the log.
+     * <p>
+     * What is in memory stays as is, but the changes are no longer saved. The last usage times that are waiting in the
+     * {@link #getClientUsageBatch()} are saved first, and if the records are forced to the storage device, the ones that
+     * were not are forced before closing.
+     *
+     * @throws IOException If an IO error occurs.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        getClientUsageBatch().flush();
+
+        boolean interrupted = false;
+
+        try {
+            synchronized (lock) {
+                while (syncing) {
+                    interrupted |= await();
+                }
+
+                if (outputStream != null) {
+                    try {
+                        if (sync && syncedCount < writtenCount) {
+                            outputStream.getFD().sync();
+                            syncedCount = writtenCount;
+                        }
+                    } finally {
+                        outputStream.close();
+                        outputStream = null;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Force the given record and the ones before it to the storage device if the records should be forced, and compact
+     * the log if it has grown large enough.
+     * <p>
+     * This should be invoked after releasing the lock. If another thread is already forcing the log, this waits for it
+     * and forces the records that were written in the meantime with a single call, unless they were already forced.
+     *
+     * @param number Of the record that was returned by {@link #append(ByteArrayOutputStream)}.
+     */
+    private void commit(long number)
+    {
+        if (sync) {
+            boolean interrupted = false;
+
+            try {
+                while (true) {
+                    FileOutputStream outputStream;
+                    long count;
+
+                    synchronized (lock) {
+                        while (syncing && syncedCount < number) {
+                            interrupted |= await();
+                        }
+
+                        if (syncedCount >= number)
+                            break;
+
+                        if (this.outputStream == null)
+                            throw new IllegalStateException("The log was closed before it was forced.");
+
+                        outputStream = this.outputStream;
+                        count = writtenCount;
+                        syncing = true;
+                    }
+
+                    IOException exception = null;
+
+                    try {
+                        outputStream.getFD().sync();
+                    } catch (IOException e) {
+                        exception = e;
+                    }
+
+                    synchronized (lock) {
+                        syncing = false;
+
+                        if (exception == null) {
+                            syncedCount = Math.max(syncedCount, count);
+                        }
+
+                        lock.notifyAll();
+                    }
+
+                    if (exception != null)
+                        throw new UncheckedIOException("Could not force the log.", exception);
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        try {
+            compact(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact the log.", e);
+        }
+    }
+
+    /**
+     * Rewrite the log so that it only has what is in memory.
+     * <p>
+     * The new log is written next to the old one and then moved over it, so either of them is intact if the process
+     * is killed in the meantime. If the move fails, the log is left closed, since the old one may no longer be there.
+     *
+     * @throws IOException If an IO error occurs.
+     */
+    public void compact() throws IOException
+    {
+        compact(false);
+    }
+
+    private void compact(boolean onlyIfLarge) throws IOException
+    {
+        File compactFile = new File(file.getPath() + ".compact");
+        List<ByteArrayOutputStream> recordList;
+        boolean interrupted = false;
+
+        try {
+            synchronized (lock) {
+                // The log that is already being compacted will not be large again when it is done.
+                if (onlyIfLarge && (compacting || outputStream == null
+                        || length <= Math.max(LENGTH_COMPACT_MIN, compactedLength * 2)))
+                    return;
+
+                while (compacting && outputStream != null) {
+                    interrupted |= await();
+                }
+
+                if (outputStream == null)
+                    throw new IllegalStateException("The log is not open.");
+
+                // The records that are written from now on are copied to the new log after the snapshot.
+                recordList = snapshot();
+                compacting = true;
+                compactTail = new ArrayList<>();
+            }
+
+            try (FileOutputStream compactStream = new FileOutputStream(compactFile)) {
+                long compactLength = 0;
+
+                for (ByteArrayOutputStream record : recordList) {
+                    byte[] frame = frame(record);
+                    compactStream.write(frame);
+                    compactLength += frame.length;
+                }
+
+                compactStream.getFD().sync();
+
+                synchronized (lock) {
+                    // Waiting releases the lock, so this should be done before copying the records written meanwhile.
+                    while (syncing) {
+                        interrupted |= await();
+                    }
+
+                    if (outputStream == null || compactTail == null) {
+                        if (onlyIfLarge)
+                            return;
+
+                        throw new IllegalStateException("The log was closed while it was being compacted.");
+                    }
+
+                    for (byte[] frame : compactTail) {
+                        compactStream.write(frame);
+                        compactLength += frame.length;
+                    }
+
+                    compactStream.getFD().sync();
+
+                    try {
+                        outputStream.close();
+                    } finally {
+                        outputStream = null;
+                    }
+
+                    Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+
+                    outputStream = new FileOutputStream(file, true);
+                    length = compactLength;
+                    compactedLength = compactLength;
+                    syncedCount = writtenCount;
+
+                    syncDirectory();
+                }
+            } finally {
+                try {
+                    Files.deleteIfExists(compactFile.toPath());
+                } finally {
+                    synchronized (lock) {
+                        compacting = false;
+                        compactTail = null;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Write a record with its length and checksum before it.
+     *
+     * @param record To frame.
+     * @return The framed record to write in a single write.
+     */
+    private static byte @NotNull [] frame(@NotNull ByteArrayOutputStream record)
+    {
+        CRC32 crc32 = new CRC32();
+        byte[] bytes = record.toByteArray();
+        crc32.update(bytes, 0, bytes.length);
+
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_HEADER + bytes.length);
+        frame.putInt(bytes.length);
+        frame.putInt((int) crc32.getValue());
+        frame.put(bytes);
+        return frame.array();
+    }
+
+    /**
+     * Start a new record with the given type.
+     *
+     * @param tag The type of the record.
+     * @return The record to write the fields of the record to.
+     */
+    private static @NotNull ByteArrayOutputStream newRecord(byte tag)
+    {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(tag);
+        return record;
+    }
+
+    private static @NotNull ByteArrayOutputStream newClientRecord(@NotNull Client client) throws IOException
+    {
+        ByteArrayOutputStream record = newRecord(TAG_CLIENT);
+        writeClient(new DataOutputStream(record), client);
+        return record;
+    }
+
+    private static void writeClient(@NotNull DataOutputStream outputStream, @NotNull Client client) throws IOException
+    {
+        X509Certificate certificate = client.getClientCertificate();
+
+        outputStream.writeUTF(client.getClientUid());
+        outputStream.writeUTF(client.getClientNickname());
+        outputStream.writeUTF(client.getClientManufacturer());
+        outputStream.writeUTF(client.getClientProduct());
+        outputStream.writeUTF(client.getClientType().getProtocolValue());
+        outputStream.writeUTF(client.getClientVersionName());
+        outputStream.writeInt(client.getClientVersionCode());
+        outputStream.writeInt(client.getClientProtocolVersion());
+        outputStream.writeInt(client.getClientProtocolVersionMin());
+        outputStream.writeLong(client.getClientRevisionOfPicture());
+        outputStream.writeLong(client.getClientLastUsageTime());
+        outputStream.writeBoolean(client.isClientBlocked());
+        outputStream.writeBoolean(client.isClientLocal());
+        outputStream.writeBoolean(client.isClientTrusted());
+        outputStream.writeBoolean(certificate != null);
+
+        if (certificate != null) {
+            try {
+                writeBytes(outputStream, certificate.getEncoded());
+            } catch (CertificateEncodingException e) {
+                throw new IOException("Could not encode the certificate of the client.", e);
+            }
+        }
+    }
+
+    private static @NotNull ByteArrayOutputStream newClientAddressRecord(@NotNull ClientAddress clientAddress)
+            throws IOException
+    {
+        ByteArrayOutputStream record = newRecord(TAG_CLIENT_ADDRESS);
+        writeClientAddress(new DataOutputStream(record), clientAddress);
+        return record;
+    }
+
+    private static void writeClientAddress(@NotNull DataOutputStream outputStream,
+                                           @NotNull ClientAddress clientAddress) throws IOException
+    {
+        writeBytes(outputStream, clientAddress.getClientAddress().getAddress());
+        outputStream.writeUTF(clientAddress.getClientAddressOwnerUid());
+        outputStream.writeLong(clientAddress.getClientAddressLastUsageTime());
+    }
+
+    private static @NotNull ByteArrayOutputStream newClientUsageRecord(@NotNull List<@NotNull Client> clientList,
+                                                                      @NotNull List<@NotNull ClientAddress> addressList)
+            throws IOException
+    {
+        ByteArrayOutputStream record = newRecord(TAG_CLIENT_USAGE);
+        DataOutputStream outputStream = new DataOutputStream(record);
+
+        outputStream.writeInt(clientList.size());
+        for (Client client : clientList) {
+            writeClient(outputStream, client);
+        }
+
+        outputStream.writeInt(addressList.size());
+        for (ClientAddress clientAddress : addressList) {
+            writeClientAddress(outputStream, clientAddress);
+        }
+
+        return record;
+    }
+
+    private static @NotNull ByteArrayOutputStream newClientPictureRecord(@NotNull String clientUid,
+                                                                        byte @Nullable [] data) throws IOException
+    {
+        ByteArrayOutputStream record = newRecord(TAG_CLIENT_PICTURE);
+        DataOutputStream outputStream = new DataOutputStream(record);
+
+        outputStream.writeUTF(clientUid);
+        outputStream.writeBoolean(data != null);
+
+        if (data != null) {
+            writeBytes(outputStream, data);
+        }
+
+        return record;
+    }
+
+    private static @NotNull ByteArrayOutputStream newInvalidationRequestRecord(@NotNull String clientUid,
+                                                                              boolean requested)
+    {
+        ByteArrayOutputStream record = newRecord(TAG_INVALIDATION_REQUEST);
+        DataOutputStream outputStream = new DataOutputStream(record);
+
+        try {
+            outputStream.writeUTF(clientUid);
+            outputStream.writeBoolean(requested);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return record;
+    }
+
+    private @NotNull ByteArrayOutputStream newItemsRecord(@NotNull String clientUid, boolean updating,
+                                                         @NotNull List<? extends @NotNull TransferItem> itemList)
+            throws IOException
+    {
+        ByteArrayOutputStream record = newRecord(TAG_ITEMS);
+        DataOutputStream outputStream = new DataOutputStream(record);
+
+        outputStream.writeUTF(clientUid);
+        outputStream.writeBoolean(updating);
+        outputStream.writeInt(itemList.size());
+
+        for (TransferItem item : itemList) {
+            TransferItem.State state = getState(clientUid, item);
+            String directory = item.getItemDirectory();
+
+            outputStream.writeLong(item.getItemGroupId());
+            outputStream.writeLong(item.getItemId());
+            outputStream.writeUTF(item.getItemName());
+            outputStream.writeUTF(item.getItemMimeType());
+            outputStream.writeLong(item.getItemSize());
+            outputStream.writeBoolean(directory != null);
+
+            if (directory != null) {
+                outputStream.writeUTF(directory);
+            }
+
+            outputStream.writeUTF(item.getItemDirection().protocolValue);
+            outputStream.writeLong(item.getItemLastChangeTime());
+            outputStream.writeUTF((state == null ? TransferItem.State.Pending : state).name());
+        }
+
+        return record;
+    }
+
+    private static @NotNull ByteArrayOutputStream newRangesRecord(@NotNull String clientUid,
+                                                                 @NotNull TransferItem item,
+                                                                 @NotNull List<@NotNull TransferRange> rangeList)
+            throws IOException
+    {
+        ByteArrayOutputStream record = newRecord(TAG_RANGES);
+        DataOutputStream outputStream = new DataOutputStream(record);
+
+        outputStream.writeUTF(clientUid);
+        outputStream.writeLong(item.getItemGroupId());
+        outputStream.writeLong(item.getItemId());
+        outputStream.writeUTF(item.getItemDirection().protocolValue);
+        outputStream.writeInt(rangeList.size());
+
+        for (TransferRange range : rangeList) {
+            outputStream.writeLong(range.offset);
+            outputStream.writeLong(range.length);
+        }
+
+        return record;
+    }
+
+    /**
+     * Replay the log into the memory and open it for writing.
+     * <p>
+     * A record that is not complete or does not match its checksum means the process was killed while writing it, so
+     * the log is cut from there.
+     *
+     * @throws IOException If an IO error occurs or the log cannot be read.
+     */
+    public void open() throws IOException
+    {
+        synchronized (lock) {
+            if (outputStream != null)
+                throw new IllegalStateException("The log is already open.");
+
+            long position = 0;
+
+            if (file.exists()) {
+                try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)))) {
+                    CRC32 crc32 = new CRC32();
+
+                    while (true) {
+                        byte[] record;
+                        int checksum;
+
+                        try {
+                            int recordLength = inputStream.readInt();
+                            if (recordLength < 1 || recordLength > LENGTH_RECORD_MAX)
+                                break;
+
+                            checksum = inputStream.readInt();
+                            record = new byte[recordLength];
+                            inputStream.readFully(record);
+                        } catch (EOFException e) {
+                            break;
+                        }
+
+                        crc32.reset();
+                        crc32.update(record, 0, record.length);
+
+                        if ((int) crc32.getValue() != checksum)
+                            break;
+
+                        apply(record);
+                        position += LENGTH_HEADER + record.length;
+                    }
+                }
+
+                if (file.length() > position) {
+                    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                        randomAccessFile.setLength(position);
+                    }
+                }
+            }
+
+            outputStream = new FileOutputStream(file, true);
+            length = position;
+            compactedLength = position;
+            writtenCount = 0;
+            syncedCount = 0;
+        }
+    }
+
+    @Override
+    public void persist(@NotNull Client client, boolean updating)
+    {
+        long number;
+
+        synchronized (lock) {
+            super.persist(client, updating);
+
+            try {
+                number = append(newClientRecord(client));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the client.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    @Override
+    public void persist(@NotNull ClientAddress clientAddress)
+    {
+        long number;
+
+        synchronized (lock) {
+            super.persist(clientAddress);
+
+            try {
+                number = append(newClientAddressRecord(clientAddress));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the client address.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    @Override
+    public void persist(@NotNull String clientUid, @NotNull TransferItem item)
+    {
+        persistStates(clientUid, Collections.singletonList(item));
+    }
+
+    @Override
+    public void persist(@NotNull String clientUid, @NotNull List<? extends @NotNull TransferItem> itemList)
+    {
+        long number;
+
+        synchronized (lock) {
+            super.persist(clientUid, itemList);
+
+            try {
+                number = append(newItemsRecord(clientUid, false, itemList));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the items.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    @Override
+    public void persistClientPicture(@NotNull Client client, byte @Nullable [] data)
+    {
+        long number;
+
+        synchronized (lock) {
+            super.persistClientPicture(client, data);
+
+            try {
+                number = append(newClientPictureRecord(client.getClientUid(), data));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the client picture.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    /**
+     * Save the usage times of the given clients and client addresses in a single record.
+     *
+     * @param clientList  To save.
+     * @param addressList To save.
+     */
+    @Override
+    public void persistClientUsage(@NotNull List<@NotNull Client> clientList,
+                                   @NotNull List<@NotNull ClientAddress> addressList)
+    {
+        if (clientList.isEmpty() && addressList.isEmpty())
+            return;
+
+        long number;
+
+        synchronized (lock) {
+            for (Client client : clientList) {
+                super.persist(client, true);
+            }
+
+            for (ClientAddress clientAddress : addressList) {
+                super.persist(clientAddress);
+            }
+
+            try {
+                number = append(newClientUsageRecord(clientList, addressList));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the client usage.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    @Override
+    public void persistCompletedRanges(@NotNull String clientUid, @NotNull TransferItem item,
+                                       @NotNull List<@NotNull TransferRange> rangeList)
+    {
+        long number;
+
+        synchronized (lock) {
+            super.persistCompletedRanges(clientUid, item, rangeList);
+
+            try {
+                number = append(newRangesRecord(clientUid, item, rangeList));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the ranges.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    @Override
+    public void persistStates(@NotNull String clientUid, @NotNull List<? extends @NotNull TransferItem> itemList)
+    {
+        long number;
+
+        synchronized (lock) {
+            for (TransferItem item : itemList) {
+                super.persist(clientUid, item);
+            }
+
+            try {
+                number = append(newItemsRecord(clientUid, true, itemList));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the items.", e);
+            }
+        }
+
+        commit(number);
+    }
+
+    private static byte @NotNull [] readBytes(@NotNull DataInputStream inputStream) throws IOException
+    {
+        int length = inputStream.readInt();
+        if (length < 0)
+            throw new IOException("Negative length.");
+
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return bytes;
+    }
+
+    private @NotNull ClientAddress readClientAddress(@NotNull DataInputStream inputStream) throws IOException
+    {
+        InetAddress address = InetAddress.getByAddress(readBytes(inputStream));
+        ClientAddress clientAddress = createClientAddressFor(address, inputStream.readUTF());
+        clientAddress.setClientAddressLastUsageTime(inputStream.readLong());
+        return clientAddress;
+    }
+
+    private @NotNull Client readClient(@NotNull DataInputStream inputStream) throws IOException
+    {
+        Client client = createClientFor(inputStream.readUTF(), inputStream.readUTF(), inputStream.readUTF(),
+                inputStream.readUTF(), ClientType.from(inputStream.readUTF()), inputStream.readUTF(),
+                inputStream.readInt(), inputStream.readInt(), inputStream.readInt(), inputStream.readLong());
+
+        client.setClientLastUsageTime(inputStream.readLong());
+        client.setClientBlocked(inputStream.readBoolean());
+        client.setClientLocal(inputStream.readBoolean());
+        client.setClientTrusted(inputStream.readBoolean());
+
+        if (inputStream.readBoolean()) {
+            try {
+                client.setClientCertificate((X509Certificate) CertificateFactory.getInstance("X.509")
+                        .generateCertificate(new ByteArrayInputStream(readBytes(inputStream))));
+            } catch (CertificateException e) {
+                throw new IOException("Could not decode the certificate of the client.", e);
+            }
+        }
+
+        return client;
+    }
+
+    private @NotNull TransferItem readItem(@NotNull DataInputStream inputStream) throws IOException
+    {
+        long groupId = inputStream.readLong();
+        long id = inputStream.readLong();
+        String name = inputStream.readUTF();
+        String mimeType = inputStream.readUTF();
+        long size = inputStream.readLong();
+        String directory = inputStream.readBoolean() ? inputStream.readUTF() : null;
+        Direction direction = Direction.from(inputStream.readUTF());
+
+        TransferItem item = createTransferItemFor(groupId, id, name, mimeType, size, directory, direction);
+        item.setItemLastChangeTime(inputStream.readLong());
+        return item;
+    }
+
+    @Override
+    public boolean removeTransfer(long groupId)
+    {
+        boolean removed;
+        long number;
+
+        synchronized (lock) {
+            removed = super.removeTransfer(groupId);
+
+            ByteArrayOutputStream record = newRecord(TAG_REMOVE_TRANSFER);
+            try {
+                new DataOutputStream(record).writeLong(groupId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            number = append(record);
+        }
+
+        commit(number);
+        return removed;
+    }
+
+    @Override
+    public void saveRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    {
+        long number;
+
+        synchronized (lock) {
+            super.saveRequestForInvalidationOfCredentials(clientUid);
+            number = append(newInvalidationRequestRecord(clientUid, true));
+        }
+
+        commit(number);
+    }
+
+    /**
+     * Create the records that hold what is in memory.
+     *
+     * @return The records in the order they should be replayed.
+     * @throws IOException If an IO error occurs.
+     */
+    private @NotNull List<@NotNull ByteArrayOutputStream> snapshot() throws IOException
+    {
+        List<ByteArrayOutputStream> recordList = new ArrayList<>();
+
+        for (Client client : getClients()) {
+            recordList.add(newClientRecord(client));
+        }
+
+        for (ClientAddress clientAddress : getClientAddresses()) {
+            recordList.add(newClientAddressRecord(clientAddress));
+        }
+
+        for (Map.Entry<String, byte[]> entry : getClientPictures().entrySet()) {
+            recordList.add(newClientPictureRecord(entry.getKey(), entry.getValue()));
+        }
+
+        for (String clientUid : getInvalidationRequests()) {
+            recordList.add(newInvalidationRequestRecord(clientUid, true));
+        }
+
+        List<ItemEntry> entryList = getItemEntries();
+        List<TransferItem> itemList = new ArrayList<>(LENGTH_SNAPSHOT_ITEMS);
+        String clientUid = null;
+
+        // The consecutive items of the same client are grouped, which keeps them in the order they were added.
+        for (ItemEntry entry : entryList) {
+            if (clientUid != null && (!clientUid.equals(entry.key.clientUid)
+                    || itemList.size() >= LENGTH_SNAPSHOT_ITEMS)) {
+                recordList.add(newItemsRecord(clientUid, false, itemList));
+                itemList.clear();
+            }
+
+            clientUid = entry.key.clientUid;
+            itemList.add(entry.item);
+        }
+
+        if (clientUid != null && !itemList.isEmpty()) {
+            recordList.add(newItemsRecord(clientUid, false, itemList));
+        }
+
+        for (ItemEntry entry : entryList) {
+            List<TransferRange> rangeList = getCompletedRanges(entry.item);
+
+            if (!rangeList.isEmpty() && entry.key.clientUid != null) {
+                recordList.add(newRangesRecord(entry.key.clientUid, entry.item, rangeList));
+            }
+        }
+
+        return recordList;
+    }
+
+    /**
+     * Force the directory of the log to the storage device, so that the log that was moved there is not lost with a
+     * power loss.
+     *
+     * @throws IOException If an IO error occurs.
+     */
+    private void syncDirectory() throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory == null)
+            return;
+
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static void writeBytes(@NotNull DataOutputStream outputStream, byte @NotNull [] bytes)
+            throws IOException
+    {
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+}
@@ -0,0 +1,562 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ClientAddress;
+import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.TransferRange;
+
+import javax.net.ssl.SSLContext;
+import java.net.InetAddress;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistence provider that keeps the clients, their addresses and the transfer items in memory.
+ * <p>
+ * The clients are indexed with their uids, and the items with their owners, groups, ids and directions, so the
+ * lookups that the transfers make for every item do not scan the others. The indexes are concurrent, so they can be
+ * accessed from any number of connections without a shared lock. The items of a group are also kept in the order they
+ * were added, which is the order they are received in, and the ones that can be received are indexed separately, so
+ * finding the next of them does not go over the items that are done.
+ * <p>
+ * The SSL contexts that are created for the clients are kept in an {@link SSLContextCache} that belongs to this
+ * instance.
+ * <p>
+ * Nothing is saved beyond the lifetime of the instance, so this is meant to be used as is for the short-lived clients
+ * or to be extended by the ones that save the changes elsewhere as well. The local client, its keys, and the way the
+ * items are stored are left to the implementation.
+ */
+public abstract class MemoryPersistenceProvider implements PersistenceProvider
+{
+    private final @NotNull Map<@NotNull String, @NotNull Client> clientMap = new ConcurrentHashMap<>();
+
+    private final @NotNull Map<@NotNull InetAddress, @NotNull ClientAddress> clientAddressMap =
+            new ConcurrentHashMap<>();
+
+    private final @NotNull Map<@NotNull String, byte @NotNull []> pictureMap = new ConcurrentHashMap<>();
+
+    private final @NotNull Set<@NotNull String> invalidationRequestSet = ConcurrentHashMap.newKeySet();
+
+    private final @NotNull Map<@NotNull ItemKey, @NotNull ItemEntry> itemMap = new ConcurrentHashMap<>();
+
+    private final @NotNull Map<@NotNull Long, @NotNull ConcurrentSkipListMap<@NotNull Long, @NotNull ItemEntry>>
+            groupMap = new ConcurrentHashMap<>();
+
+    private final @NotNull Map<@NotNull Long, @NotNull ConcurrentSkipListMap<@NotNull Long, @NotNull ItemEntry>>
+            receivableGroupMap = new ConcurrentHashMap<>();
+
+    // The owner of an item is not known when its ranges are asked for, so the keys of the ranges do not have it.
+    private final @NotNull Map<@NotNull ItemKey, @NotNull List<@NotNull TransferRange>> completedRangeMap =
+            new ConcurrentHashMap<>();
+
+    private final @NotNull AtomicLong sequence = new AtomicLong();
+
+    private final @NotNull AtomicInteger networkPin = new AtomicInteger();
+
+    private final @NotNull SSLContextCache sslContextCache = new SSLContextCache(this, 64);
+
+    private final @NotNull ClientDescriptorCache clientDescriptorCache = new ClientDescriptorCache(this);
+
+    private final @NotNull ClientUsageBatch clientUsageBatch = new ClientUsageBatch(this, 64, 60000);
+
+    @Override
+    public boolean approveInvalidationOfCredentials(@NotNull Client client)
+    {
+        if (!removeRequestForInvalidationOfCredentials(client.getClientUid()))
+            return false;
+
+        client.setClientCertificate(null);
+        persist(client, true);
+        return true;
+    }
+
+    @Override
+    public boolean containsTransfer(long groupId)
+    {
+        Map<Long, ItemEntry> entryMap = groupMap.get(groupId);
+        return entryMap != null && !entryMap.isEmpty();
+    }
+
+    /**
+     * The addresses that were saved with {@link #persist(ClientAddress)}.
+     *
+     * @return The live view of the addresses.
+     */
+    @NotNull Collection<@NotNull ClientAddress> getClientAddresses()
+    {
+        return Collections.unmodifiableCollection(clientAddressMap.values());
+    }
+
+    @Override
+    public @Nullable ClientAddress getClientAddressFor(@NotNull InetAddress address)
+    {
+        return clientAddressMap.get(address);
+    }
+
+    /**
+     * The cache that keeps the details of this client for {@link #getClientDetails(boolean)}.
+     *
+     * @return The cache of this instance.
+     */
+    public @NotNull ClientDescriptorCache getClientDescriptorCache()
+    {
+        return clientDescriptorCache;
+    }
+
+    /**
+     * The details of this client, which are kept in the {@link ClientDescriptorCache} of this instance.
+     *
+     * @param includePicture True to include the picture.
+     * @return A copy of the kept details.
+     * @throws JSONException If the creation of the JSON object fails for some reason.
+     */
+    @Override
+    public @NotNull JSONObject getClientDetails(boolean includePicture) throws JSONException
+    {
+        return clientDescriptorCache.get(includePicture);
+    }
+
+    @Override
+    public @Nullable Client getClientFor(@NotNull String uid)
+    {
+        return clientMap.get(uid);
+    }
+
+    @Override
+    public byte @Nullable [] getClientPicture(@NotNull Client client)
+    {
+        return pictureMap.get(client.getClientUid());
+    }
+
+    /**
+     * The pictures that were saved with {@link #persistClientPicture(Client, byte[])}.
+     *
+     * @return The live view of the pictures, keyed by the uids of their owners.
+     */
+    @NotNull Map<@NotNull String, byte @NotNull []> getClientPictures()
+    {
+        return Collections.unmodifiableMap(pictureMap);
+    }
+
+    /**
+     * The clients that were saved with {@link #persist(Client, boolean)}.
+     *
+     * @return The live view of the clients.
+     */
+    @NotNull Collection<@NotNull Client> getClients()
+    {
+        return Collections.unmodifiableCollection(clientMap.values());
+    }
+
+    /**
+     * The batch of this instance, which saves the last usage times of up to 64 clients and addresses at once, or the
+     * ones that were collected in a minute.
+     *
+     * @return The batch of this instance.
+     */
+    @Override
+    public @NotNull ClientUsageBatch getClientUsageBatch()
+    {
+        return clientUsageBatch;
+    }
+
+    @Override
+    public @NotNull List<@NotNull TransferRange> getCompletedRanges(@NotNull TransferItem item)
+    {
+        List<TransferRange> rangeList = completedRangeMap.get(new ItemKey(null, item));
+        return rangeList == null ? Collections.emptyList() : new ArrayList<>(rangeList);
+    }
+
+    @Override
+    public @Nullable TransferItem getFirstReceivableItem(long groupId)
+    {
+        List<TransferItem> itemList = getReceivableItems(groupId, 1);
+        return itemList.isEmpty() ? null : itemList.get(0);
+    }
+
+    /**
+     * The uids of the clients that have requests for invalidation of their credentials.
+     *
+     * @return The live view of the uids.
+     */
+    @NotNull Set<@NotNull String> getInvalidationRequests()
+    {
+        return Collections.unmodifiableSet(invalidationRequestSet);
+    }
+
+    /**
+     * The entries of all the items, in the order they were added in each group.
+     *
+     * @return A copy of the entries.
+     */
+    @NotNull List<@NotNull ItemEntry> getItemEntries()
+    {
+        List<ItemEntry> entryList = new ArrayList<>(itemMap.size());
+
+        for (Map<Long, ItemEntry> entryMap : groupMap.values()) {
+            entryList.addAll(entryMap.values());
+        }
+
+        return entryList;
+    }
+
+    @Override
+    public int getNetworkPin()
+    {
+        int pin;
+
+        while ((pin = networkPin.get()) == 0) {
+            networkPin.compareAndSet(0, getSecureRandom().nextInt(Integer.MAX_VALUE - 1) + 1);
+        }
+
+        return pin;
+    }
+
+    @Override
+    public @NotNull ReceivableItemCursor getReceivableItemCursor(long groupId, int prefetch)
+    {
+        return new ReceivableItemCursor()
+        {
+            private long position = -1;
+
+            @Override
+            public @Nullable TransferItem next()
+            {
+                ConcurrentSkipListMap<Long, ItemEntry> entryMap = receivableGroupMap.get(groupId);
+                if (entryMap == null)
+                    return null;
+
+                for (ItemEntry entry : entryMap.tailMap(position, false).values()) {
+                    position = entry.sequence;
+
+                    if (entry.isReceivable())
+                        return entry.item;
+                }
+
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public @NotNull List<@NotNull TransferItem> getReceivableItems(long groupId, int limit)
+    {
+        ConcurrentSkipListMap<Long, ItemEntry> entryMap = receivableGroupMap.get(groupId);
+        if (entryMap == null)
+            return Collections.emptyList();
+
+        List<TransferItem> itemList = new ArrayList<>();
+
+        for (ItemEntry entry : entryMap.values()) {
+            if (itemList.size() >= limit)
+                break;
+
+            // The entry may have changed after it was found in the index.
+            if (entry.isReceivable()) {
+                itemList.add(entry.item);
+            }
+        }
+
+        return itemList;
+    }
+
+    /**
+     * The SSL context for the given client, which is kept in the {@link SSLContextCache} of this instance unless the
+     * certificate of the client is not known.
+     *
+     * @param client For which the context will be generated.
+     * @return The SSL context.
+     * @throws CertificateException If the generation of the context fails.
+     */
+    @Override
+    public @NotNull SSLContext getSSLContextFor(@NotNull Client client) throws CertificateException
+    {
+        return sslContextCache.get(client);
+    }
+
+    /**
+     * The state of an item that was set with {@link #setState(String, TransferItem, TransferItem.State, Exception)}.
+     *
+     * @param clientUid That owns the item.
+     * @param item      Of which the state will be returned.
+     * @return The state of the item, or null if the item is not known.
+     */
+    public @Nullable TransferItem.State getState(@NotNull String clientUid, @NotNull TransferItem item)
+    {
+        ItemEntry entry = itemMap.get(new ItemKey(clientUid, item));
+        return entry == null ? null : entry.state;
+    }
+
+    @Override
+    public boolean hasRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    {
+        return invalidationRequestSet.contains(clientUid);
+    }
+
+    /**
+     * Add an item to the indexes unless it is already there.
+     *
+     * @param clientUid That owns the item.
+     * @param item      To add.
+     * @return The entry of the item, which will belong to the existing item if there is one.
+     */
+    private @NotNull ItemEntry insert(@NotNull String clientUid, @NotNull TransferItem item)
+    {
+        ItemEntry entry = new ItemEntry(new ItemKey(clientUid, item), sequence.incrementAndGet(), item);
+        ItemEntry existing = itemMap.putIfAbsent(entry.key, entry);
+
+        if (existing != null)
+            return existing;
+
+        groupMap.computeIfAbsent(item.getItemGroupId(), groupId -> new ConcurrentSkipListMap<>())
+                .put(entry.sequence, entry);
+
+        synchronized (entry) {
+            updateReceivable(entry);
+        }
+
+        return entry;
+    }
+
+    @Override
+    public @NotNull TransferItem loadTransferItem(@NotNull String clientUid, long groupId, long id,
+                                                  @NotNull Direction direction) throws PersistenceException
+    {
+        ItemEntry entry = itemMap.get(new ItemKey(clientUid, groupId, id, direction));
+        if (entry == null)
+            throw new PersistenceException("There is no transfer data matching the given parameters.");
+
+        return entry.item;
+    }
+
+    @Override
+    public void persist(@NotNull Client client, boolean updating)
+    {
+        clientMap.put(client.getClientUid(), client);
+    }
+
+    @Override
+    public void persist(@NotNull ClientAddress clientAddress)
+    {
+        clientAddressMap.put(clientAddress.getClientAddress(), clientAddress);
+    }
+
+    @Override
+    public void persist(@NotNull String clientUid, @NotNull TransferItem item)
+    {
+        // The item is inserted if it is not known, since there is no separate place to insert it in memory.
+        ItemEntry entry = insert(clientUid, item);
+
+        synchronized (entry) {
+            entry.item = item;
+            updateReceivable(entry);
+        }
+    }
+
+    @Override
+    public void persist(@NotNull String clientUid, @NotNull List<? extends @NotNull TransferItem> itemList)
+    {
+        for (TransferItem item : itemList) {
+            insert(clientUid, item);
+        }
+    }
+
+    @Override
+    public void persistClientPicture(@NotNull Client client, byte @Nullable [] data)
+    {
+        putClientPicture(client.getClientUid(), data);
+    }
+
+    @Override
+    public void persistCompletedRanges(@NotNull String clientUid, @NotNull TransferItem item,
+                                       @NotNull List<@NotNull TransferRange> rangeList)
+    {
+        if (rangeList.isEmpty()) {
+            completedRangeMap.remove(new ItemKey(null, item));
+        } else {
+            completedRangeMap.put(new ItemKey(null, item), new ArrayList<>(rangeList));
+        }
+    }
+
+    /**
+     * Keep or remove the picture of a client.
+     *
+     * @param clientUid That owns the picture.
+     * @param data      The picture or null if it should be removed.
+     */
+    void putClientPicture(@NotNull String clientUid, byte @Nullable [] data)
+    {
+        if (data == null) {
+            pictureMap.remove(clientUid);
+        } else {
+            pictureMap.put(clientUid, data);
+        }
+    }
+
+    /**
+     * Remove the request for invalidation of the credentials of a client without approving it.
+     *
+     * @param clientUid That made the request.
+     * @return True if there was a request.
+     */
+    boolean removeRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    {
+        return invalidationRequestSet.remove(clientUid);
+    }
+
+    /**
+     * Remove all the items of a transfer group.
+     * <p>
+     * This should not be invoked while the group is being transferred.
+     *
+     * @param groupId As in {@link TransferItem#getItemGroupId()}.
+     * @return True if there were items to remove.
+     */
+    public boolean removeTransfer(long groupId)
+    {
+        Map<Long, ItemEntry> entryMap = groupMap.remove(groupId);
+        if (entryMap == null)
+            return false;
+
+        for (ItemEntry entry : entryMap.values()) {
+            itemMap.remove(entry.key);
+        }
+
+        receivableGroupMap.remove(groupId);
+        completedRangeMap.keySet().removeIf(key -> key.groupId == groupId);
+        return !entryMap.isEmpty();
+    }
+
+    @Override
+    public void revokeNetworkPin()
+    {
+        networkPin.set(0);
+    }
+
+    @Override
+    public void saveRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    {
+        invalidationRequestSet.add(clientUid);
+    }
+
+    @Override
+    public void setState(@NotNull String clientUid, @NotNull TransferItem item, @NotNull TransferItem.State state,
+                         @Nullable Exception e)
+    {
+        ItemEntry entry = itemMap.get(new ItemKey(clientUid, item));
+        if (entry == null)
+            return;
+
+        synchronized (entry) {
+            entry.state = state;
+            updateReceivable(entry);
+        }
+    }
+
+    /**
+     * Add an entry to the index of the items that can be received, or remove it from there, depending on its state.
+     * <p>
+     * The changes to the entry and the index should be made while holding the lock of the entry, so that they are not
+     * applied out of order.
+     *
+     * @param entry To update the index with.
+     */
+    private void updateReceivable(@NotNull ItemEntry entry)
+    {
+        if (entry.isReceivable()) {
+            receivableGroupMap.computeIfAbsent(entry.key.groupId, groupId -> new ConcurrentSkipListMap<>())
+                    .put(entry.sequence, entry);
+        } else {
+            Map<Long, ItemEntry> entryMap = receivableGroupMap.get(entry.key.groupId);
+            if (entryMap != null) {
+                entryMap.remove(entry.sequence);
+            }
+        }
+    }
+
+    /**
+     * Points to an item with the fields that tell it apart from the others.
+     */
+    static final class ItemKey
+    {
+        final @Nullable String clientUid;
+
+        final long groupId;
+
+        final long id;
+
+        final @NotNull Direction direction;
+
+        ItemKey(@Nullable String clientUid, long groupId, long id, @NotNull Direction direction)
+        {
+            this.clientUid = clientUid;
+            this.groupId = groupId;
+            this.id = id;
+            this.direction = direction;
+        }
+
+        ItemKey(@Nullable String clientUid, @NotNull TransferItem item)
+        {
+            this(clientUid, item.getItemGroupId(), item.getItemId(), item.getItemDirection());
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof ItemKey) {
+                ItemKey other = (ItemKey) obj;
+                return groupId == other.groupId && id == other.id && direction == other.direction
+                        && Objects.equals(clientUid, other.clientUid);
+            }
+
+            return false;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(clientUid, groupId, id, direction);
+        }
+    }
+
+    /**
+     * Holds an item together with its state and its position in its group.
+     */
+    static final class ItemEntry
+    {
+        final @NotNull ItemKey key;
+
+        final long sequence;
+
+        volatile @NotNull TransferItem item;
+
+        volatile @NotNull TransferItem.State state = TransferItem.State.Pending;
+
+        ItemEntry(@NotNull ItemKey key, long sequence, @NotNull TransferItem item)
+        {
+            this.key = key;
+            this.sequence = sequence;
+            this.item = item;
+        }
+
+        boolean isReceivable()
+        {
+            return Direction.Incoming.equals(item.getItemDirection()) && TransferItem.State.Pending.equals(state);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.monora.uprotocol.core.CommunicationBridge;
 import org.monora.uprotocol.core.TransportSession;
+import org.monora.uprotocol.core.io.FileStreamDescriptor;
 import org.monora.uprotocol.core.io.StreamDescriptor;
 import org.monora.uprotocol.core.protocol.Client;
 import org.monora.uprotocol.core.protocol.ClientAddress;
@@ -14,6 +15,9 @@ import org.monora.uprotocol.core.protocol.ClientType;
 import org.monora.uprotocol.core.protocol.Direction;
 import org.monora.uprotocol.core.spec.v1.Keyword;
 import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.TransferOptions;
+import org.monora.uprotocol.core.transfer.TransferRange;
+import org.monora.uprotocol.core.transfer.Transfers;
 
 import javax.net.ssl.*;
 import java.io.IOException;
@@ -27,6 +31,7 @@ import java.security.SecureRandom;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -66,12 +71,37 @@ public interface PersistenceProvider
      * @param pin The PIN to bypass errors like not matching keys. This will also flag this client as trusted.
      * @return The JSON object
      * @throws JSONException If the creation of the JSON object fails for some reason.
+     * @see #clientAsJson(int, boolean)
      */
     default @NotNull JSONObject clientAsJson(int pin) throws JSONException
+    {
+        return clientAsJson(pin, true);
+    }
+
+    /**
+     * Convert this client into {@link JSONObject} with or without its picture.
+     * <p>
+     * The picture can be left out when the remote already has the revision of it, or when the remote will ask for
+     * it after receiving the revision, which is the case for the remotes that send
+     * {@link Keyword#CLIENT_REVISION_PICTURE_KNOWN}. When it is included but there is none, it is sent as an empty
+     * string, so that it is not mistaken for a picture that was left out.
+     *
+     * @param pin            The PIN to bypass errors like not matching keys. This will also flag this client as
+     *                       trusted.
+     * @param includePicture True to include the picture.
+     * @return The JSON object
+     * @throws JSONException If the creation of the JSON object fails for some reason.
+     * @see #clientAsJson(int)
+     */
+    default @NotNull JSONObject clientAsJson(int pin, boolean includePicture) throws JSONException
     {
         Client client = getClient();
-        byte[] picture = getClientPicture(client);
-        String pictureData = picture == null ? null : Base64.encodeBytes(picture);
+        String pictureData = null;
+
+        if (includePicture) {
+            byte[] picture = getClientPicture(client);
+            pictureData = picture == null ? "" : Base64.encodeBytes(picture);
+        }
 
         return new JSONObject()
                 .put(Keyword.CLIENT_UID, client.getClientUid())
@@ -127,6 +157,81 @@ public interface PersistenceProvider
                                     int versionCode, int protocolVersion, int protocolVersionMin,
                                     long revisionOfPicture);
 
+    /**
+     * Creates the SSL context for the given client.
+     * <p>
+     * If the certificate does not exist, a custom TrustStore will be generated.
+     * <p>
+     * This is invoked by {@link #getSSLContextFor(Client)} when there is no context for the same certificates to reuse.
+     *
+     * @param client For which the context will be generated.
+     * @return The SSL context.
+     * @throws CertificateException If the generation of the context fails.
+     */
+    default @NotNull SSLContext createSSLContextFor(@NotNull Client client) throws CertificateException
+    {
+        try {
+            // Get this client's private key
+            PrivateKey privateKey = getPrivateKey();
+            char[] password = new char[0];
+
+            // Setup keystore
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("key", privateKey, password, new Certificate[]{getCertificate()});
+
+            if (client.getClientCertificate() != null) {
+                keyStore.setCertificateEntry(client.getClientUid(), client.getClientCertificate());
+            }
+
+            // Setup key manager factory
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, password);
+
+            TrustManager[] trustManagers;
+
+            if (client.getClientCertificate() == null) {
+                // Set up custom trust manager if we don't have the certificate for the peer.
+                X509TrustManager trustManager = new X509TrustManager()
+                {
+                    public java.security.cert.X509Certificate @NotNull [] getAcceptedIssuers()
+                    {
+                        return new X509Certificate[0];
+                    }
+
+                    @Override
+                    public void checkClientTrusted(X509Certificate[] certs, String authType)
+                    {
+                    }
+
+                    @Override
+                    public void checkServerTrusted(X509Certificate[] certs, String authType)
+                    {
+                    }
+                };
+
+                trustManagers = new TrustManager[]{trustManager};
+            } else {
+                // Set up the default trust manager if we already have the certificate for the peer.
+                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
+                        TrustManagerFactory.getDefaultAlgorithm());
+                trustManagerFactory.init(keyStore);
+
+                trustManagers = trustManagerFactory.getTrustManagers();
+            }
+
+            // The protocol versions are enabled for each connection, see ConnectionFactory#enableProtocols.
+            SSLContext tlsContext = SSLContext.getInstance("TLS");
+            tlsContext.init(keyManagerFactory.getKeyManagers(), trustManagers, getSecureRandom());
+
+            return tlsContext;
+        } catch (CertificateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CertificateException("Could not create a secure socket context.", e);
+        }
+    }
+
     /**
      * todo: Should this really exist? This user can avoid using it. The benefit may be to use it as a factory.
      * Create a transfer item instance for the given parameters.
@@ -159,6 +264,41 @@ public interface PersistenceProvider
      */
     @NotNull Client getClient();
 
+    /**
+     * Find the client address that was saved with {@link #persist(ClientAddress)}.
+     * <p>
+     * This is used to skip saving the address again when it still belongs to the same client. The default
+     * implementation returns null, in which case the address is saved every time.
+     *
+     * @param address That the client address points to.
+     * @return The client address, or null if there is none or this is not supported.
+     * @see ClientUsageBatch
+     */
+    default @Nullable ClientAddress getClientAddressFor(@NotNull InetAddress address)
+    {
+        return null;
+    }
+
+    /**
+     * Get the details of this client as {@link #clientAsJson(int, boolean)} creates them, but without the PIN, which
+     * the caller puts into the returned JSON object.
+     * <p>
+     * The default implementation creates them again every time. Override this to keep them, e.g., with
+     * {@link ClientDescriptorCache}, so that they are only created again when the details of this client or the
+     * revision of its picture change.
+     *
+     * @param includePicture True to include the picture.
+     * @return The JSON object that the caller can change.
+     * @throws JSONException If the creation of the JSON object fails for some reason.
+     * @see ClientDescriptorCache
+     */
+    default @NotNull JSONObject getClientDetails(boolean includePicture) throws JSONException
+    {
+        JSONObject jsonObject = clientAsJson(0, includePicture);
+        jsonObject.remove(Keyword.CLIENT_PIN);
+        return jsonObject;
+    }
+
     /**
      * Finds and returns a known client using its unique identifier.
      *
@@ -194,6 +334,40 @@ public interface PersistenceProvider
      */
     @NotNull String getClientUid();
 
+    /**
+     * The batch that the last usage times of the clients and client addresses that did not change otherwise are
+     * collected in, so that they are saved together.
+     * <p>
+     * The default implementation returns null, which means they are saved directly. {@link MemoryPersistenceProvider}
+     * keeps its own batch.
+     *
+     * @return The batch, or null if there is none.
+     * @see ClientUsageBatch
+     */
+    default @Nullable ClientUsageBatch getClientUsageBatch()
+    {
+        return null;
+    }
+
+    /**
+     * Get the ranges of an incoming item that have already been received.
+     * <p>
+     * Returning a list lets a large item that is backed by a {@link FileStreamDescriptor} be received in ranges,
+     * possibly over more than one connection. The list is empty for an item that hasn't been started yet.
+     * <p>
+     * The default implementation returns null, which disables this. If you enable it, you should keep the ranges
+     * given to {@link #persistCompletedRanges} and return them after a restart, so that a resume only fetches the
+     * gaps.
+     *
+     * @param item For which the ranges will be returned.
+     * @return The completed ranges, or null if receiving the item in ranges is not supported.
+     * @see TransferOptions#setSegmentThreshold(long)
+     */
+    default @Nullable List<@NotNull TransferRange> getCompletedRanges(@NotNull TransferItem item)
+    {
+        return null;
+    }
+
     /**
      * This will return the descriptor that points to the file that is received or sent.
      * <p>
@@ -204,6 +378,7 @@ public interface PersistenceProvider
      * @return The generated descriptor.
      * @throws IOException When this fails to create a descriptor for this transfer item.
      * @see #openInputStream(StreamDescriptor)
+     * @see #openInputStream(StreamDescriptor, long)
      * @see #openOutputStream(StreamDescriptor)
      */
     @NotNull StreamDescriptor getDescriptorFor(@NotNull TransferItem transferItem) throws IOException;
@@ -213,6 +388,7 @@ public interface PersistenceProvider
      *
      * @param groupId Points to {@link TransferItem#getItemGroupId()}.
      * @return The transfer receivable item or null if there are none.
+     * @see #getReceivableItems(long, int)
      */
     @Nullable TransferItem getFirstReceivableItem(long groupId);
 
@@ -243,13 +419,52 @@ public interface PersistenceProvider
      */
     @NotNull PublicKey getPublicKey();
 
+    /**
+     * Open a cursor that hands out the valid items that this side can receive one after another.
+     * <p>
+     * This is what {@link Transfers#receive} reads the items of a group with. The default implementation reads them in
+     * batches with {@link #getReceivableItems(long, int)}, which starts over from the beginning of the group every
+     * time. You should override it if you can continue from where the last batch ended, e.g., with a query that
+     * starts after the last item it returned.
+     *
+     * @param groupId  Points to {@link TransferItem#getItemGroupId()}.
+     * @param prefetch The number of items that the cursor should read at once, which will be '1' or larger.
+     * @return The cursor.
+     * @see TransferOptions#setPrefetchLength(int)
+     */
+    default @NotNull ReceivableItemCursor getReceivableItemCursor(long groupId, int prefetch)
+    {
+        return new DefaultReceivableItemCursor(this, groupId, prefetch);
+    }
+
+    /**
+     * This will return the valid items that this side can receive, in the same order that
+     * {@link #getFirstReceivableItem(long)} would return them.
+     * <p>
+     * This is used to request more than one item at once. The default implementation only returns the first
+     * receivable item, in which case the default {@link #getReceivableItemCursor(long, int)} cannot go past an item
+     * until it is no longer receivable, which is after its state is saved. So, unless the cursor is overridden, you
+     * should override this for the items to be requested ahead in a pipeline or in bundles, and for their states to be
+     * saved in batches.
+     *
+     * @param groupId Points to {@link TransferItem#getItemGroupId()}.
+     * @param limit   The maximum number of items to return.
+     * @return The receivable items, which will be empty if there are none.
+     * @see #getFirstReceivableItem(long)
+     */
+    default @NotNull List<@NotNull TransferItem> getReceivableItems(long groupId, int limit)
+    {
+        TransferItem item = getFirstReceivableItem(groupId);
+        return item == null ? Collections.emptyList() : Collections.singletonList(item);
+    }
+
     /**
      * Generates a cryptographically strong random number.
      * <p>
-     * This method will be invoked by the default {@link #getSSLContextFor(Client)} method.
+     * This method will be invoked by the default {@link #createSSLContextFor(Client)} method.
      *
      * @return The secure random number instance.
-     * @see #getSSLContextFor(Client)
+     * @see #createSSLContextFor(Client)
      */
     default @NotNull SecureRandom getSecureRandom()
     {
@@ -257,76 +472,20 @@ public interface PersistenceProvider
     }
 
     /**
-     * Creates the SSL context for the given client.
+     * The SSL context for the given client.
      * <p>
-     * If the certificate does not exist, a custom TrustStore will be generated.
+     * The default implementation creates a new context with {@link #createSSLContextFor(Client)} every time. The
+     * implementations can keep the contexts in their own {@link SSLContextCache} to avoid that, as
+     * {@link MemoryPersistenceProvider} does.
      *
      * @param client For which the context will be generated.
      * @return The SSL context.
      * @throws CertificateException If the generation of the context fails.
+     * @see SSLContextCache
      */
     default @NotNull SSLContext getSSLContextFor(@NotNull Client client) throws CertificateException
     {
-        try {
-            // Get this client's private key
-            PrivateKey privateKey = getPrivateKey();
-            char[] password = new char[0];
-
-            // Setup keystore
-            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-            keyStore.load(null, null);
-            keyStore.setKeyEntry("key", privateKey, password, new Certificate[]{getCertificate()});
-
-            if (client.getClientCertificate() != null) {
-                keyStore.setCertificateEntry(client.getClientUid(), client.getClientCertificate());
-            }
-
-            // Setup key manager factory
-            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            keyManagerFactory.init(keyStore, password);
-
-            TrustManager[] trustManagers;
-
-            if (client.getClientCertificate() == null) {
-                // Set up custom trust manager if we don't have the certificate for the peer.
-                X509TrustManager trustManager = new X509TrustManager()
-                {
-                    public java.security.cert.X509Certificate @NotNull [] getAcceptedIssuers()
-                    {
-                        return new X509Certificate[0];
-                    }
-
-                    @Override
-                    public void checkClientTrusted(X509Certificate[] certs, String authType)
-                    {
-                    }
-
-                    @Override
-                    public void checkServerTrusted(X509Certificate[] certs, String authType)
-                    {
-                    }
-                };
-
-                trustManagers = new TrustManager[]{trustManager};
-            } else {
-                // Set up the default trust manager if we already have the certificate for the peer.
-                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
-                        TrustManagerFactory.getDefaultAlgorithm());
-                trustManagerFactory.init(keyStore);
-
-                trustManagers = trustManagerFactory.getTrustManagers();
-            }
-
-            // Newer TLS versions are only supported on API 16+
-            SSLContext tlsContext = SSLContext.getInstance("TLSv1.2");
-            tlsContext.init(keyManagerFactory.getKeyManagers(), trustManagers, getSecureRandom());
-
-            return tlsContext;
-        } catch (CertificateException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new CertificateException("Could not create a secure socket context.", e);
-        }
+        return createSSLContextFor(client);
     }
 
     /**
@@ -361,6 +520,47 @@ public interface PersistenceProvider
      */
     @NotNull InputStream openInputStream(@NotNull StreamDescriptor descriptor) throws IOException;
 
+    /**
+     * Open the input stream for the given descriptor, positioned at the given byte offset.
+     * <p>
+     * This is used when the remote resumes an item that it has partially received.
+     * <p>
+     * The default implementation opens the stream with {@link #openInputStream(StreamDescriptor)} and skips the
+     * leading bytes, which, for many stream types, means reading them and throwing them away. If the underlying
+     * storage can seek (e.g., a file), you should override this and open the stream at the position directly.
+     *
+     * @param descriptor Of which the input stream will be opened.
+     * @param position   The byte offset that the first read should start from.
+     * @return The open input stream.
+     * @throws IOException If an IO error occurs or the stream ends before the position is reached.
+     */
+    default @NotNull InputStream openInputStream(@NotNull StreamDescriptor descriptor, long position)
+            throws IOException
+    {
+        InputStream inputStream = openInputStream(descriptor);
+        long remaining = position;
+
+        try {
+            while (remaining > 0) {
+                long skipped = inputStream.skip(remaining);
+
+                if (skipped > 0) {
+                    remaining -= skipped;
+                } else if (inputStream.read() != -1) {
+                    // Skip may return '0' without reaching the end, so we move forward by reading instead.
+                    remaining--;
+                } else {
+                    throw new IOException("Failed to skip " + position + " bytes");
+                }
+            }
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+
+        return inputStream;
+    }
+
     /**
      * Open the output stream for this descriptor.
      *
@@ -420,6 +620,66 @@ public interface PersistenceProvider
      */
     void persistClientPicture(@NotNull Client client, byte @Nullable [] data);
 
+    /**
+     * Update the last usage times of the given clients and client addresses in the persistence database at once.
+     * <p>
+     * This is how {@link ClientUsageBatch} saves the clients and addresses that did not change other than being used
+     * again, so that the connections do not pay for a separate write for each of them. You should override this to
+     * update them in a single transaction. The default implementation invokes {@link #persist(Client, boolean)} and
+     * {@link #persist(ClientAddress)} for each of them.
+     *
+     * @param clientList  To update, which already exist.
+     * @param addressList To save.
+     */
+    default void persistClientUsage(@NotNull List<@NotNull Client> clientList,
+                                    @NotNull List<@NotNull ClientAddress> addressList)
+    {
+        for (Client client : clientList) {
+            persist(client, true);
+        }
+
+        for (ClientAddress clientAddress : addressList) {
+            persist(clientAddress);
+        }
+    }
+
+    /**
+     * Save the ranges of an incoming item that have been received so far.
+     * <p>
+     * This is invoked after every range is written, and once more with an empty list when the item is complete.
+     * The default implementation does nothing.
+     *
+     * @param clientUid That owns the item.
+     * @param item      That the ranges belong to.
+     * @param rangeList The completed ranges in order, none of which overlap.
+     * @see #getCompletedRanges(TransferItem)
+     */
+    default void persistCompletedRanges(@NotNull String clientUid, @NotNull TransferItem item,
+                                        @NotNull List<@NotNull TransferRange> rangeList)
+    {
+    }
+
+    /**
+     * Update all the given transfer items in the persistence database at once.
+     * <p>
+     * This is how {@link Transfers#receive} and {@link Transfers#send} save the items whose states changed, a batch
+     * at a time, so that a group with many small items does not pay for a separate write for each of them. You should
+     * override this to update them in a single transaction. The default implementation invokes
+     * {@link #persist(String, TransferItem)} for every item.
+     * <p>
+     * NOTE: Like its single item counterpart, this should only update and not try to insert new rows.
+     *
+     * @param clientUid That owns the items.
+     * @param itemList  To save.
+     * @see TransferOptions#setStateBatchSize(int)
+     */
+    default void persistStates(@NotNull String clientUid, @NotNull List<? extends @NotNull TransferItem> itemList)
+    {
+        for (TransferItem item : itemList) {
+            persist(clientUid, item);
+        }
+    }
+
     /**
      * Revoke the current valid network PIN.
      *
@@ -0,0 +1,24 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.transfer.TransferItem;
+
+/**
+ * Hands out the receivable items of a group one after another, in the same order that
+ * {@link PersistenceProvider#getFirstReceivableItem(long)} would return them, without starting over for every item.
+ * <p>
+ * An item is handed out only once, even if it is still receivable afterwards. The items that become receivable after
+ * the cursor has passed them, e.g., because they failed and were reset, are only seen by a new cursor. The items that
+ * are added to the end of the group are seen as long as the cursor has not ended.
+ *
+ * @see PersistenceProvider#getReceivableItemCursor(long, int)
+ */
+public interface ReceivableItemCursor
+{
+    /**
+     * Hand out the next receivable item.
+     *
+     * @return The next item, or null if there is none left after the ones that were handed out.
+     */
+    @Nullable TransferItem next();
+}
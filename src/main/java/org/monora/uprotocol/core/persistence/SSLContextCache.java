@@ -0,0 +1,132 @@
+package org.monora.uprotocol.core.persistence;
+
+import net.iharder.Base64;
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.protocol.Client;
+
+import javax.net.ssl.SSLContext;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the SSL contexts that {@link PersistenceProvider#createSSLContextFor(Client)} creates for a persistence
+ * provider, so that the key store, the key and trust managers and the random number generator are not set up again for
+ * every connection.
+ * <p>
+ * A context only depends on the certificate of this client and the certificate of the peer, so it is kept with the
+ * fingerprints of those. When either of them changes, e.g., because the credentials of this client were regenerated or
+ * the peer's were invalidated, the context is created again and the old one is left to be evicted.
+ * <p>
+ * The contexts for the peers whose certificates are not known yet trust any certificate, so they are created for every
+ * connection and never kept, which means they are not shared with other peers.
+ * <p>
+ * The contexts that were not used recently are evicted once there are more than the given number of them.
+ *
+ * @see MemoryPersistenceProvider#getSSLContextFor(Client)
+ */
+public class SSLContextCache
+{
+    private final @NotNull PersistenceProvider persistenceProvider;
+
+    private final int maxSize;
+
+    private final @NotNull Map<@NotNull String, @NotNull SSLContext> contextMap;
+
+    /**
+     * Create a new instance.
+     *
+     * @param persistenceProvider That provides the credentials of this client and creates the contexts.
+     * @param maxSize             The maximum number of contexts to keep, which should be '1' or larger.
+     */
+    public SSLContextCache(@NotNull PersistenceProvider persistenceProvider, int maxSize)
+    {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("The maximum size cannot be smaller than 1.");
+
+        this.persistenceProvider = persistenceProvider;
+        this.maxSize = maxSize;
+        this.contextMap = new LinkedHashMap<String, SSLContext>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest)
+            {
+                return size() > SSLContextCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Remove all the contexts.
+     */
+    public synchronized void clear()
+    {
+        contextMap.clear();
+    }
+
+    /**
+     * Find the context for the given client, or create and keep it if there is none.
+     * <p>
+     * If the certificate of the client is not known, a new context is created and not kept.
+     *
+     * @param client That the context is for.
+     * @return The SSL context.
+     * @throws CertificateException If the creation of the context fails.
+     */
+    public @NotNull SSLContext get(@NotNull Client client) throws CertificateException
+    {
+        X509Certificate certificate = client.getClientCertificate();
+        if (certificate == null)
+            return persistenceProvider.createSSLContextFor(client);
+
+        String key = getFingerprint(persistenceProvider.getCertificate()) + "/" + getFingerprint(certificate);
+
+        synchronized (this) {
+            SSLContext context = contextMap.get(key);
+            if (context != null)
+                return context;
+        }
+
+        // Creating it outside the lock means it may be created twice, but the other connections do not wait for it.
+        SSLContext context = persistenceProvider.createSSLContextFor(client);
+
+        synchronized (this) {
+            SSLContext existing = contextMap.get(key);
+            if (existing != null)
+                return existing;
+
+            contextMap.put(key, context);
+        }
+
+        return context;
+    }
+
+    /**
+     * Compute the fingerprint of a certificate.
+     *
+     * @param certificate To compute the fingerprint of.
+     * @return The fingerprint.
+     * @throws CertificateException If the certificate cannot be encoded.
+     */
+    private static @NotNull String getFingerprint(@NotNull X509Certificate certificate) throws CertificateException
+    {
+        try {
+            return Base64.encodeBytes(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertificateException("Could not compute the fingerprint of the certificate.", e);
+        }
+    }
+
+    /**
+     * The number of contexts that are kept.
+     *
+     * @return The size.
+     */
+    public synchronized int size()
+    {
+        return contextMap.size();
+    }
+}
@@ -28,7 +28,9 @@ public interface ConnectionFactory
     /**
      * Invoked before establishing a secure connection with a remote client.
      * <p>
-     * The cipher suites enabled by default can be found in the cipher list parameter.
+     * The cipher suites enabled by default can be found in the cipher list parameter in the order of preference, which
+     * is {@link org.monora.uprotocol.core.spec.v1.Config#CIPHER_SUITES_DEFAULT}. The ones that are not supported are
+     * left out after this returns.
      * <p>
      * At least one cipher suite should be enabled.
      *
@@ -37,4 +39,35 @@ public interface ConnectionFactory
      */
     void enableCipherSuites(String @NotNull [] supportedCipherSuites,
                             @NotNull List<@NotNull String> enabledCipherSuiteList);
+
+    /**
+     * Invoked before establishing a secure connection with a remote client, after
+     * {@link #enableCipherSuites(String[], List)}.
+     * <p>
+     * The protocols enabled by default can be found in the protocol list parameter in the order of preference, which
+     * is {@link org.monora.uprotocol.core.spec.v1.Config#PROTOCOLS_DEFAULT}. The ones that are not supported are left
+     * out after this returns.
+     * <p>
+     * The default implementation leaves them as they are.
+     *
+     * @param supportedProtocols  You can enable.
+     * @param enabledProtocolList To which you can add more protocols or from which you can remove them.
+     */
+    default void enableProtocols(String @NotNull [] supportedProtocols,
+                                 @NotNull List<@NotNull String> enabledProtocolList)
+    {
+    }
+
+    /**
+     * Invoked after a secure connection is established with a remote client and its certificate is checked.
+     * <p>
+     * This is invoked on the thread that established the connection. The default implementation does nothing, which
+     * can be changed to count the sessions with {@link org.monora.uprotocol.core.SecureSessions}.
+     *
+     * @param client  That the connection is established with.
+     * @param resumed True if the session of an earlier connection was resumed instead of doing a full handshake.
+     */
+    default void onSecureSessionEstablished(@NotNull Client client, boolean resumed)
+    {
+    }
 }
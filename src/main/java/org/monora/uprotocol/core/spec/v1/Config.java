@@ -1,5 +1,9 @@
 package org.monora.uprotocol.core.spec.v1;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * The default values for uprotocol.
  */
@@ -11,9 +15,51 @@ public class Config
 
     public static final int LENGTH_CLIENT_USERNAME = 32;
 
-    public static final int VERSION_UPROTOCOL = 1;
+    public static final int LENGTH_INDEX_PAGE = 1000;
+
+    public static final int VERSION_UPROTOCOL = 2;
 
     public static final int VERSION_UPROTOCOL_MIN = 1;
 
+    public static final int VERSION_UPROTOCOL_INDEX_BINARY = 2;
+
+    public static final int VERSION_UPROTOCOL_INDEX_PAGE = 2;
+
+    public static final int VERSION_UPROTOCOL_INDEX_STREAM = 2;
+
+    public static final int VERSION_UPROTOCOL_ITEM_BATCH = 2;
+
+    public static final int VERSION_UPROTOCOL_ITEM_BUNDLE = 2;
+
+    public static final int VERSION_UPROTOCOL_ITEM_RANGE = 2;
+
+    public static final int VERSION_UPROTOCOL_PICTURE_LAZY = 2;
+
+    public static final int VERSION_UPROTOCOL_TRANSFER_APPEND = 2;
+
+    public static final int VERSION_UPROTOCOL_TRANSFER_JOIN = 2;
+
     public static final String SERVICE_UPROTOCOL_DNS_SD = "_uproto._tcp.";
+
+    /**
+     * The cipher suites that are enabled by default in the order of preference. The TLS 1.3 and AEAD suites come
+     * first, and the CBC suite that the older versions only enable comes last.
+     */
+    public static final List<String> CIPHER_SUITES_DEFAULT = Collections.unmodifiableList(Arrays.asList(
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA"
+    ));
+
+    /**
+     * The protocols that are enabled by default in the order of preference. TLS 1.2 is kept for the older versions.
+     */
+    public static final List<String> PROTOCOLS_DEFAULT = Collections.unmodifiableList(Arrays.asList(
+            "TLSv1.3",
+            "TLSv1.2"
+    ));
 }
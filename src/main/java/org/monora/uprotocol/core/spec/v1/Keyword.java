@@ -32,6 +32,7 @@ public class Keyword
             CLIENT_PROTOCOL_VERSION = "protocolVersion",
             CLIENT_PROTOCOL_VERSION_MIN = "minimumProtocolVersion",
             CLIENT_REVISION_PICTURE = "revisionPicture",
+            CLIENT_REVISION_PICTURE_KNOWN = "knownRevisionPicture",
             CLIENT_TYPE = "clientType",
             CLIENT_TYPE_ANY = "any",
             CLIENT_TYPE_DESKTOP = "desktop",
@@ -61,15 +62,25 @@ public class Keyword
             INDEX_FILE_SIZE = "size",
             INDEX_FILE_MIME = "mime",
             INDEX_DIRECTORY = "directory",
+            INDEX_FORMAT = "indexFormat",
+            INDEX_FORMAT_BINARY = "binary",
+            INDEX_FORMAT_JSON = "json",
+            INDEX_MORE = "indexMore",
+            INDEX_STREAM = "indexStream",
             REQUEST = "request",
             REQUEST_CLIPBOARD = "clipboard",
             REQUEST_GUIDANCE = "guidance",
             REQUEST_NOTIFY_TRANSFER_REJECTION = "notifyTransferRejection",
             REQUEST_TEST = "test",
             REQUEST_TRANSFER = "transfer",
+            REQUEST_TRANSFER_APPEND = "transferAppend",
             REQUEST_TRANSFER_START = "transferStart",
             RESULT = "result",
+            TRANSFER_BATCH = "batch",
+            TRANSFER_BUNDLE = "bundle",
             TRANSFER_CURRENT_POSITION = "currentPosition",
             TRANSFER_GROUP_ID = "groupId",
-            TRANSFER_ID = "id";
+            TRANSFER_ID = "id",
+            TRANSFER_JOIN = "join",
+            TRANSFER_LENGTH = "length";
 }
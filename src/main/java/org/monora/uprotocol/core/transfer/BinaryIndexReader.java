@@ -0,0 +1,129 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the index of a transfer group in the compact binary format one item at a time.
+ *
+ * @see BinaryIndexWriter
+ */
+public class BinaryIndexReader extends IndexReader
+{
+    /**
+     * The maximum length of a string in the index in bytes.
+     */
+    private static final int LENGTH_MAX_STRING = 0x10000; // 64KiB
+
+    private final @NotNull DataInputStream inputStream;
+
+    private final @NotNull List<@NotNull String> mimeTypeList = new ArrayList<>();
+
+    private @Nullable String directory;
+
+    private boolean ended = false;
+
+    /**
+     * Create a new instance.
+     *
+     * @param inputStream To read the index from. This is closed along with this instance. It should be buffered since
+     *                    the fields are read in small pieces.
+     */
+    public BinaryIndexReader(@NotNull InputStream inputStream)
+    {
+        this.inputStream = new DataInputStream(inputStream);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        byte[] bytes = new byte[1024];
+
+        //noinspection StatementWithEmptyBody
+        while (inputStream.read(bytes) != -1) {
+        }
+
+        ended = true;
+        inputStream.close();
+    }
+
+    @Override
+    public @Nullable MetaTransferItem read() throws IOException, ProtocolException
+    {
+        if (ended)
+            return null;
+
+        int tag = inputStream.readUnsignedByte();
+
+        if (tag == BinaryIndexWriter.TAG_END) {
+            ended = true;
+            return null;
+        } else if (tag != BinaryIndexWriter.TAG_ITEM) {
+            throw new ProtocolException("Unknown tag in the index: " + tag);
+        }
+
+        long id = readVarLong();
+        long size = readVarLong();
+        String name = readString();
+
+        long mimeIndex = readVarLong();
+        if (mimeIndex == mimeTypeList.size()) {
+            mimeTypeList.add(readString());
+        } else if (mimeIndex > mimeTypeList.size()) {
+            throw new ProtocolException("The MIME type is not in the index: " + mimeIndex);
+        }
+        String mimeType = mimeTypeList.get((int) mimeIndex);
+
+        long shared = readVarLong() - 1;
+        if (shared < 0) {
+            directory = null;
+        } else if (shared > 0 && (directory == null || shared > directory.length())) {
+            throw new ProtocolException("The directory shares more than the previous one has: " + shared);
+        } else {
+            String suffix = readString();
+            directory = shared == 0 ? suffix : directory.substring(0, (int) shared) + suffix;
+        }
+
+        return new MetaTransferItem(id, name, size, mimeType, directory);
+    }
+
+    private @NotNull String readString() throws IOException, ProtocolException
+    {
+        long length = readVarLong();
+
+        if (length > LENGTH_MAX_STRING)
+            throw new ProtocolException("The string in the index is too long: " + length);
+
+        byte[] bytes = new byte[(int) length];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException, ProtocolException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = inputStream.read();
+
+            if (b == -1)
+                throw new EOFException();
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new ProtocolException("The variable-length integer in the index is too long.");
+    }
+}
@@ -0,0 +1,117 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the index of a transfer group in the compact binary format one item at a time.
+ * <p>
+ * Every item starts with {@link #TAG_ITEM} and is followed by its id and size as variable-length integers and its
+ * name as a string. Its MIME type is the index of an earlier one, or the next index followed by the type itself when
+ * it is new. Its directory is the length of the part it shares with the directory of the previous item plus one, or
+ * '0' if it has none, followed by the rest of it as a string. The strings are their UTF-8 length followed by their
+ * UTF-8 bytes. The index ends with {@link #TAG_END}.
+ * <p>
+ * The output can be read back using {@link BinaryIndexReader}.
+ */
+public class BinaryIndexWriter extends IndexWriter
+{
+    /**
+     * Marks the end of the index.
+     */
+    static final int TAG_END = 0;
+
+    /**
+     * Marks the start of an item.
+     */
+    static final int TAG_ITEM = 1;
+
+    private final @NotNull OutputStream outputStream;
+
+    private final @NotNull Map<@NotNull String, @NotNull Integer> mimeTypeMap = new HashMap<>();
+
+    private @Nullable String directory;
+
+    /**
+     * Create a new instance.
+     *
+     * @param outputStream To write the index to. This is closed along with this instance. It should be buffered since
+     *                     the fields are written in small pieces.
+     */
+    public BinaryIndexWriter(@NotNull OutputStream outputStream)
+    {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        outputStream.write(TAG_END);
+        outputStream.close();
+    }
+
+    @Override
+    public void write(@NotNull TransferItem transferItem) throws IOException
+    {
+        outputStream.write(TAG_ITEM);
+        writeVarLong(transferItem.getItemId());
+        writeVarLong(transferItem.getItemSize());
+        writeString(transferItem.getItemName());
+
+        Integer mimeIndex = mimeTypeMap.get(transferItem.getItemMimeType());
+        if (mimeIndex == null) {
+            writeVarLong(mimeTypeMap.size());
+            writeString(transferItem.getItemMimeType());
+            mimeTypeMap.put(transferItem.getItemMimeType(), mimeTypeMap.size());
+        } else {
+            writeVarLong(mimeIndex);
+        }
+
+        String itemDirectory = transferItem.getItemDirectory();
+        if (itemDirectory == null) {
+            writeVarLong(0);
+        } else {
+            int shared = 0;
+
+            if (directory != null) {
+                int max = Math.min(directory.length(), itemDirectory.length());
+                while (shared < max && directory.charAt(shared) == itemDirectory.charAt(shared)) {
+                    shared++;
+                }
+
+                // A surrogate pair cannot be split, or the rest of it could not be encoded.
+                if (shared > 0 && Character.isHighSurrogate(itemDirectory.charAt(shared - 1))) {
+                    shared--;
+                }
+            }
+
+            writeVarLong(shared + 1);
+            writeString(itemDirectory.substring(shared));
+        }
+
+        directory = itemDirectory;
+    }
+
+    private void writeString(@NotNull String string) throws IOException
+    {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        outputStream.write((int) value);
+    }
+}
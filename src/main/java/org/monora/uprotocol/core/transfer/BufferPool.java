@@ -0,0 +1,167 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the byte arrays that the transfer operations read and write the data of items with, and takes them back
+ * to be reused.
+ * <p>
+ * The arrays are kept in size classes of powers of two, so an acquired array can be longer than what is asked for,
+ * by up to twice the length. Asking for a power of two that is not shorter than 1KiB avoids that. The total length of the arrays that are kept for reuse is capped by {@link #getMaxMemory()}, and the arrays that are
+ * given back after that are left to the garbage collector.
+ * <p>
+ * A single instance can be shared by any number of operations running at the same time, which is how
+ * {@link #getDefault()} is used by {@link TransferOptions}.
+ */
+public class BufferPool
+{
+    private static final int MIN_CLASS = 10; // 1KiB
+
+    private static final int MAX_CLASS = 30; // 1GiB
+
+    /**
+     * The length of the longest array that can be acquired, which is 1GiB.
+     */
+    public static final int MAX_LENGTH = 1 << MAX_CLASS;
+
+    private static final @NotNull BufferPool defaultPool = new BufferPool(0x1000000); // 16MiB
+
+    private final Queue<byte @NotNull []> @NotNull [] queues;
+
+    private final long maxMemory;
+
+    private final @NotNull AtomicLong pooledMemory = new AtomicLong();
+
+    private final @NotNull AtomicLong hitCount = new AtomicLong();
+
+    private final @NotNull AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Create a new instance.
+     *
+     * @param maxMemory The maximum total length of the arrays that are kept for reuse, which should be '0' or larger.
+     *                  '0' disables the pooling.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxMemory)
+    {
+        if (maxMemory < 0)
+            throw new IllegalArgumentException("The maximum memory cannot be negative.");
+
+        this.maxMemory = maxMemory;
+        this.queues = new Queue[MAX_CLASS + 1];
+
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Take an array that is at least as long as the given length.
+     * <p>
+     * The array should be given back with {@link #release(byte[])} when it is no longer used. Its content is not
+     * cleared.
+     *
+     * @param length The minimum length of the array.
+     * @return The array, whose length is the power of two that is not smaller than the given length.
+     */
+    public byte @NotNull [] acquire(int length)
+    {
+        int sizeClass = getSizeClass(length);
+        if (sizeClass > MAX_CLASS)
+            throw new IllegalArgumentException("The length " + length + " is larger than what can be pooled.");
+
+        byte[] bytes = queues[sizeClass].poll();
+
+        if (bytes == null) {
+            missCount.incrementAndGet();
+            return new byte[1 << sizeClass];
+        }
+
+        pooledMemory.addAndGet(-bytes.length);
+        hitCount.incrementAndGet();
+        return bytes;
+    }
+
+    /**
+     * The instance that is shared by default, which keeps up to 16MiB for reuse.
+     *
+     * @return The default instance.
+     */
+    public static @NotNull BufferPool getDefault()
+    {
+        return defaultPool;
+    }
+
+    /**
+     * The number of times an array was reused when it was acquired.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * The maximum total length of the arrays that are kept for reuse.
+     *
+     * @return The maximum memory in bytes.
+     */
+    public long getMaxMemory()
+    {
+        return maxMemory;
+    }
+
+    /**
+     * The number of times a new array was created when it was acquired.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * The total length of the arrays that are kept for reuse at the moment.
+     *
+     * @return The pooled memory in bytes.
+     */
+    public long getPooledMemory()
+    {
+        return pooledMemory.get();
+    }
+
+    private static int getSizeClass(int length)
+    {
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(0, length - 1)));
+    }
+
+    /**
+     * Give back an array that was taken with {@link #acquire(int)} so that it can be reused.
+     * <p>
+     * The array should not be used after this. It is dropped if keeping it would exceed {@link #getMaxMemory()}.
+     *
+     * @param bytes To give back.
+     */
+    public void release(byte @NotNull [] bytes)
+    {
+        int sizeClass = getSizeClass(bytes.length);
+        if (sizeClass > MAX_CLASS || bytes.length != 1 << sizeClass)
+            return;
+
+        long memory;
+        do {
+            memory = pooledMemory.get();
+            if (memory + bytes.length > maxMemory)
+                return;
+        } while (!pooledMemory.compareAndSet(memory, memory + bytes.length));
+
+        queues[sizeClass].offer(bytes);
+    }
+}
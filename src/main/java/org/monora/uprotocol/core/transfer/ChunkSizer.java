@@ -0,0 +1,167 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Chooses the length of the next write from how long the previous ones took.
+ * <p>
+ * Every write to the remote is a separate chunk that comes with its own header and state exchange, so the length grows
+ * for as long as it makes the data go faster. It shrinks back when growing made it slower, or when a single write
+ * takes longer than {@link #TARGET_NANOS}, which keeps the progress updates and the cancellation responsive on slow
+ * connections.
+ * <p>
+ * The measurements are taken in windows of {@link #TARGET_NANOS}, and the length is doubled or halved at most once
+ * for every window.
+ */
+class ChunkSizer
+{
+    static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    static final int HOLD_WINDOWS = 8;
+
+    private final @NotNull LongSupplier clock;
+
+    private final @NotNull IntConsumer listener;
+
+    private final int minLength;
+
+    private final int maxLength;
+
+    private int length;
+
+    private long windowBytes = 0;
+
+    private long windowNanos = 0;
+
+    private int windowCount = 0;
+
+    private double lastRate = 0;
+
+    private boolean grown = false;
+
+    private int holdCount = 0;
+
+    /**
+     * Create a new instance that starts with the minimum length.
+     *
+     * @param minLength The minimum length of a write.
+     * @param maxLength The maximum length of a write, which is taken as the minimum length if it is smaller.
+     * @param listener  That is given the new length every time it changes.
+     */
+    ChunkSizer(int minLength, int maxLength, @NotNull IntConsumer listener)
+    {
+        this(minLength, maxLength, System::nanoTime, listener);
+    }
+
+    /**
+     * Create a new instance that starts with the minimum length and measures the writes with the given clock.
+     *
+     * @param minLength The minimum length of a write.
+     * @param maxLength The maximum length of a write, which is taken as the minimum length if it is smaller.
+     * @param clock     That gives the current time in nanoseconds.
+     */
+    ChunkSizer(int minLength, int maxLength, @NotNull LongSupplier clock)
+    {
+        this(minLength, maxLength, clock, length -> {
+        });
+    }
+
+    /**
+     * Create a new instance that starts with the minimum length and measures the writes with the given clock.
+     *
+     * @param minLength The minimum length of a write.
+     * @param maxLength The maximum length of a write, which is taken as the minimum length if it is smaller.
+     * @param clock     That gives the current time in nanoseconds.
+     * @param listener  That is given the new length every time it changes.
+     */
+    ChunkSizer(int minLength, int maxLength, @NotNull LongSupplier clock, @NotNull IntConsumer listener)
+    {
+        this.clock = clock;
+        this.listener = listener;
+        this.minLength = minLength;
+        this.maxLength = Math.max(minLength, maxLength);
+        this.length = minLength;
+    }
+
+    /**
+     * The length of the next write.
+     *
+     * @return The length in bytes.
+     */
+    int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * The largest length that can be returned from {@link #getLength()}.
+     *
+     * @return The maximum length in bytes.
+     */
+    int getMaxLength()
+    {
+        return maxLength;
+    }
+
+    /**
+     * Record a write that has been made.
+     *
+     * @param length    The length of the data that was written.
+     * @param startTime The time that the write started at as returned from {@link #start()}.
+     */
+    void record(int length, long startTime)
+    {
+        long nanos = clock.getAsLong() - startTime;
+
+        windowBytes += length;
+        windowNanos += nanos;
+        windowCount++;
+
+        if (windowNanos < TARGET_NANOS || minLength == maxLength)
+            return;
+
+        double rate = (double) windowBytes / windowNanos;
+        int previousLength = this.length;
+
+        if (windowNanos / windowCount > TARGET_NANOS) {
+            shrink();
+        } else if (grown && rate < lastRate * 0.9) {
+            // Growing did not help, so go back and stay there for a while.
+            shrink();
+            holdCount = HOLD_WINDOWS;
+        } else if (holdCount > 0) {
+            holdCount--;
+        } else if (this.length < maxLength) {
+            this.length = (int) Math.min(maxLength, (long) this.length * 2);
+            grown = true;
+        }
+
+        lastRate = rate;
+        windowBytes = 0;
+        windowNanos = 0;
+        windowCount = 0;
+
+        if (this.length != previousLength)
+            listener.accept(this.length);
+    }
+
+    /**
+     * The time that a write starts at, which should be passed to {@link #record(int, long)} after the write is made.
+     *
+     * @return The current time in nanoseconds.
+     */
+    long start()
+    {
+        return clock.getAsLong();
+    }
+
+    private void shrink()
+    {
+        length = Math.max(minLength, length / 2);
+        grown = false;
+    }
+}
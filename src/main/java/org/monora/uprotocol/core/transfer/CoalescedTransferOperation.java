@@ -0,0 +1,203 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.io.StreamDescriptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in front of a {@link TransferOperation} so that the progress of the data reaches it at a limited rate.
+ * <p>
+ * The changes to {@link #getBytesOngoing()} are held back and passed on as a single change, along with
+ * {@link #publishProgress()}, when enough time has passed or enough data has piled up since the last time. The other
+ * calls are passed on as they are, and they pass on the changes that are held back before themselves, so that the
+ * progress is always published when an item starts, ends, or fails.
+ * <p>
+ * This does not delay the cancellation of an operation, which is checked by the connection on every read and write.
+ * <p>
+ * The {@link StateBatch} of the operation is saved along with the progress when it is old enough.
+ */
+class CoalescedTransferOperation implements TransferOperation
+{
+    private final @NotNull TransferOperation operation;
+
+    private final @NotNull StateBatch stateBatch;
+
+    private final long intervalNanos;
+
+    private final long threshold;
+
+    private long lastNanos;
+
+    private long bytesOngoing;
+
+    private long bytesIncrease = 0;
+
+    private boolean changed = false;
+
+    private boolean forced = true;
+
+    /**
+     * Create a new instance.
+     *
+     * @param operation  To pass the calls on to.
+     * @param interval   The least time between two publications in milliseconds. '0' publishes every time.
+     * @param threshold  The length of the data after which the progress is published before the interval passes.
+     *                   '0' disables it.
+     * @param stateBatch That the states of the items are saved with.
+     */
+    CoalescedTransferOperation(@NotNull TransferOperation operation, long interval, long threshold,
+                               @NotNull StateBatch stateBatch)
+    {
+        this.operation = operation;
+        this.stateBatch = stateBatch;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.threshold = threshold;
+        this.bytesOngoing = operation.getBytesOngoing();
+        this.lastNanos = System.nanoTime();
+    }
+
+    @Override
+    public void clearBytesOngoing()
+    {
+        flush();
+        operation.clearBytesOngoing();
+        bytesOngoing = operation.getBytesOngoing();
+    }
+
+    @Override
+    public void clearOngoing()
+    {
+        publish();
+        operation.clearOngoing();
+        forced = true;
+    }
+
+    @Override
+    public void finishOperation()
+    {
+        flush();
+        operation.finishOperation();
+    }
+
+    /**
+     * Pass on the changes to the bytes that are held back.
+     */
+    private void flush()
+    {
+        if (!changed)
+            return;
+
+        operation.setBytesOngoing(bytesOngoing, bytesIncrease);
+        bytesIncrease = 0;
+        changed = false;
+    }
+
+    @Override
+    public long getBytesOngoing()
+    {
+        return bytesOngoing;
+    }
+
+    @Override
+    public long getBytesTotal()
+    {
+        return operation.getBytesTotal();
+    }
+
+    @Override
+    public int getCount()
+    {
+        return operation.getCount();
+    }
+
+    @Override
+    public @Nullable TransferItem getOngoing()
+    {
+        return operation.getOngoing();
+    }
+
+    @Override
+    public void installReceivedContent(@NotNull StreamDescriptor descriptor)
+    {
+        flush();
+        operation.installReceivedContent(descriptor);
+    }
+
+    @Override
+    public void onCancelOperation()
+    {
+        publish();
+        operation.onCancelOperation();
+    }
+
+    @Override
+    public void onChunkLengthChanged(int length)
+    {
+        operation.onChunkLengthChanged(length);
+    }
+
+    @Override
+    public void onUnhandledException(@NotNull Exception e)
+    {
+        publish();
+        operation.onUnhandledException(e);
+    }
+
+    /**
+     * Pass on the changes that are held back and publish them now.
+     */
+    private void publish()
+    {
+        flush();
+        operation.publishProgress();
+        stateBatch.flushIfDue();
+        lastNanos = System.nanoTime();
+        forced = false;
+    }
+
+    @Override
+    public void publishProgress()
+    {
+        if (forced || (threshold > 0 && bytesIncrease >= threshold)) {
+            publish();
+            return;
+        }
+
+        long nanos = System.nanoTime();
+        if (nanos - lastNanos >= intervalNanos) {
+            publish();
+        }
+    }
+
+    @Override
+    public void setBytesOngoing(long bytes, long bytesIncrease)
+    {
+        this.bytesOngoing = bytes;
+        this.bytesIncrease += bytesIncrease;
+        this.changed = true;
+    }
+
+    @Override
+    public void setBytesTotal(long bytes)
+    {
+        flush();
+        operation.setBytesTotal(bytes);
+    }
+
+    @Override
+    public void setCount(int count)
+    {
+        flush();
+        operation.setCount(count);
+    }
+
+    @Override
+    public void setOngoing(@NotNull TransferItem transferItem)
+    {
+        flush();
+        operation.setOngoing(transferItem);
+        forced = true;
+    }
+}
@@ -0,0 +1,173 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.io.StreamDescriptor;
+
+/**
+ * Represents one of the connections that work on the same {@link TransferOperation} at the same time.
+ * <p>
+ * The counters are kept for this connection alone, and the changes made to them are applied to the shared operation
+ * as differences, so the connections do not overwrite each other's progress. The calls that end the operation are
+ * recorded instead of being passed on, because the operation only ends after all the connections are done.
+ */
+class ConcurrentTransferOperation implements TransferOperation
+{
+    private final @NotNull TransferOperation operation;
+
+    private @Nullable TransferItem ongoing;
+
+    private @Nullable Exception exception;
+
+    private long bytesOngoing;
+
+    private long bytesTotal;
+
+    private int count;
+
+    private boolean cancelled;
+
+    /**
+     * Create a new instance.
+     *
+     * @param operation The operation that is shared with the other connections.
+     */
+    ConcurrentTransferOperation(@NotNull TransferOperation operation)
+    {
+        this.operation = operation;
+    }
+
+    @Override
+    public void clearBytesOngoing()
+    {
+        synchronized (operation) {
+            operation.setBytesOngoing(operation.getBytesOngoing() - bytesOngoing, 0);
+        }
+        bytesOngoing = 0;
+    }
+
+    @Override
+    public void clearOngoing()
+    {
+        synchronized (operation) {
+            if (ongoing != null && ongoing.equals(operation.getOngoing())) {
+                operation.clearOngoing();
+            }
+        }
+        ongoing = null;
+    }
+
+    @Override
+    public void finishOperation()
+    {
+        // The shared operation is finished after all the connections are done.
+    }
+
+    @Override
+    public long getBytesOngoing()
+    {
+        return bytesOngoing;
+    }
+
+    @Override
+    public long getBytesTotal()
+    {
+        return bytesTotal;
+    }
+
+    @Override
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * The error that ended the work on this connection if there was any.
+     *
+     * @return The unhandled error or null if there was none.
+     */
+    @Nullable Exception getException()
+    {
+        return exception;
+    }
+
+    @Override
+    public @Nullable TransferItem getOngoing()
+    {
+        return ongoing;
+    }
+
+    @Override
+    public void installReceivedContent(@NotNull StreamDescriptor descriptor)
+    {
+        synchronized (operation) {
+            operation.installReceivedContent(descriptor);
+        }
+    }
+
+    /**
+     * Whether the work on this connection was cancelled.
+     *
+     * @return True if cancelled.
+     */
+    boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    @Override
+    public void onCancelOperation()
+    {
+        cancelled = true;
+    }
+
+    @Override
+    public void onUnhandledException(@NotNull Exception e)
+    {
+        exception = e;
+    }
+
+    @Override
+    public void publishProgress()
+    {
+        synchronized (operation) {
+            operation.publishProgress();
+        }
+    }
+
+    @Override
+    public void setBytesOngoing(long bytes, long bytesIncrease)
+    {
+        synchronized (operation) {
+            operation.setBytesOngoing(operation.getBytesOngoing() + bytes - bytesOngoing, bytesIncrease);
+        }
+        bytesOngoing = bytes;
+    }
+
+    @Override
+    public void setBytesTotal(long bytes)
+    {
+        synchronized (operation) {
+            operation.setBytesTotal(operation.getBytesTotal() + bytes - bytesTotal);
+        }
+        bytesTotal = bytes;
+    }
+
+    @Override
+    public void setCount(int count)
+    {
+        synchronized (operation) {
+            operation.setCount(operation.getCount() + count - this.count);
+        }
+        this.count = count;
+    }
+
+    @Override
+    public void setOngoing(@NotNull TransferItem transferItem)
+    {
+        synchronized (operation) {
+            operation.setOngoing(transferItem);
+        }
+        ongoing = transferItem;
+    }
+}
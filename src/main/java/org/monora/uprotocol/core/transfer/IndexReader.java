@@ -0,0 +1,29 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the index of a transfer group one item at a time.
+ * <p>
+ * The items can be handled, e.g., persisted, as they arrive without holding the whole index in memory.
+ * <p>
+ * Closing this consumes what is left of the index so that the source reaches its end even if it was not read fully.
+ *
+ * @see JsonIndexReader
+ * @see BinaryIndexReader
+ */
+public abstract class IndexReader implements Closeable
+{
+    /**
+     * Read the next item from the index.
+     *
+     * @return The next item, or null if the index has ended.
+     * @throws IOException       If an IO error occurs.
+     * @throws ProtocolException If the index is corrupted or has missing/mismatch values.
+     */
+    public abstract @Nullable MetaTransferItem read() throws IOException, ProtocolException;
+}
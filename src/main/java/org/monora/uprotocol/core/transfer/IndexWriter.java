@@ -0,0 +1,47 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the index of a transfer group one item at a time, so the items can be written as they are produced.
+ * <p>
+ * The index is only complete after {@link #close()} is invoked.
+ *
+ * @see JsonIndexWriter
+ * @see BinaryIndexWriter
+ */
+public abstract class IndexWriter implements Closeable
+{
+    /**
+     * Write an item to the index.
+     *
+     * @param transferItem To write.
+     * @throws IOException If an IO error occurs.
+     */
+    public abstract void write(@NotNull TransferItem transferItem) throws IOException;
+
+    /**
+     * Write all the given items to the index.
+     *
+     * @param transferItemList To write.
+     * @throws IOException If an IO error occurs.
+     */
+    public void writeAll(@NotNull List<@NotNull TransferItem> transferItemList) throws IOException
+    {
+        for (TransferItem transferItem : transferItemList) {
+            write(transferItem);
+        }
+    }
+
+    /**
+     * End the index and close the destination.
+     *
+     * @throws IOException If an IO error occurs.
+     */
+    @Override
+    public abstract void close() throws IOException;
+}
@@ -0,0 +1,88 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the index of a transfer group from a JSON array one item at a time.
+ * <p>
+ * Unlike {@link Transfers#toTransferItemList(String)}, this does not hold the whole index in memory. A corrupted
+ * index fails with {@link JSONException} like the rest of the JSON data.
+ *
+ * @see JsonIndexWriter
+ */
+public class JsonIndexReader extends IndexReader
+{
+    private final @NotNull Reader reader;
+
+    private final @NotNull JSONTokener tokener;
+
+    private boolean started = false;
+
+    private boolean ended = false;
+
+    /**
+     * Create a new instance.
+     *
+     * @param reader To read the index from. This is closed along with this instance.
+     */
+    public JsonIndexReader(@NotNull Reader reader)
+    {
+        this.reader = reader;
+        this.tokener = new JSONTokener(reader);
+    }
+
+    @Override
+    public @Nullable MetaTransferItem read() throws JSONException
+    {
+        if (ended)
+            return null;
+
+        char next = tokener.nextClean();
+
+        if (!started) {
+            if (next != '[')
+                throw tokener.syntaxError("The index should start with '['.");
+
+            started = true;
+            next = tokener.nextClean();
+
+            if (next != ']')
+                tokener.back();
+        } else if (next != ',' && next != ']') {
+            throw tokener.syntaxError("The items in the index should be separated with ','.");
+        }
+
+        if (next == ']') {
+            ended = true;
+            return null;
+        }
+
+        Object value = tokener.nextValue();
+
+        if (!(value instanceof JSONObject))
+            throw tokener.syntaxError("The items in the index should be JSON objects.");
+
+        return Transfers.toMetaTransferItem((JSONObject) value);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        char[] chars = new char[1024];
+
+        // The tokener may have buffered some of the data, but the rest is only consumed through the reader.
+        //noinspection StatementWithEmptyBody
+        while (reader.read(chars) != -1) {
+        }
+
+        ended = true;
+        reader.close();
+    }
+}
@@ -0,0 +1,50 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes the index of a transfer group as a JSON array one item at a time.
+ * <p>
+ * Unlike {@link Transfers#toJson(List)}, this does not hold the whole index in memory. The output is the same, and can
+ * be read back using {@link JsonIndexReader}.
+ */
+public class JsonIndexWriter extends IndexWriter
+{
+    private final @NotNull Writer writer;
+
+    private boolean started = false;
+
+    /**
+     * Create a new instance.
+     *
+     * @param writer To write the index to. This is closed along with this instance.
+     */
+    public JsonIndexWriter(@NotNull Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(@NotNull TransferItem transferItem) throws IOException, JSONException
+    {
+        writer.write(started ? ',' : '[');
+        started = true;
+
+        Transfers.toJson(transferItem).write(writer);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!started)
+            writer.write('[');
+
+        writer.write(']');
+        writer.close();
+    }
+}
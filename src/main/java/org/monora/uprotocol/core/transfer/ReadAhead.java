@@ -0,0 +1,189 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the data of an item ahead of the writer on a separate thread, so that reading it and writing it to the
+ * remote can happen at the same time. The thread is reused for all the items and stops when this is closed.
+ * <p>
+ * The data is read into a fixed ring of buffers that are reused for all the items, which bounds the memory that is
+ * held at any time. The reader waits when all the buffers are filled, and the writer waits when all of them are
+ * empty.
+ */
+class ReadAhead implements Closeable
+{
+    private final @NotNull BufferPool bufferPool;
+
+    private final int bufferLength;
+
+    private final @NotNull BlockingQueue<@NotNull Chunk> freeQueue;
+
+    private final @NotNull BlockingQueue<@NotNull Chunk> filledQueue;
+
+    private final @NotNull Worker worker = new Worker("ReadAhead");
+
+    private boolean reading;
+
+    /**
+     * Create a new instance.
+     *
+     * @param depth        The number of buffers in the ring.
+     * @param bufferLength The length of each buffer, which the reads are limited to even when the pool hands out a
+     *                     longer one.
+     * @param bufferPool   To take the buffers from, which they are given back to when this is closed.
+     */
+    ReadAhead(int depth, int bufferLength, @NotNull BufferPool bufferPool)
+    {
+        this.bufferPool = bufferPool;
+        this.bufferLength = bufferLength;
+        freeQueue = new ArrayBlockingQueue<>(depth);
+        filledQueue = new ArrayBlockingQueue<>(depth);
+
+        for (int i = 0; i < depth; i++) {
+            freeQueue.add(new Chunk(bufferPool.acquire(bufferLength)));
+        }
+    }
+
+    /**
+     * Start reading the given input stream ahead.
+     * <p>
+     * The previous input stream should have been ended with {@link #end()} before this.
+     *
+     * @param inputStream To read from, which should stay open until {@link #end()} is invoked.
+     * @param length      The maximum number of bytes to read.
+     */
+    void begin(@NotNull InputStream inputStream, long length)
+    {
+        if (reading)
+            throw new IllegalStateException("The previous read is not ended.");
+
+        reading = true;
+        worker.start(() -> read(inputStream, length));
+    }
+
+    @Override
+    public void close()
+    {
+        end();
+        worker.close();
+
+        Chunk chunk;
+        while ((chunk = freeQueue.poll()) != null) {
+            bufferPool.release(chunk.bytes);
+        }
+    }
+
+    /**
+     * Stop reading the current input stream and take back the buffers that hold its data.
+     * <p>
+     * This waits for the reader to exit, after which the input stream can be closed.
+     */
+    void end()
+    {
+        if (!reading)
+            return;
+
+        worker.cancel();
+        worker.join();
+
+        reading = false;
+        filledQueue.drainTo(freeQueue);
+    }
+
+    private void read(@NotNull InputStream inputStream, long length)
+    {
+        Chunk chunk = null;
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                chunk = freeQueue.take();
+                chunk.error = null;
+                chunk.length = length > 0 ? inputStream.read(chunk.bytes, 0,
+                        (int) Math.min(bufferLength, length)) : -1;
+
+                int read = chunk.length;
+
+                // There are never more buffers than the queue can hold, so this neither waits nor fails.
+                filledQueue.offer(chunk);
+                chunk = null;
+
+                if (read == -1)
+                    break;
+
+                length -= read;
+            }
+        } catch (IOException | RuntimeException e) {
+            // The writer would otherwise wait for the data forever.
+            chunk.error = e instanceof IOException ? (IOException) e : new IOException(e);
+            chunk.length = -1;
+            filledQueue.offer(chunk);
+        } catch (InterruptedException e) {
+            // The buffer that was taken would otherwise be in neither of the queues and be lost.
+            if (chunk != null) {
+                freeQueue.offer(chunk);
+            }
+        }
+    }
+
+    /**
+     * Give a buffer back after its data is written.
+     *
+     * @param chunk That was taken with {@link #take()}.
+     */
+    void recycle(@NotNull Chunk chunk)
+    {
+        freeQueue.offer(chunk);
+    }
+
+    /**
+     * Take the next buffer that holds the data of the current input stream, waiting for it if necessary.
+     * <p>
+     * The buffer should be given back using {@link #recycle(Chunk)}.
+     *
+     * @return The next buffer, whose length is '-1' if the end of the input stream is reached.
+     * @throws IOException If the reader failed or if the thread is interrupted.
+     */
+    @NotNull Chunk take() throws IOException
+    {
+        Chunk chunk;
+
+        try {
+            chunk = filledQueue.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+
+        if (chunk.error != null) {
+            IOException error = chunk.error;
+            recycle(chunk);
+            throw error;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * A buffer in the ring along with the length of the data it holds.
+     */
+    static class Chunk
+    {
+        final byte @NotNull [] bytes;
+
+        int length;
+
+        @Nullable IOException error;
+
+        Chunk(byte @NotNull [] bytes)
+        {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.persistence.PersistenceProvider;
+import org.monora.uprotocol.core.persistence.ReceivableItemCursor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hands out the receivable items of a group to one or more connections, so that an item that is being received over
+ * one of them is not requested over another.
+ * <p>
+ * The items stay claimed until they are released or finished. A large item can also be shared among the connections
+ * as a {@link SegmentedItem}, in which case it stays claimed until it is removed.
+ * <p>
+ * The items are read through a {@link ReceivableItemCursor}, so the group is not read from the start for every claim.
+ * Once the cursor runs out, a new one is opened to find the items that became receivable again behind it, and the
+ * dispatcher only runs out when the new cursor has no items that are not claimed. When the new cursor finds an item
+ * that ended but is still waiting in the {@link StateBatch}, which happens when the persistence provider does not see
+ * the states until they are saved, the batch is flushed and the cursor is opened again, so that the item is not handed
+ * out again with the state it had before.
+ */
+class ReceivableItemDispatcher
+{
+    private final @NotNull PersistenceProvider persistenceProvider;
+
+    private final long groupId;
+
+    private final boolean shared;
+
+    private final int prefetch;
+
+    private final @NotNull StateBatch stateBatch;
+
+    private @NotNull ReceivableItemCursor cursor;
+
+    private final @NotNull Deque<@NotNull TransferItem> releasedQueue = new ArrayDeque<>();
+
+    private final @NotNull Set<@NotNull Long> claimedIdSet = new HashSet<>();
+
+    private final @NotNull List<@NotNull SegmentedItem> segmentedItemList = new ArrayList<>();
+
+    /**
+     * Create a new instance.
+     *
+     * @param persistenceProvider To read the receivable items from.
+     * @param groupId             As in {@link TransferItem#getItemGroupId()}.
+     * @param shared              True if this is used by more than one connection.
+     * @param prefetch            The number of items the cursor should read at once.
+     * @param stateBatch          That the states of the items are saved with.
+     */
+    ReceivableItemDispatcher(@NotNull PersistenceProvider persistenceProvider, long groupId, boolean shared,
+                             int prefetch, @NotNull StateBatch stateBatch)
+    {
+        this.persistenceProvider = persistenceProvider;
+        this.groupId = groupId;
+        this.shared = shared;
+        this.prefetch = prefetch;
+        this.stateBatch = stateBatch;
+        this.cursor = persistenceProvider.getReceivableItemCursor(groupId, prefetch);
+    }
+
+    /**
+     * Share a claimed item among the connections so that they can claim its segments.
+     *
+     * @param segmentedItem To share.
+     * @see #getSegmentedItem()
+     */
+    synchronized void add(@NotNull SegmentedItem segmentedItem)
+    {
+        segmentedItemList.add(segmentedItem);
+    }
+
+    /**
+     * Claim the receivable items that are not already claimed.
+     *
+     * @param limit The maximum number of items to claim.
+     * @return The claimed items, or an empty list if there is none left.
+     * @see PersistenceProvider#getReceivableItemCursor(long, int)
+     */
+    synchronized @NotNull List<@NotNull TransferItem> claim(int limit)
+    {
+        List<TransferItem> claimedList = new ArrayList<>(limit);
+        boolean reopened = false;
+
+        while (claimedList.size() < limit) {
+            TransferItem item = releasedQueue.poll();
+
+            if (item == null && (item = cursor.next()) == null) {
+                if (reopened || !claimedList.isEmpty())
+                    break;
+
+                cursor = persistenceProvider.getReceivableItemCursor(groupId, prefetch);
+                reopened = true;
+                continue;
+            }
+
+            if (stateBatch.contains(item)) {
+                stateBatch.flush();
+                cursor = persistenceProvider.getReceivableItemCursor(groupId, prefetch);
+                reopened = true;
+                continue;
+            }
+
+            if (claimedIdSet.add(item.getItemId())) {
+                claimedList.add(item);
+            }
+        }
+
+        return claimedList;
+    }
+
+    /**
+     * Release the given items after attempting to receive them.
+     * <p>
+     * They are not handed out again unless they are still receivable when the cursor is reopened.
+     *
+     * @param itemList To finish.
+     */
+    synchronized void finish(@NotNull List<@NotNull TransferItem> itemList)
+    {
+        for (TransferItem item : itemList) {
+            claimedIdSet.remove(item.getItemId());
+        }
+    }
+
+    /**
+     * Find a shared item that still has segments to claim.
+     *
+     * @return The shared item or null if there is none.
+     */
+    synchronized @Nullable SegmentedItem getSegmentedItem()
+    {
+        for (SegmentedItem segmentedItem : segmentedItemList) {
+            if (segmentedItem.hasPending())
+                return segmentedItem;
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether this is used by more than one connection.
+     *
+     * @return True if it is.
+     */
+    boolean isShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Stop sharing an item and release it.
+     *
+     * @param segmentedItem To remove.
+     */
+    synchronized void remove(@NotNull SegmentedItem segmentedItem)
+    {
+        segmentedItemList.remove(segmentedItem);
+        claimedIdSet.remove(segmentedItem.item.getItemId());
+    }
+
+    /**
+     * Release the given items without attempting to receive them, so that they are claimed again first.
+     *
+     * @param itemList To release.
+     */
+    synchronized void release(@NotNull List<@NotNull TransferItem> itemList)
+    {
+        for (int i = itemList.size() - 1; i >= 0; i--) {
+            TransferItem item = itemList.get(i);
+
+            if (claimedIdSet.remove(item.getItemId())) {
+                releasedQueue.addFirst(item);
+            }
+        }
+    }
+}
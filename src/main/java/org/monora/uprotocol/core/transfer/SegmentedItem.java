@@ -0,0 +1,197 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.monora.uprotocol.core.io.FileStreamDescriptor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps track of an item that is received in ranges, possibly over more than one connection.
+ * <p>
+ * The gaps between the completed ranges are split into segments, which are claimed by the connections one by one.
+ */
+class SegmentedItem
+{
+    final @NotNull TransferItem item;
+
+    final @NotNull FileStreamDescriptor descriptor;
+
+    private final @NotNull List<@NotNull TransferRange> completedList;
+
+    private final @NotNull Deque<@NotNull TransferRange> pendingList = new ArrayDeque<>();
+
+    private int ongoingCount = 0;
+
+    private boolean failed = false;
+
+    /**
+     * Create a new instance.
+     *
+     * @param item          That is received in ranges.
+     * @param descriptor    That belongs to the item.
+     * @param completedList The ranges that were received before.
+     * @param segmentLength The maximum length of a segment.
+     */
+    SegmentedItem(@NotNull TransferItem item, @NotNull FileStreamDescriptor descriptor,
+                  @NotNull List<@NotNull TransferRange> completedList, long segmentLength)
+    {
+        this.item = item;
+        this.descriptor = descriptor;
+        this.completedList = merge(completedList);
+
+        long position = 0;
+        for (TransferRange range : this.completedList) {
+            split(position, range.offset, segmentLength);
+            position = Math.max(position, range.end());
+        }
+        split(position, item.getItemSize(), segmentLength);
+    }
+
+    /**
+     * Abandon a claimed segment so that it can be claimed again.
+     *
+     * @param range That was claimed with {@link #claim()}.
+     * @return True if the item has failed and this was the last segment that was ongoing.
+     */
+    synchronized boolean abandon(@NotNull TransferRange range)
+    {
+        ongoingCount--;
+
+        if (!failed) {
+            pendingList.addFirst(range);
+        }
+
+        return failed && ongoingCount == 0;
+    }
+
+    /**
+     * Claim the next segment that should be received.
+     *
+     * @return The claimed segment, or null if there is none left.
+     */
+    synchronized @Nullable TransferRange claim()
+    {
+        if (failed || pendingList.isEmpty())
+            return null;
+
+        ongoingCount++;
+        return pendingList.pollFirst();
+    }
+
+    /**
+     * Mark a claimed segment as completed.
+     *
+     * @param range That was claimed with {@link #claim()}.
+     * @return True if this was the last segment that was ongoing and there is none left to claim.
+     */
+    synchronized boolean complete(@NotNull TransferRange range)
+    {
+        List<TransferRange> list = new ArrayList<>(completedList);
+        list.add(range);
+
+        completedList.clear();
+        completedList.addAll(merge(list));
+        ongoingCount--;
+
+        return ongoingCount == 0 && pendingList.isEmpty();
+    }
+
+    /**
+     * Mark the item as failed after an error with a claimed segment, so that none of the remaining segments is
+     * claimed.
+     *
+     * @return True if this was the last segment that was ongoing.
+     */
+    synchronized boolean fail()
+    {
+        failed = true;
+        pendingList.clear();
+        ongoingCount--;
+
+        return ongoingCount == 0;
+    }
+
+    /**
+     * The ranges that have been completed so far.
+     *
+     * @return A copy of the completed ranges in order.
+     */
+    synchronized @NotNull List<@NotNull TransferRange> getCompletedList()
+    {
+        return new ArrayList<>(completedList);
+    }
+
+    /**
+     * Whether there are segments that can be claimed.
+     *
+     * @return True if there are.
+     */
+    synchronized boolean hasPending()
+    {
+        return !failed && !pendingList.isEmpty();
+    }
+
+    /**
+     * Whether the item has failed.
+     *
+     * @return True if it has.
+     * @see #fail()
+     */
+    synchronized boolean isFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * The length of the data that was received in order starting from the beginning.
+     *
+     * @param rangeList To read from, which should be merged.
+     * @return The length of the leading range if it starts from the beginning, or '0'.
+     */
+    static long getContiguousLength(@NotNull List<@NotNull TransferRange> rangeList)
+    {
+        return rangeList.isEmpty() || rangeList.get(0).offset != 0 ? 0 : rangeList.get(0).end();
+    }
+
+    /**
+     * Sort the given ranges and merge the ones that overlap or touch each other.
+     *
+     * @param rangeList To merge.
+     * @return The merged ranges in order.
+     */
+    static @NotNull List<@NotNull TransferRange> merge(@NotNull List<@NotNull TransferRange> rangeList)
+    {
+        List<TransferRange> sortedList = new ArrayList<>(rangeList);
+        sortedList.sort(Comparator.comparingLong(range -> range.offset));
+
+        List<TransferRange> mergedList = new ArrayList<>(sortedList.size());
+        TransferRange last = null;
+
+        for (TransferRange range : sortedList) {
+            if (range.length == 0)
+                continue;
+
+            if (last != null && range.offset <= last.end()) {
+                last = new TransferRange(last.offset, Math.max(last.end(), range.end()) - last.offset);
+                mergedList.set(mergedList.size() - 1, last);
+            } else {
+                last = range;
+                mergedList.add(range);
+            }
+        }
+
+        return mergedList;
+    }
+
+    private void split(long start, long end, long segmentLength)
+    {
+        for (long position = start; position < end; position += segmentLength) {
+            pendingList.addLast(new TransferRange(position, Math.min(segmentLength, end - position)));
+        }
+    }
+}
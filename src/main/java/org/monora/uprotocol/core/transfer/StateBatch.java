@@ -0,0 +1,127 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.persistence.PersistenceProvider;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the items whose states changed during a transfer and saves them together with
+ * {@link PersistenceProvider#persistStates(String, java.util.List)}.
+ * <p>
+ * The items are saved once the batch has the given number of items, or once the given time has passed since the
+ * oldest of them was added. The time is checked when an item is added and when the progress of the transfer is
+ * published with {@link #flushIfDue()}, so that a slow item does not hold back the states of the items before it. An
+ * item that is added more than once is saved only once, with its latest state.
+ * <p>
+ * An item should only be added after the data that its state refers to is written and closed, so that it is never
+ * saved as {@link TransferItem.State#Done} before its data. Until the batch is flushed, the saved copy of an item keeps
+ * its earlier state, which at worst makes it transferred again after a crash.
+ */
+class StateBatch
+{
+    private final @NotNull LongSupplier clock;
+
+    private final @NotNull PersistenceProvider persistenceProvider;
+
+    private final @NotNull String clientUid;
+
+    private final int size;
+
+    private final long interval;
+
+    private final @NotNull Map<@NotNull Long, @NotNull TransferItem> itemMap = new LinkedHashMap<>();
+
+    private long firstTime;
+
+    /**
+     * Create a new instance.
+     *
+     * @param persistenceProvider To save the items with.
+     * @param clientUid           That owns the items.
+     * @param size                The number of items after which the batch is saved.
+     * @param interval            The time in milliseconds after which the batch is saved.
+     */
+    StateBatch(@NotNull PersistenceProvider persistenceProvider, @NotNull String clientUid, int size, long interval)
+    {
+        this(persistenceProvider, clientUid, size, interval, System::nanoTime);
+    }
+
+    /**
+     * Create a new instance that measures the time with the given clock.
+     *
+     * @param persistenceProvider To save the items with.
+     * @param clientUid           That owns the items.
+     * @param size                The number of items after which the batch is saved.
+     * @param interval            The time in milliseconds after which the batch is saved.
+     * @param clock               That gives the current time in nanoseconds.
+     */
+    StateBatch(@NotNull PersistenceProvider persistenceProvider, @NotNull String clientUid, int size, long interval,
+               @NotNull LongSupplier clock)
+    {
+        this.clock = clock;
+        this.persistenceProvider = persistenceProvider;
+        this.clientUid = clientUid;
+        this.size = size;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * Add an item to the batch, and save the batch if it is full or old enough.
+     *
+     * @param item To save.
+     */
+    synchronized void add(@NotNull TransferItem item)
+    {
+        if (itemMap.isEmpty()) {
+            firstTime = clock.getAsLong();
+        }
+
+        itemMap.put(item.getItemId(), item);
+
+        if (itemMap.size() >= size) {
+            flush();
+        } else {
+            flushIfDue();
+        }
+    }
+
+    /**
+     * Check whether the given item is waiting in the batch to be saved.
+     *
+     * @param item To check.
+     * @return True if it is.
+     */
+    synchronized boolean contains(@NotNull TransferItem item)
+    {
+        return itemMap.containsKey(item.getItemId());
+    }
+
+    /**
+     * Save the items in the batch, if there are any.
+     * <p>
+     * If saving them fails, they are kept to be saved with the next flush.
+     */
+    synchronized void flush()
+    {
+        if (itemMap.isEmpty())
+            return;
+
+        persistenceProvider.persistStates(clientUid, new ArrayList<>(itemMap.values()));
+        itemMap.clear();
+    }
+
+    /**
+     * Save the items in the batch if the given time has passed since the oldest of them was added.
+     */
+    synchronized void flushIfDue()
+    {
+        if (!itemMap.isEmpty() && clock.getAsLong() - firstTime >= interval) {
+            flush();
+        }
+    }
+}
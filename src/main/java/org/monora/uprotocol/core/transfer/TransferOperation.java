@@ -80,6 +80,19 @@ public interface TransferOperation
      */
     void onCancelOperation();
 
+    /**
+     * Invoked when the sender changes the length that it writes the data of items in at once.
+     * <p>
+     * The sender starts from {@link TransferOptions#getMinChunkLength()} and changes the length at most once every 50
+     * milliseconds. The default implementation does nothing.
+     *
+     * @param length The new chunk length in bytes.
+     * @see TransferOptions#setMaxChunkLength(int)
+     */
+    default void onChunkLengthChanged(int length)
+    {
+    }
+
     /**
      * Invoked when {@link CommunicationBridge} fails to handle an exception.
      *
@@ -0,0 +1,588 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.io.FileStreamDescriptor;
+import org.monora.uprotocol.core.persistence.PersistenceProvider;
+import org.monora.uprotocol.core.spec.v1.Config;
+
+/**
+ * Holds the tunable parameters of a transfer operation run by {@link Transfers#receive} and {@link Transfers#send}.
+ * <p>
+ * The defaults suit most cases, so you only need to create an instance when you want to change them.
+ */
+public class TransferOptions
+{
+    private @NotNull BufferPool bufferPool = BufferPool.getDefault();
+
+    private long bundleThreshold = 0x10000; // 64KiB
+
+    private int bundleSize = 32;
+
+    private int maxChunkLength = 0x40000; // 256KiB
+
+    private int minChunkLength = 8096;
+
+    private long readAheadMemory = 0x100000; // 1MiB
+
+    private long segmentLength = 0x1000000; // 16MiB
+
+    private long segmentThreshold = 0x4000000; // 64MiB
+
+    private long writeBehindMemory = 0x100000; // 1MiB
+
+    private long progressInterval = 100;
+
+    private long progressThreshold = 0;
+
+    private long stateBatchInterval = 1000;
+
+    private int pipelineDepth = 8;
+
+    private int prefetchLength = 64;
+
+    private int readAheadDepth = 4;
+
+    private int stateBatchSize = 32;
+
+    private int writeBehindDepth = 4;
+
+    private static int getBufferLength(long memory, int depth)
+    {
+        // The pool hands out powers of two, so a length between them would take up to twice the memory.
+        return Integer.highestOneBit((int) Math.max(1, Math.min(BufferPool.MAX_LENGTH, memory / Math.max(1, depth))));
+    }
+
+    /**
+     * The pool that the buffers for reading and writing the data of items are taken from.
+     *
+     * @return The buffer pool.
+     * @see #setBufferPool(BufferPool)
+     */
+    public @NotNull BufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
+    /**
+     * The maximum number of items that are received in a single bundle.
+     *
+     * @return The bundle size.
+     * @see #setBundleSize(int)
+     */
+    public int getBundleSize()
+    {
+        return bundleSize;
+    }
+
+    /**
+     * The largest item size that is received as part of a bundle.
+     *
+     * @return The bundle threshold in bytes.
+     * @see #setBundleThreshold(long)
+     */
+    public long getBundleThreshold()
+    {
+        return bundleThreshold;
+    }
+
+    /**
+     * The largest length that the sender writes the data of an item in at once.
+     *
+     * @return The maximum chunk length in bytes.
+     * @see #setMaxChunkLength(int)
+     */
+    public int getMaxChunkLength()
+    {
+        return maxChunkLength;
+    }
+
+    /**
+     * The smallest length that the sender writes the data of an item in at once, which is also where it starts.
+     *
+     * @return The minimum chunk length in bytes.
+     * @see #setMinChunkLength(int)
+     */
+    public int getMinChunkLength()
+    {
+        return minChunkLength;
+    }
+
+    /**
+     * The maximum number of items that the receiver requests at once.
+     *
+     * @return The pipeline depth.
+     * @see #setPipelineDepth(int)
+     */
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+
+    /**
+     * The number of receivable items that are read from the persistence at once.
+     *
+     * @return The prefetch length.
+     * @see #setPrefetchLength(int)
+     */
+    public int getPrefetchLength()
+    {
+        return prefetchLength;
+    }
+
+    /**
+     * The least time between two publications of the progress.
+     *
+     * @return The progress interval in milliseconds.
+     * @see #setProgressInterval(long)
+     */
+    public long getProgressInterval()
+    {
+        return progressInterval;
+    }
+
+    /**
+     * The length of the data after which the progress is published before the interval passes.
+     *
+     * @return The progress threshold in bytes.
+     * @see #setProgressThreshold(long)
+     */
+    public long getProgressThreshold()
+    {
+        return progressThreshold;
+    }
+
+    /**
+     * The number of buffers that the sender reads an item into ahead of writing it.
+     *
+     * @return The read-ahead depth.
+     * @see #setReadAheadDepth(int)
+     */
+    public int getReadAheadDepth()
+    {
+        return readAheadDepth;
+    }
+
+    /**
+     * The length of each of the buffers that the sender reads an item into ahead of writing it.
+     * <p>
+     * This is the memory shared equally among the buffers, rounded down to a power of two.
+     *
+     * @return The buffer length in bytes.
+     * @see #setReadAheadMemory(long)
+     */
+    public int getReadAheadBufferLength()
+    {
+        return getBufferLength(readAheadMemory, readAheadDepth);
+    }
+
+    /**
+     * The maximum memory that the sender holds for reading an item ahead.
+     *
+     * @return The read-ahead memory in bytes.
+     * @see #setReadAheadMemory(long)
+     */
+    public long getReadAheadMemory()
+    {
+        return readAheadMemory;
+    }
+
+    /**
+     * The length of the ranges that a large item is received in.
+     *
+     * @return The segment length in bytes.
+     * @see #setSegmentLength(long)
+     */
+    public long getSegmentLength()
+    {
+        return segmentLength;
+    }
+
+    /**
+     * The smallest item size that is received in ranges.
+     *
+     * @return The segment threshold in bytes.
+     * @see #setSegmentThreshold(long)
+     */
+    public long getSegmentThreshold()
+    {
+        return segmentThreshold;
+    }
+
+    /**
+     * The longest time that the changed states of the items are held before they are saved.
+     *
+     * @return The state batch interval in milliseconds.
+     * @see #setStateBatchInterval(long)
+     */
+    public long getStateBatchInterval()
+    {
+        return stateBatchInterval;
+    }
+
+    /**
+     * The number of items whose changed states are saved together.
+     *
+     * @return The state batch size.
+     * @see #setStateBatchSize(int)
+     */
+    public int getStateBatchSize()
+    {
+        return stateBatchSize;
+    }
+
+    /**
+     * The number of buffers that the receiver holds the data of an item in before writing it.
+     *
+     * @return The write-behind depth.
+     * @see #setWriteBehindDepth(int)
+     */
+    public int getWriteBehindDepth()
+    {
+        return writeBehindDepth;
+    }
+
+    /**
+     * The length of each of the buffers that the receiver holds the data of an item in before writing it.
+     * <p>
+     * This is the memory shared equally among the buffers, rounded down to a power of two.
+     *
+     * @return The buffer length in bytes.
+     * @see #setWriteBehindMemory(long)
+     */
+    public int getWriteBehindBufferLength()
+    {
+        return getBufferLength(writeBehindMemory, writeBehindDepth);
+    }
+
+    /**
+     * The maximum memory that the receiver holds for writing an item behind.
+     *
+     * @return The write-behind memory in bytes.
+     * @see #setWriteBehindMemory(long)
+     */
+    public long getWriteBehindMemory()
+    {
+        return writeBehindMemory;
+    }
+
+    /**
+     * Sets the pool that the buffers for reading and writing the data of items are taken from.
+     * <p>
+     * This is {@link BufferPool#getDefault()} unless changed, which is shared by all the operations that use the
+     * defaults. A separate pool can be used to give a group of operations their own memory cap and statistics.
+     *
+     * @param bufferPool The buffer pool.
+     * @see #getBufferPool()
+     */
+    public void setBufferPool(@NotNull BufferPool bufferPool)
+    {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Sets the maximum number of items that are received in a single bundle.
+     *
+     * @param bundleSize The bundle size which should be '1' or larger.
+     * @see #getBundleSize()
+     * @see #setBundleThreshold(long)
+     */
+    public void setBundleSize(int bundleSize)
+    {
+        if (bundleSize < 1)
+            throw new IllegalArgumentException("The bundle size cannot be smaller than 1.");
+
+        this.bundleSize = bundleSize;
+    }
+
+    /**
+     * Sets the largest item size that is received as part of a bundle.
+     * <p>
+     * The consecutive items that are not larger than this are requested together and the sender writes all of them
+     * into a single stream, so the small items do not pay for the stream setup one by one. '0' disables bundling,
+     * which is also what happens when the remote is older than {@link Config#VERSION_UPROTOCOL_ITEM_BUNDLE}.
+     *
+     * @param bundleThreshold The bundle threshold in bytes which should be '0' or larger.
+     * @see #getBundleThreshold()
+     * @see #setBundleSize(int)
+     */
+    public void setBundleThreshold(long bundleThreshold)
+    {
+        if (bundleThreshold < 0)
+            throw new IllegalArgumentException("The bundle threshold cannot be negative.");
+
+        this.bundleThreshold = bundleThreshold;
+    }
+
+    /**
+     * Sets the largest length that the sender writes the data of an item in at once.
+     * <p>
+     * Every write is a separate chunk with its own header and state exchange, so the sender starts from
+     * {@link #getMinChunkLength()} and grows the chunks while that makes the data go faster. It shrinks them back when
+     * a single chunk takes too long, which keeps the progress updates and the cancellation responsive on slow
+     * connections. When this is not larger than the minimum, the chunks have the minimum length.
+     *
+     * @param maxChunkLength The maximum chunk length in bytes which should be '1' or larger.
+     * @see #getMaxChunkLength()
+     * @see #setMinChunkLength(int)
+     */
+    public void setMaxChunkLength(int maxChunkLength)
+    {
+        if (maxChunkLength < 1)
+            throw new IllegalArgumentException("The maximum chunk length cannot be smaller than 1.");
+
+        this.maxChunkLength = maxChunkLength;
+    }
+
+    /**
+     * Sets the smallest length that the sender writes the data of an item in at once.
+     * <p>
+     * The sender starts from this length for every operation.
+     *
+     * @param minChunkLength The minimum chunk length in bytes which should be '1' or larger.
+     * @see #getMinChunkLength()
+     * @see #setMaxChunkLength(int)
+     */
+    public void setMinChunkLength(int minChunkLength)
+    {
+        if (minChunkLength < 1)
+            throw new IllegalArgumentException("The minimum chunk length cannot be smaller than 1.");
+
+        this.minChunkLength = minChunkLength;
+    }
+
+    /**
+     * Sets the maximum number of items that the receiver requests at once.
+     * <p>
+     * The sender serves the requested items one after another, so only one round trip is spent for every group of
+     * items instead of one for each. '1' disables pipelining, which is also what happens when the remote is older
+     * than {@link Config#VERSION_UPROTOCOL_ITEM_BATCH}.
+     *
+     * @param pipelineDepth The pipeline depth which should be '1' or larger.
+     * @see #getPipelineDepth()
+     */
+    public void setPipelineDepth(int pipelineDepth)
+    {
+        if (pipelineDepth < 1)
+            throw new IllegalArgumentException("The pipeline depth cannot be smaller than 1.");
+
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    /**
+     * Sets the number of receivable items that are read from the persistence at once.
+     * <p>
+     * The receiver reads the items of a group through {@link PersistenceProvider#getReceivableItemCursor(long, int)},
+     * which loads the next this many items when the ones it has loaded before run out.
+     *
+     * @param prefetchLength The prefetch length which should be '1' or larger.
+     * @see #getPrefetchLength()
+     */
+    public void setPrefetchLength(int prefetchLength)
+    {
+        if (prefetchLength < 1)
+            throw new IllegalArgumentException("The prefetch length cannot be smaller than 1.");
+
+        this.prefetchLength = prefetchLength;
+    }
+
+    /**
+     * Sets the least time between two publications of the progress.
+     * <p>
+     * The changes to {@link TransferOperation#setBytesOngoing(long, long)} are held back and passed on together with
+     * {@link TransferOperation#publishProgress()} once this much time has passed since the last publication, so an
+     * operation that saves its progress does not do it for every chunk. The progress is always published when an
+     * item starts, ends, or fails. '0' publishes it for every chunk.
+     *
+     * @param progressInterval The progress interval in milliseconds which should be '0' or larger.
+     * @see #getProgressInterval()
+     * @see #setProgressThreshold(long)
+     */
+    public void setProgressInterval(long progressInterval)
+    {
+        if (progressInterval < 0)
+            throw new IllegalArgumentException("The progress interval cannot be negative.");
+
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Sets the length of the data after which the progress is published before the interval passes.
+     * <p>
+     * '0' disables it, in which case only {@link #getProgressInterval()} decides.
+     *
+     * @param progressThreshold The progress threshold in bytes which should be '0' or larger.
+     * @see #getProgressThreshold()
+     * @see #setProgressInterval(long)
+     */
+    public void setProgressThreshold(long progressThreshold)
+    {
+        if (progressThreshold < 0)
+            throw new IllegalArgumentException("The progress threshold cannot be negative.");
+
+        this.progressThreshold = progressThreshold;
+    }
+
+    /**
+     * Sets the number of buffers that the sender reads an item into ahead of writing it.
+     * <p>
+     * The sender reads the item on a separate thread while writing the data that was read before, so that a slow
+     * storage and the network are kept busy at the same time. '0' disables this, in which case the item is read and
+     * written in turns.
+     * <p>
+     * The buffers cannot be longer than 1GiB, so there should be enough of them for {@link #getReadAheadMemory()}.
+     *
+     * @param readAheadDepth The read-ahead depth which should be '0' or larger.
+     * @see #getReadAheadDepth()
+     * @see #setReadAheadMemory(long)
+     */
+    public void setReadAheadDepth(int readAheadDepth)
+    {
+        if (readAheadDepth < 0)
+            throw new IllegalArgumentException("The read-ahead depth cannot be negative.");
+        if (readAheadMemory / Math.max(1, readAheadDepth) > BufferPool.MAX_LENGTH)
+            throw new IllegalArgumentException("The read-ahead buffers cannot be longer than 1GiB.");
+
+        this.readAheadDepth = readAheadDepth;
+    }
+
+    /**
+     * Sets the maximum memory that the sender holds for reading an item ahead.
+     * <p>
+     * This is shared equally among the buffers, so it also sets the length of each read. That length is rounded down
+     * to a power of two, so that the buffers taken from the pool do not hold more than this, and it cannot be longer
+     * than 1GiB.
+     *
+     * @param readAheadMemory The read-ahead memory in bytes which should be '1' or larger.
+     * @see #getReadAheadMemory()
+     * @see #setReadAheadDepth(int)
+     */
+    public void setReadAheadMemory(long readAheadMemory)
+    {
+        if (readAheadMemory < 1)
+            throw new IllegalArgumentException("The read-ahead memory cannot be smaller than 1.");
+        if (readAheadMemory / Math.max(1, readAheadDepth) > BufferPool.MAX_LENGTH)
+            throw new IllegalArgumentException("The read-ahead buffers cannot be longer than 1GiB.");
+
+        this.readAheadMemory = readAheadMemory;
+    }
+
+    /**
+     * Sets the length of the ranges that a large item is received in.
+     * <p>
+     * Every range is a separate request, and the completed ranges are saved after each of them, so this is also the
+     * most that is fetched again when an operation is interrupted.
+     *
+     * @param segmentLength The segment length in bytes which should be '1' or larger.
+     * @see #getSegmentLength()
+     * @see #setSegmentThreshold(long)
+     */
+    public void setSegmentLength(long segmentLength)
+    {
+        if (segmentLength < 1)
+            throw new IllegalArgumentException("The segment length cannot be smaller than 1.");
+
+        this.segmentLength = segmentLength;
+    }
+
+    /**
+     * Sets the smallest item size that is received in ranges.
+     * <p>
+     * When more than one connection is used, such an item is split into ranges that are received over all of them at
+     * the same time and written at their own positions. This only happens for the items that are backed by a
+     * {@link FileStreamDescriptor} when {@link PersistenceProvider#getCompletedRanges(TransferItem)} is supported, and
+     * when the remote is {@link Config#VERSION_UPROTOCOL_ITEM_RANGE} or newer. '0' disables it.
+     *
+     * @param segmentThreshold The segment threshold in bytes which should be '0' or larger.
+     * @see #getSegmentThreshold()
+     * @see #setSegmentLength(long)
+     */
+    public void setSegmentThreshold(long segmentThreshold)
+    {
+        if (segmentThreshold < 0)
+            throw new IllegalArgumentException("The segment threshold cannot be negative.");
+
+        this.segmentThreshold = segmentThreshold;
+    }
+
+    /**
+     * Sets the longest time that the changed states of the items are held before they are saved.
+     * <p>
+     * The batch is saved when the next item ends or the progress is published after this much time has passed since
+     * the oldest item in it ended, even if it is not full. '0' saves every item as soon as it ends.
+     *
+     * @param stateBatchInterval The state batch interval in milliseconds which should be '0' or larger.
+     * @see #getStateBatchInterval()
+     * @see #setStateBatchSize(int)
+     */
+    public void setStateBatchInterval(long stateBatchInterval)
+    {
+        if (stateBatchInterval < 0)
+            throw new IllegalArgumentException("The state batch interval cannot be negative.");
+
+        this.stateBatchInterval = stateBatchInterval;
+    }
+
+    /**
+     * Sets the number of items whose changed states are saved together.
+     * <p>
+     * The items are saved with {@link PersistenceProvider#persistStates(String, java.util.List)} once they end, so a
+     * group with many small items does not pay for a separate write for each of them. An item is only added to the
+     * batch after its data is closed, and the batch is also saved before the operation ends or fails, so an item that
+     * is not saved yet is transferred again at worst. '1' saves every item as soon as it ends.
+     *
+     * @param stateBatchSize The state batch size which should be '1' or larger.
+     * @see #getStateBatchSize()
+     * @see #setStateBatchInterval(long)
+     */
+    public void setStateBatchSize(int stateBatchSize)
+    {
+        if (stateBatchSize < 1)
+            throw new IllegalArgumentException("The state batch size cannot be smaller than 1.");
+
+        this.stateBatchSize = stateBatchSize;
+    }
+
+    /**
+     * Sets the number of buffers that the receiver holds the data of an item in before writing it.
+     * <p>
+     * The receiver writes the item on a separate thread while taking the next data from the remote, so that a slow
+     * storage does not hold the connection back. '0' disables this, in which case the data is written as it is
+     * taken. The items that are received as bundles are always written as they are taken.
+     * <p>
+     * The buffers cannot be longer than 1GiB, so there should be enough of them for {@link #getWriteBehindMemory()}.
+     *
+     * @param writeBehindDepth The write-behind depth which should be '0' or larger.
+     * @see #getWriteBehindDepth()
+     * @see #setWriteBehindMemory(long)
+     */
+    public void setWriteBehindDepth(int writeBehindDepth)
+    {
+        if (writeBehindDepth < 0)
+            throw new IllegalArgumentException("The write-behind depth cannot be negative.");
+        if (writeBehindMemory / Math.max(1, writeBehindDepth) > BufferPool.MAX_LENGTH)
+            throw new IllegalArgumentException("The write-behind buffers cannot be longer than 1GiB.");
+
+        this.writeBehindDepth = writeBehindDepth;
+    }
+
+    /**
+     * Sets the maximum memory that the receiver holds for writing an item behind.
+     * <p>
+     * This is shared equally among the buffers, so it also sets the length of each write. That length is rounded down
+     * to a power of two, so that the buffers taken from the pool do not hold more than this, and it cannot be longer
+     * than 1GiB.
+     *
+     * @param writeBehindMemory The write-behind memory in bytes which should be '1' or larger.
+     * @see #getWriteBehindMemory()
+     * @see #setWriteBehindDepth(int)
+     */
+    public void setWriteBehindMemory(long writeBehindMemory)
+    {
+        if (writeBehindMemory < 1)
+            throw new IllegalArgumentException("The write-behind memory cannot be smaller than 1.");
+        if (writeBehindMemory / Math.max(1, writeBehindDepth) > BufferPool.MAX_LENGTH)
+            throw new IllegalArgumentException("The write-behind buffers cannot be longer than 1GiB.");
+
+        this.writeBehindMemory = writeBehindMemory;
+    }
+}
@@ -0,0 +1,58 @@
+package org.monora.uprotocol.core.transfer;
+
+/**
+ * Represents a contiguous part of the data of a {@link TransferItem}.
+ */
+public class TransferRange
+{
+    /**
+     * The position of the first byte.
+     */
+    public final long offset;
+
+    /**
+     * The number of bytes starting from the offset.
+     */
+    public final long length;
+
+    /**
+     * Create a new instance.
+     *
+     * @param offset The position of the first byte.
+     * @param length The number of bytes starting from the offset.
+     */
+    public TransferRange(long offset, long length)
+    {
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException("The offset and the length cannot be negative.");
+
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * The position right after the last byte.
+     *
+     * @return The end position.
+     */
+    public long end()
+    {
+        return offset + length;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj instanceof TransferRange) {
+            TransferRange range = (TransferRange) obj;
+            return offset == range.offset && length == range.length;
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(offset) * 31 + Long.hashCode(length);
+    }
+}
@@ -5,6 +5,11 @@ package org.monora.uprotocol.core.transfer;
  */
 public class TransferRequest
 {
+    /**
+     * The length that means the rest of the item starting from the position is requested.
+     */
+    public static final long LENGTH_UNSPECIFIED = -1;
+
     /**
      * Corresponds to {@link TransferItem#getItemId()}.
      */
@@ -13,13 +18,28 @@ public class TransferRequest
     /**
      * The position of bytes to start from when sending the data.
      * <p>
-     * If skip fails, do not attempt to sending this item.
+     * If seeking to this position fails, do not attempt to sending this item.
      */
     public final long position;
 
+    /**
+     * The number of bytes to send starting from the position, or {@link #LENGTH_UNSPECIFIED} if the rest of the item
+     * is requested.
+     * <p>
+     * The item is only complete on the receiver side when the rest of it is requested, so the items requested with a
+     * length should not be marked as done.
+     */
+    public final long length;
+
     TransferRequest(long id, long position)
+    {
+        this(id, position, LENGTH_UNSPECIFIED);
+    }
+
+    TransferRequest(long id, long position, long length)
     {
         this.id = id;
         this.position = position;
+        this.length = length;
     }
 }
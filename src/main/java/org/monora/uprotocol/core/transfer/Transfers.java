@@ -1,6 +1,7 @@
 package org.monora.uprotocol.core.transfer;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -9,6 +10,9 @@ import org.monora.coolsocket.core.session.CancelledException;
 import org.monora.uprotocol.core.CommunicationBridge;
 import org.monora.uprotocol.core.Responses;
 import org.monora.uprotocol.core.TransportSeat;
+import org.monora.uprotocol.core.io.DescriptionInputStream;
+import org.monora.uprotocol.core.io.DescriptionOutputStream;
+import org.monora.uprotocol.core.io.FileStreamDescriptor;
 import org.monora.uprotocol.core.io.StreamDescriptor;
 import org.monora.uprotocol.core.persistence.OnPrepareListener;
 import org.monora.uprotocol.core.persistence.PersistenceException;
@@ -17,22 +21,50 @@ import org.monora.uprotocol.core.protocol.Client;
 import org.monora.uprotocol.core.protocol.Direction;
 import org.monora.uprotocol.core.protocol.communication.ContentException;
 import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+import org.monora.uprotocol.core.spec.v1.Config;
 import org.monora.uprotocol.core.spec.v1.Keyword;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Handles the communication part of a file transfer operation.
  */
 public class Transfers
 {
+    /**
+     * The length of the buffer that the data of bundles is copied into before it is written.
+     */
+    private static final int LENGTH_CHUNK = 8096;
+
+    /**
+     * The length that is written in place of the item length in a bundle when the item cannot be sent. It is
+     * followed by the error code.
+     */
+    private static final long LENGTH_BUNDLE_ERROR = -1;
+
     /**
      * This is used after reading the JSON data for the operation safely using one of the
      * {@link CommunicationBridge#receiveChecked} methods.
@@ -44,7 +76,41 @@ public class Transfers
     public static @NotNull TransferRequest getTransferRequest(@NotNull JSONObject jsonObject) throws JSONException
     {
         return new TransferRequest(jsonObject.getLong(Keyword.TRANSFER_ID),
-                jsonObject.getLong(Keyword.TRANSFER_CURRENT_POSITION));
+                jsonObject.getLong(Keyword.TRANSFER_CURRENT_POSITION),
+                jsonObject.has(Keyword.TRANSFER_LENGTH) ? jsonObject.getLong(Keyword.TRANSFER_LENGTH)
+                        : TransferRequest.LENGTH_UNSPECIFIED);
+    }
+
+    /**
+     * Read all the requested items from the JSON data that was sent using {@link #requestItem},
+     * {@link #requestItems} or {@link #requestBundle}.
+     *
+     * @param jsonObject To read the requested items from.
+     * @return The requested item holders in the order they should be served.
+     * @throws JSONException If something goes wrong when inflating the JSON data.
+     * @see #getTransferRequest(JSONObject)
+     */
+    public static @NotNull List<@NotNull TransferRequest> getTransferRequestList(@NotNull JSONObject jsonObject)
+            throws JSONException
+    {
+        final String key;
+
+        if (jsonObject.has(Keyword.TRANSFER_BUNDLE)) {
+            key = Keyword.TRANSFER_BUNDLE;
+        } else if (jsonObject.has(Keyword.TRANSFER_BATCH)) {
+            key = Keyword.TRANSFER_BATCH;
+        } else {
+            return Collections.singletonList(getTransferRequest(jsonObject));
+        }
+
+        JSONArray batch = jsonObject.getJSONArray(key);
+        List<TransferRequest> list = new ArrayList<>(batch.length());
+
+        for (int i = 0; i < batch.length(); i++) {
+            list.add(getTransferRequest(batch.getJSONObject(i)));
+        }
+
+        return list;
     }
 
     /**
@@ -68,278 +134,1547 @@ public class Transfers
         return bridge.receiveResult();
     }
 
+    /**
+     * Request a range of an item from the remote.
+     * <p>
+     * The remote will not consider the item complete after sending the range, which is why the rest of the item
+     * should be requested with {@link #requestItem} after all of its ranges are received.
+     * <p>
+     * This needs the remote to be {@link Config#VERSION_UPROTOCOL_ITEM_RANGE} or newer.
+     *
+     * @param bridge The bridge that speaks on behalf of you when making requests.
+     * @param itemId Corresponds to {@link TransferItem#getItemId()}.
+     * @param range  To request.
+     * @return True if the remote approved of the request.
+     * @throws IOException       If an IO error occurs.
+     * @throws JSONException     If something goes wrong when creating JSON object.
+     * @throws ProtocolException When there is a communication error due to misconfiguration.
+     */
+    private static boolean requestRange(@NotNull CommunicationBridge bridge, long itemId,
+                                        @NotNull TransferRange range)
+            throws IOException, JSONException, ProtocolException
+    {
+        bridge.send(true, new JSONObject()
+                .put(Keyword.TRANSFER_ID, itemId)
+                .put(Keyword.TRANSFER_CURRENT_POSITION, range.offset)
+                .put(Keyword.TRANSFER_LENGTH, range.length));
+        return bridge.receiveResult();
+    }
+
+    /**
+     * Request the data of more than one item in a single bundle.
+     * <p>
+     * Unlike {@link #requestItems}, there is only one result for the whole bundle, after which the items arrive in
+     * the given order as part of a single read operation. Every item is preceded by its id and its length, or by
+     * {@link #LENGTH_BUNDLE_ERROR} and an error code if the remote could not send it.
+     * <p>
+     * This needs the remote to be {@link Config#VERSION_UPROTOCOL_ITEM_BUNDLE} or newer.
+     *
+     * @param bridge         The bridge that speaks on behalf of you when making requests.
+     * @param itemList       To request.
+     * @param descriptorList Of the items in the same order, whose lengths are the positions to start from.
+     * @return True if the remote approved of the request.
+     * @throws IOException       If an IO error occurs.
+     * @throws JSONException     If something goes wrong when creating JSON object.
+     * @throws ProtocolException When there is a communication error due to misconfiguration.
+     */
+    private static boolean requestBundle(@NotNull CommunicationBridge bridge,
+                                         @NotNull List<@NotNull TransferItem> itemList,
+                                         @NotNull List<@NotNull StreamDescriptor> descriptorList)
+            throws IOException, JSONException, ProtocolException
+    {
+        bridge.send(true, new JSONObject().put(Keyword.TRANSFER_BUNDLE, toRequestJson(itemList, descriptorList)));
+        return bridge.receiveResult();
+    }
+
+    /**
+     * Request more than one item from the remote at once.
+     * <p>
+     * The remote will serve them in the given order, and unlike {@link #requestItem}, this will not wait for the
+     * results. Each item will have its own result that should be read using {@link CommunicationBridge#receiveResult()}
+     * before its data.
+     * <p>
+     * This needs the remote to be {@link Config#VERSION_UPROTOCOL_ITEM_BATCH} or newer.
+     *
+     * @param bridge         The bridge that speaks on behalf of you when making requests.
+     * @param itemList       To request.
+     * @param descriptorList Of the items in the same order, whose lengths are the positions to start from.
+     * @throws IOException   If an IO error occurs.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     */
+    private static void requestItems(@NotNull CommunicationBridge bridge, @NotNull List<@NotNull TransferItem> itemList,
+                                     @NotNull List<@NotNull StreamDescriptor> descriptorList)
+            throws IOException, JSONException
+    {
+        bridge.send(true, new JSONObject().put(Keyword.TRANSFER_BATCH, toRequestJson(itemList, descriptorList)));
+    }
+
+    /**
+     * Create the list of item requests that is sent with {@link #requestItems} and {@link #requestBundle}.
+     *
+     * @param itemList       To request.
+     * @param descriptorList Of the items in the same order, whose lengths are the positions to start from.
+     * @return The JSON equivalent of the requests.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     */
+    private static @NotNull JSONArray toRequestJson(@NotNull List<@NotNull TransferItem> itemList,
+                                                    @NotNull List<@NotNull StreamDescriptor> descriptorList)
+            throws JSONException
+    {
+        JSONArray jsonArray = new JSONArray();
+
+        for (int i = 0; i < itemList.size(); i++) {
+            jsonArray.put(new JSONObject()
+                    .put(Keyword.TRANSFER_ID, itemList.get(i).getItemId())
+                    .put(Keyword.TRANSFER_CURRENT_POSITION, descriptorList.get(i).length()));
+        }
+
+        return jsonArray;
+    }
+
+    /**
+     * Handle the incoming transfer process using the default options.
+     *
+     * @param bridge    The bridge that speaks on behalf of you when making requests.
+     * @param operation The operation object that handles the GUI side of things.
+     * @param groupId   As in {@link TransferItem#getItemGroupId()}.
+     * @see #receive(CommunicationBridge, TransferOperation, long, TransferOptions)
+     */
+    public static void receive(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation, long groupId)
+    {
+        receive(bridge, operation, groupId, new TransferOptions());
+    }
+
     /**
      * Handle the incoming transfer process. You can invoke this method in the {@link TransportSeat#beginFileTransfer}
      * method when the direction is {@link Direction#Incoming}.
      * <p>
      * This can also be invoked when using {@link CommunicationBridge#requestFileTransferStart}.
+     * <p>
+     * The items are requested in groups of {@link TransferOptions#getPipelineDepth()}, so that the idle round trip
+     * between two items is paid only once for every group. The consecutive items that are not larger than
+     * {@link TransferOptions#getBundleThreshold()} are received as bundles instead.
+     * <p>
+     * An item that was partly received in ranges with {@link #receive(List, TransferOperation, long,
+     * TransferOptions)} will have only its missing ranges received.
+     * <p>
+     * The items are written behind taking them from the remote as long as
+     * {@link TransferOptions#getWriteBehindDepth()} is not '0'.
+     * <p>
+     * The progress reaches the operation at the rate set with {@link TransferOptions#setProgressInterval(long)}, and
+     * the states of the items are saved in batches as set with {@link TransferOptions#setStateBatchSize(int)}.
      *
      * @param bridge    The bridge that speaks on behalf of you when making requests.
      * @param operation The operation object that handles the GUI side of things.
      * @param groupId   As in {@link TransferItem#getItemGroupId()}.
+     * @param options   The tunable parameters of the operation.
      * @see TransportSeat#beginFileTransfer
      * @see CommunicationBridge#requestFileTransferStart
      */
-    public static void receive(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation, long groupId)
+    public static void receive(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation, long groupId,
+                               @NotNull TransferOptions options)
     {
-        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
-        ActiveConnection activeConnection = bridge.getActiveConnection();
-        Client client = bridge.getRemoteClient();
-        TransferItem item;
+        StateBatch stateBatch = newStateBatch(bridge, options);
+        receive(bridge, operation, groupId, options,
+                new ReceivableItemDispatcher(bridge.getPersistenceProvider(), groupId, false,
+                        options.getPrefetchLength(), stateBatch), stateBatch);
+    }
 
-        try {
-            while ((item = persistenceProvider.getFirstReceivableItem(groupId)) != null) {
-                operation.setOngoing(item);
-                operation.publishProgress();
+    /**
+     * Handle the incoming transfer process over more than one connection at the same time.
+     * <p>
+     * Every connection receives different items of the same group on its own thread, which lets a large group use
+     * more than one stream. The first of the bridges should have started the transfer with
+     * {@link CommunicationBridge#requestFileTransferStart}, and the rest should have joined it with
+     * {@link CommunicationBridge#requestFileTransferJoin(long)}.
+     * <p>
+     * The bridges should be connected to the same client and use the same {@link PersistenceProvider}, which will be
+     * accessed from all the threads. The operation object will also be updated from all the threads, although the
+     * updates to it are synchronized on itself. When one of the connections fails or is cancelled, the others are
+     * cancelled as well. This method returns after all the connections are done.
+     * <p>
+     * The items that are not smaller than {@link TransferOptions#getSegmentThreshold()} are split into ranges that are
+     * received over all the connections at the same time.
+     *
+     * @param bridgeList The bridges that speak on behalf of you when making requests.
+     * @param operation  The operation object that handles the GUI side of things.
+     * @param groupId    As in {@link TransferItem#getItemGroupId()}.
+     * @param options    The tunable parameters of the operation.
+     * @see #receive(CommunicationBridge, TransferOperation, long, TransferOptions)
+     */
+    public static void receive(@NotNull List<@NotNull CommunicationBridge> bridgeList,
+                               @NotNull TransferOperation operation, long groupId, @NotNull TransferOptions options)
+    {
+        if (bridgeList.isEmpty())
+            throw new IllegalArgumentException("There should be at least one bridge.");
 
-                // On the receiver side, we do not recover from permission or file system errors. This is why the
-                // following file operation is not inside a try-catch block. Those types of errors are not recoverable
-                // and there is no point in keeping on going.
-                StreamDescriptor descriptor = persistenceProvider.getDescriptorFor(item);
+        StateBatch stateBatch = newStateBatch(bridgeList.get(0), options);
+        ReceivableItemDispatcher dispatcher = new ReceivableItemDispatcher(bridgeList.get(0).getPersistenceProvider(),
+                groupId, bridgeList.size() > 1, options.getPrefetchLength(), stateBatch);
+        List<ConcurrentTransferOperation> operationList = new ArrayList<>(bridgeList.size());
+        List<Future<?>> futureList = new ArrayList<>(bridgeList.size());
+        AtomicReference<ConcurrentTransferOperation> failedOperation = new AtomicReference<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(bridgeList.size(),
+                runnable -> new Thread(runnable, "Transfer-" + groupId + "-" + threadCount.getAndIncrement()));
+        Error error = null;
+        boolean interrupted = false;
 
-                // Set the bytes as the size of the file that may have previously been exchanged partially.
-                // This will be '0' for the newly started operations.
-                operation.setBytesOngoing(descriptor.length(), descriptor.length());
-
-                try (OutputStream outputStream = persistenceProvider.openOutputStream(descriptor)) {
-                    // This if-block will throw an error if the result is false.
-                    if (Transfers.requestItem(bridge, item.getItemId(), descriptor.length())) {
-                        int len;
-                        ActiveConnection.Description description = bridge.getActiveConnection().readBegin();
-                        WritableByteChannel writableByteChannel = Channels.newChannel(outputStream);
-
-                        while (description.hasAvailable() && (len = activeConnection.read(description)) != -1) {
-                            operation.publishProgress();
-                            operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
-                            writableByteChannel.write(description.byteBuffer);
-                        }
+        try {
+            for (CommunicationBridge bridge : bridgeList) {
+                ConcurrentTransferOperation concurrentOperation = new ConcurrentTransferOperation(operation);
+                operationList.add(concurrentOperation);
+                futureList.add(executor.submit(() -> {
+                    // The failure of one connection ends the operation, so the others are cancelled.
+                    if (!receive(bridge, concurrentOperation, groupId, options, dispatcher, stateBatch)
+                            && failedOperation.compareAndSet(null, concurrentOperation)) {
+                        cancel(bridgeList);
+                    }
+                }));
+            }
 
-                        outputStream.flush();
-                        persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
-                        operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
-                        operation.setCount(operation.getCount() + 1);
-                        operation.installReceivedContent(descriptor);
-                        operation.clearBytesOngoing();
+            for (Future<?> future : futureList) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        cancel(bridgeList);
+                    } catch (ExecutionException e) {
+                        cancel(bridgeList);
+                        if (error == null && e.getCause() instanceof Error) {
+                            error = (Error) e.getCause();
+                        }
+                        break;
                     }
-                } catch (CancelledException e) {
-                    // The task is cancelled. We reset the state of this item to 'pending'.
-                    persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Pending, e);
-                    throw e;
-                } catch (FileNotFoundException e) {
-                    throw e;
-                } catch (ContentException e) {
-                    switch (e.error) {
-                        case NotFound:
-                            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Invalidated, e);
-                            break;
-                        case AlreadyExists:
-                        case NotAccessible:
-                        default:
-                            persistenceProvider.setState(client.getClientUid(), item,
-                                    TransferItem.State.InvalidatedTemporarily, e);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (error != null) {
+            throw error;
+        }
+
+        for (ConcurrentTransferOperation concurrentOperation : operationList) {
+            Exception exception = concurrentOperation.getException();
+            if (exception != null) {
+                operation.onUnhandledException(exception);
+            }
+        }
+
+        // The connections cancelled because of another one's failure do not mean the operation was cancelled.
+        ConcurrentTransferOperation failed = failedOperation.get();
+        if (failed != null) {
+            if (failed.isCancelled()) {
+                operation.onCancelOperation();
+            }
+        } else if (operation.getCount() > 0) {
+            operation.finishOperation();
+        }
+    }
+
+    /**
+     * Cancel the ongoing operations on the given bridges.
+     *
+     * @param bridgeList To cancel.
+     */
+    private static void cancel(@NotNull List<@NotNull CommunicationBridge> bridgeList)
+    {
+        for (CommunicationBridge bridge : bridgeList) {
+            try {
+                bridge.getActiveConnection().cancel();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Create the batch that the states of the items exchanged over the given bridge are saved with.
+     *
+     * @param bridge  The bridge that speaks on behalf of you when making requests.
+     * @param options The tunable parameters of the operation.
+     * @return The state batch.
+     */
+    private static @NotNull StateBatch newStateBatch(@NotNull CommunicationBridge bridge,
+                                                     @NotNull TransferOptions options)
+    {
+        return new StateBatch(bridge.getPersistenceProvider(), bridge.getRemoteClient().getClientUid(),
+                options.getStateBatchSize(), options.getStateBatchInterval());
+    }
+
+    /**
+     * Handle the incoming transfer process using the items handed out by the given dispatcher.
+     *
+     * @param bridge     The bridge that speaks on behalf of you when making requests.
+     * @param operation  The operation object that handles the GUI side of things.
+     * @param groupId    As in {@link TransferItem#getItemGroupId()}.
+     * @param options    The tunable parameters of the operation.
+     * @param dispatcher That hands out the items that should be received over this bridge.
+     * @param stateBatch That the states of the items are saved with.
+     * @return True if the operation ended without being cancelled or failing.
+     */
+    private static boolean receive(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                   long groupId, @NotNull TransferOptions options,
+                                   @NotNull ReceivableItemDispatcher dispatcher, @NotNull StateBatch stateBatch)
+    {
+        Client client = bridge.getRemoteClient();
+        final boolean pipelined = client.getClientProtocolVersion() >= Config.VERSION_UPROTOCOL_ITEM_BATCH
+                && options.getPipelineDepth() > 1;
+        final int depth = pipelined ? options.getPipelineDepth() : 1;
+        final boolean bundled = client.getClientProtocolVersion() >= Config.VERSION_UPROTOCOL_ITEM_BUNDLE
+                && options.getBundleThreshold() > 0;
+        final int limit = bundled ? Math.max(depth, options.getBundleSize()) : depth;
+        final boolean ranged = client.getClientProtocolVersion() >= Config.VERSION_UPROTOCOL_ITEM_RANGE
+                && options.getSegmentThreshold() > 0;
+        List<TransferItem> itemList;
+
+        operation = new CoalescedTransferOperation(operation, options.getProgressInterval(),
+                options.getProgressThreshold(), stateBatch);
+
+        try (WriteBehind writeBehind = options.getWriteBehindDepth() > 0 ? new WriteBehind(
+                options.getWriteBehindDepth(), options.getWriteBehindBufferLength(), options.getBufferPool()) : null) {
+            while (true) {
+                SegmentedItem segmentedItem = dispatcher.getSegmentedItem();
+
+                if (segmentedItem != null) {
+                    TransferRange range = segmentedItem.claim();
+                    if (range != null) {
+                        receiveSegment(bridge, operation, dispatcher, segmentedItem, range, writeBehind);
                     }
-                } catch (Exception e) {
-                    persistenceProvider.setState(client.getClientUid(), item,
-                            TransferItem.State.InvalidatedTemporarily, e);
-                    throw e;
+                    continue;
+                }
+
+                if ((itemList = dispatcher.claim(limit)).isEmpty())
+                    break;
+
+                final TransferItem firstItem = itemList.get(0);
+                final boolean large = ranged && firstItem.getItemSize() >= options.getSegmentThreshold();
+
+                if (large && (segmentedItem = segment(bridge, dispatcher, firstItem, options)) != null) {
+                    dispatcher.release(itemList.subList(1, itemList.size()));
+                    dispatcher.add(segmentedItem);
+                    continue;
+                }
+
+                // Only take the leading items that are received the same way, the rest will be claimed again.
+                final boolean bundle = bundled && !large && firstItem.getItemSize() <= options.getBundleThreshold();
+                final int max = large ? 1 : Math.min(itemList.size(), bundle ? options.getBundleSize() : depth);
+                int count = 1;
+
+                while (count < max && (!bundled
+                        || (itemList.get(count).getItemSize() <= options.getBundleThreshold()) == bundle)
+                        && !(ranged && itemList.get(count).getItemSize() >= options.getSegmentThreshold())) {
+                    count++;
+                }
+
+                dispatcher.release(itemList.subList(count, itemList.size()));
+                itemList = itemList.subList(0, count);
+
+                try {
+                    receiveItems(bridge, operation, itemList, bundle, pipelined, writeBehind,
+                            options.getBufferPool(), stateBatch);
                 } finally {
-                    persistenceProvider.persist(client.getClientUid(), item);
-                    operation.clearOngoing();
+                    dispatcher.finish(itemList);
                 }
             }
 
+            // The items should be saved before the operation is known to be finished.
+            stateBatch.flush();
             bridge.send(false);
 
             if (operation.getCount() > 0) {
                 operation.finishOperation();
             }
+
+            return true;
         } catch (CancelledException e) {
+            stateBatch.flush();
             operation.onCancelOperation();
         } catch (Exception e) {
+            stateBatch.flush();
+
             try {
                 bridge.send(e);
             } catch (Exception e1) {
                 operation.onUnhandledException(e);
             }
         }
+
+        return false;
     }
 
     /**
-     * Handle the sending process. You can invoke this method via {@link TransportSeat#beginFileTransfer} method when
-     * the direction is {@link Direction#Outgoing}.
-     * <p>
-     * This can also be invoked when using {@link CommunicationBridge#requestFileTransferStart}.
+     * Receive the given items that are all received the same way.
      *
      * @param bridge    The bridge that speaks on behalf of you when making requests.
      * @param operation The operation object that handles the GUI side of things.
-     * @param groupId   As in {@link TransferItem#getItemGroupId()}.
-     * @see TransportSeat#beginFileTransfer
-     * @see CommunicationBridge#requestFileTransferStart
+     * @param itemList  To receive.
+     * @param bundle    True if the items should be received as a bundle.
+     * @param pipelined   True if the items should be requested at once when they are not bundled.
+     * @param writeBehind To write the items with, or null if they should be written as they are taken.
+     * @param bufferPool  To take the buffers from.
+     * @param stateBatch  That the states of the items are saved with.
+     * @throws Exception If an error that should end the operation occurs.
      */
-    public static void send(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation, long groupId)
+    private static void receiveItems(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                     @NotNull List<@NotNull TransferItem> itemList, boolean bundle,
+                                     boolean pipelined, @Nullable WriteBehind writeBehind,
+                                     @NotNull BufferPool bufferPool, @NotNull StateBatch stateBatch)
+            throws Exception
     {
         PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
-        ActiveConnection activeConnection = bridge.getActiveConnection();
-        Client client = bridge.getRemoteClient();
-        TransferItem item;
-
-        try {
-            while (activeConnection.getSocket().isConnected()) {
-                JSONObject request = bridge.receiveChecked();
-
-                if (!Responses.getResult(request))
-                    break;
-
-                operation.publishProgress();
-
-                try {
-                    final TransferRequest transferRequest = Transfers.getTransferRequest(request);
-                    item = persistenceProvider.loadTransferItem(client.getClientUid(), groupId, transferRequest.id,
-                            Direction.Outgoing);
 
-                    operation.setOngoing(item);
-                    operation.setBytesOngoing(transferRequest.position, transferRequest.position);
+        // On the receiver side, we do not recover from permission or file system errors. This is why the following
+        // file operation is not inside a try-catch block. Those types of errors are not recoverable and there is no
+        // point in keeping on going.
+        List<StreamDescriptor> descriptorList = new ArrayList<>(itemList.size());
+        for (TransferItem item : itemList) {
+            StreamDescriptor descriptor = persistenceProvider.getDescriptorFor(item);
+            if (descriptor instanceof FileStreamDescriptor) {
+                discardRanges(bridge, item, (FileStreamDescriptor) descriptor);
+            }
+            descriptorList.add(descriptor);
+        }
 
-                    try {
-                        StreamDescriptor descriptor = persistenceProvider.getDescriptorFor(item);
-                        if (descriptor.length() != item.getItemSize())
-                            throw new FileNotFoundException("File size has changed. It is probably a different file.");
+        if (bundle) {
+            receiveBundle(bridge, operation, itemList, descriptorList, bufferPool, stateBatch);
+            return;
+        }
 
-                        try (InputStream inputStream = persistenceProvider.openInputStream(descriptor)) {
-                            if (transferRequest.position > 0
-                                    && inputStream.skip(transferRequest.position) != transferRequest.position)
-                                throw new IOException("Failed to skip " + transferRequest.position + " bytes");
+        if (pipelined) {
+            requestItems(bridge, itemList, descriptorList);
+        }
 
-                            bridge.send(true);
+        for (int i = 0; i < itemList.size(); i++) {
+            receiveItem(bridge, operation, itemList.get(i), descriptorList.get(i), pipelined, writeBehind,
+                    stateBatch);
+        }
+    }
 
-                            // TODO: 7/20/21 This doesn't seem to update anything. Check if it does!
-                            persistenceProvider.persist(client.getClientUid(), item);
+    /**
+     * Make an item that was partly received in ranges ready to be received in order, which starts from the length of
+     * its descriptor.
+     * <p>
+     * The data after the leading range that starts from the beginning is discarded.
+     *
+     * @param bridge     The bridge that speaks on behalf of you when making requests.
+     * @param item       That may have been received in ranges.
+     * @param descriptor That belongs to the item.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void discardRanges(@NotNull CommunicationBridge bridge, @NotNull TransferItem item,
+                                      @NotNull FileStreamDescriptor descriptor) throws IOException
+    {
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        List<TransferRange> rangeList = persistenceProvider.getCompletedRanges(item);
 
-                            ActiveConnection.Description description = activeConnection.writeBegin(0,
-                                    item.getItemSize() - transferRequest.position);
-                            byte[] bytes = new byte[8096];
-                            int len;
+        if (rangeList == null || rangeList.isEmpty())
+            return;
 
-                            // For avoiding Android MediaStore bug where the reported size is different from actual
-                            // data size.
-                            boolean exceedingClose = false;
-                            long available;
+        try (FileChannel fileChannel = descriptor.openWritableChannel()) {
+            fileChannel.truncate(SegmentedItem.getContiguousLength(SegmentedItem.merge(rangeList)));
+        }
 
-                            while ((len = inputStream.read(bytes)) != -1) {
-                                operation.publishProgress();
+        persistenceProvider.persistCompletedRanges(bridge.getRemoteClient().getClientUid(), item,
+                Collections.emptyList());
+    }
 
-                                if (len > 0) {
-                                    available = description.available();
-                                    if (len > available) {
-                                        len = (int) available;
-                                        exceedingClose = true;
-                                    }
+    /**
+     * Prepare an item to be received in ranges if it can be.
+     *
+     * @param bridge     The bridge that speaks on behalf of you when making requests.
+     * @param dispatcher That hands out the items.
+     * @param item       To prepare.
+     * @param options    The tunable parameters of the operation.
+     * @return The item that is ready to be shared, or null if it should be received in order.
+     * @throws IOException If an IO error occurs.
+     */
+    private static @Nullable SegmentedItem segment(@NotNull CommunicationBridge bridge,
+                                                   @NotNull ReceivableItemDispatcher dispatcher,
+                                                   @NotNull TransferItem item, @NotNull TransferOptions options)
+            throws IOException
+    {
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        StreamDescriptor descriptor = persistenceProvider.getDescriptorFor(item);
 
-                                    operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
-                                    activeConnection.write(description, bytes, 0, len);
+        if (!(descriptor instanceof FileStreamDescriptor))
+            return null;
 
-                                    if (exceedingClose) {
-                                        break;
-                                    }
-                                }
-                            }
+        List<TransferRange> rangeList = persistenceProvider.getCompletedRanges(item);
+        if (rangeList == null)
+            return null;
 
-                            activeConnection.writeEnd(description);
+        // An item that was being received in order can be continued in ranges, and an item that was received in
+        // ranges should be continued that way even when there is only one connection.
+        if (rangeList.isEmpty()) {
+            if (!dispatcher.isShared())
+                return null;
 
-                            operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
-                            operation.setCount(operation.getCount() + 1);
-                            operation.clearBytesOngoing();
-                            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
-                        }
-                    } catch (CancelledException e) {
-                        persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Pending, e);
-                        throw e;
-                    } catch (FileNotFoundException e) {
-                        persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Invalidated, e);
-                        throw e;
-                    } catch (Exception e) {
-                        persistenceProvider.setState(client.getClientUid(), item,
-                                TransferItem.State.InvalidatedTemporarily, e);
-                        throw e;
-                    } finally {
-                        persistenceProvider.persist(client.getClientUid(), item);
-                        operation.clearOngoing();
-                    }
-                } catch (CancelledException e) {
-                    throw e;
-                } catch (@NotNull FileNotFoundException | PersistenceException e) {
-                    bridge.send(Keyword.ERROR_NOT_FOUND);
-                } catch (IOException e) {
-                    bridge.send(Keyword.ERROR_NOT_ACCESSIBLE);
-                } catch (Exception e) {
-                    bridge.send(Keyword.ERROR_UNKNOWN);
-                }
+            if (descriptor.length() > 0) {
+                rangeList = Collections.singletonList(new TransferRange(0, descriptor.length()));
             }
-        } catch (CancelledException e) {
-            operation.onCancelOperation();
-        } catch (Exception e) {
-            operation.onUnhandledException(e);
         }
+
+        return new SegmentedItem(item, (FileStreamDescriptor) descriptor, rangeList, options.getSegmentLength());
     }
 
     /**
-     * Transform a given {@link TransferItem} list into its {@link JSONArray} equivalent.
+     * Receive a segment of an item and write it at its position.
      * <p>
-     * The resulting {@link JSONArray} can be fed to
-     * {@link CommunicationBridge#requestFileTransfer(long, List, OnPrepareListener)} to start a file transfer
-     * operation.
-     * <p>
-     * You can have the same JSON data back using {@link #toTransferItemList(String)}.
+     * The connection that completes the last segment also completes the item.
      *
-     * @param transferItemList To convert.
-     * @return The JSON equivalent of the same list.
+     * @param bridge        The bridge that speaks on behalf of you when making requests.
+     * @param operation     The operation object that handles the GUI side of things.
+     * @param dispatcher    That hands out the items.
+     * @param segmentedItem That the segment belongs to.
+     * @param range         That was claimed.
+     * @param writeBehind   To write the segment with, or null if it should be written as it is taken.
+     * @throws Exception If an error that should end the operation occurs.
      */
-    public static @NotNull JSONArray toJson(@NotNull List<@NotNull TransferItem> transferItemList)
+    private static void receiveSegment(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                       @NotNull ReceivableItemDispatcher dispatcher,
+                                       @NotNull SegmentedItem segmentedItem, @NotNull TransferRange range,
+                                       @Nullable WriteBehind writeBehind) throws Exception
     {
-        JSONArray jsonArray = new JSONArray();
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        ActiveConnection activeConnection = bridge.getActiveConnection();
+        Client client = bridge.getRemoteClient();
+        TransferItem item = segmentedItem.item;
 
-        for (TransferItem transferItem : transferItemList) {
-            JSONObject json = new JSONObject()
-                    .put(Keyword.TRANSFER_ID, transferItem.getItemId())
-                    .put(Keyword.INDEX_FILE_NAME, transferItem.getItemName())
-                    .put(Keyword.INDEX_FILE_SIZE, transferItem.getItemSize())
-                    .put(Keyword.INDEX_FILE_MIME, transferItem.getItemMimeType());
-
-            if (transferItem.getItemDirectory() != null) {
-                json.put(Keyword.INDEX_DIRECTORY, transferItem.getItemDirectory());
+        operation.setOngoing(item);
+        operation.publishProgress();
+        operation.setBytesOngoing(0, 0);
+
+        try (FileChannel fileChannel = segmentedItem.descriptor.openWritableChannel()) {
+            if (!requestRange(bridge, item.getItemId(), range))
+                throw new ProtocolException();
+
+            ActiveConnection.Description description = activeConnection.readBegin();
+            fileChannel.position(range.offset);
+
+            if (read(activeConnection, operation, description, Channels.newOutputStream(fileChannel),
+                    writeBehind) != range.length)
+                throw new EOFException("The range ended before it was complete.");
+
+            // The range is saved as completed after this, so it should not be lost if something goes wrong later.
+            fileChannel.force(false);
+        } catch (ContentException e) {
+            persistenceProvider.setState(client.getClientUid(), item, e.error == ContentException.Error.NotFound
+                    ? TransferItem.State.Invalidated : TransferItem.State.InvalidatedTemporarily, e);
+            persistenceProvider.persist(client.getClientUid(), item);
+
+            if (segmentedItem.fail()) {
+                dispatcher.remove(segmentedItem);
+            }
+            return;
+        } catch (Exception e) {
+            // Another connection can receive this segment, unless the item has failed on one of them.
+            if (segmentedItem.abandon(range)) {
+                dispatcher.remove(segmentedItem);
             }
+            throw e;
+        } finally {
+            operation.clearOngoing();
+        }
 
-            jsonArray.put(json);
+        operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
+        operation.clearBytesOngoing();
+
+        boolean last = segmentedItem.complete(range);
+
+        if (!last) {
+            persistenceProvider.persistCompletedRanges(client.getClientUid(), item, segmentedItem.getCompletedList());
+            return;
         }
 
-        return jsonArray;
+        dispatcher.remove(segmentedItem);
+
+        if (segmentedItem.isFailed())
+            return;
+
+        // Requesting the rest of the item lets the remote know that it is complete.
+        if (requestItem(bridge, item.getItemId(), item.getItemSize())) {
+            ActiveConnection.Description description = activeConnection.readBegin();
+            while (description.hasAvailable() && activeConnection.read(description) != -1) {
+                operation.publishProgress();
+            }
+        }
+
+        persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
+        persistenceProvider.persistCompletedRanges(client.getClientUid(), item, Collections.emptyList());
+        persistenceProvider.persist(client.getClientUid(), item);
+        operation.setCount(operation.getCount() + 1);
+        operation.installReceivedContent(segmentedItem.descriptor);
     }
 
     /**
-     * Inflate the given JSON data that was received from the remote and make it consumable as a collection.
+     * Receive a single item.
      *
-     * @param jsonArray That is going to be inflated.
-     * @return The list of items inflated from the JSON data.
-     * @throws JSONException If the JSON data is corrupted or has missing/mismatch values.
-     * @see #toJson(List)
+     * @param bridge     The bridge that speaks on behalf of you when making requests.
+     * @param operation  The operation object that handles the GUI side of things.
+     * @param item       To receive.
+     * @param descriptor That belongs to the item.
+     * @param requested   True if the item was already requested with {@link #requestItems}, in which case only its
+     *                    result will be read.
+     * @param writeBehind To write the item with, or null if it should be written as it is taken.
+     * @param stateBatch  That the state of the item is saved with after its data is closed.
+     * @throws Exception If an error that should end the operation occurs.
      */
-    public static @NotNull List<@NotNull MetaTransferItem> toTransferItemList(@NotNull String jsonArray)
-            throws JSONException
+    private static void receiveItem(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                    @NotNull TransferItem item, @NotNull StreamDescriptor descriptor,
+                                    boolean requested, @Nullable WriteBehind writeBehind,
+                                    @NotNull StateBatch stateBatch) throws Exception
     {
-        JSONArray json = new JSONArray(jsonArray);
-        List<MetaTransferItem> list = new ArrayList<>(0);
-
-        if (json.length() > 0) {
-            for (int i = 0; i < json.length(); i++) {
-                JSONObject jsonObject = json.getJSONObject(i);
-                String directory = jsonObject.has(Keyword.INDEX_DIRECTORY)
-                        ? jsonObject.getString(Keyword.INDEX_DIRECTORY) : null;
-                MetaTransferItem item = new MetaTransferItem(jsonObject.getLong(Keyword.TRANSFER_ID),
-                        jsonObject.getString(Keyword.INDEX_FILE_NAME), jsonObject.getLong(Keyword.INDEX_FILE_SIZE),
-                        jsonObject.getString(Keyword.INDEX_FILE_MIME), directory);
-
-                list.add(item);
-            }
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        ActiveConnection activeConnection = bridge.getActiveConnection();
+        Client client = bridge.getRemoteClient();
+
+        operation.setOngoing(item);
+        operation.publishProgress();
+
+        // Set the bytes as the size of the file that may have previously been exchanged partially.
+        // This will be '0' for the newly started operations.
+        operation.setBytesOngoing(descriptor.length(), descriptor.length());
+
+        try (OutputStream outputStream = persistenceProvider.openOutputStream(descriptor)) {
+            boolean approved = requested ? bridge.receiveResult()
+                    : Transfers.requestItem(bridge, item.getItemId(), descriptor.length());
+
+            // The result will be an error if it is not approved.
+            if (approved) {
+                ActiveConnection.Description description = activeConnection.readBegin();
+                read(activeConnection, operation, description, outputStream, writeBehind);
+                outputStream.flush();
+                persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
+                operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
+                operation.setCount(operation.getCount() + 1);
+                operation.installReceivedContent(descriptor);
+                operation.clearBytesOngoing();
+            }
+        } catch (CancelledException e) {
+            // The task is cancelled. We reset the state of this item to 'pending'.
+            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Pending, e);
+            throw e;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (ContentException e) {
+            switch (e.error) {
+                case NotFound:
+                    persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Invalidated, e);
+                    break;
+                case AlreadyExists:
+                case NotAccessible:
+                default:
+                    persistenceProvider.setState(client.getClientUid(), item,
+                            TransferItem.State.InvalidatedTemporarily, e);
+            }
+        } catch (Exception e) {
+            persistenceProvider.setState(client.getClientUid(), item,
+                    TransferItem.State.InvalidatedTemporarily, e);
+            throw e;
+        } finally {
+            stateBatch.add(item);
+            operation.clearOngoing();
+        }
+    }
+
+    /**
+     * Read the data of an item and write it to the given output stream.
+     *
+     * @param activeConnection To read from.
+     * @param operation        The operation object that handles the GUI side of things.
+     * @param description      Of the read operation that has begun.
+     * @param outputStream     To write to.
+     * @param writeBehind      To write the data with, or null if it should be written as it is read.
+     * @return The length of the data that was read.
+     * @throws IOException If an IO error occurs while reading or writing.
+     */
+    private static long read(@NotNull ActiveConnection activeConnection, @NotNull TransferOperation operation,
+                             @NotNull ActiveConnection.Description description, @NotNull OutputStream outputStream,
+                             @Nullable WriteBehind writeBehind) throws IOException
+    {
+        int len;
+        long total = 0;
+
+        if (writeBehind != null) {
+            writeBehind.begin(outputStream);
+        }
+
+        try {
+            while (description.hasAvailable() && (len = activeConnection.read(description)) != -1) {
+                operation.publishProgress();
+                operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
+                total += len;
+
+                if (writeBehind != null) {
+                    writeBehind.write(description.byteBuffer);
+                } else {
+                    write(outputStream, description.byteBuffer);
+                }
+            }
+
+            if (writeBehind != null) {
+                writeBehind.end();
+            }
+        } finally {
+            if (writeBehind != null) {
+                writeBehind.abort();
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Write the remaining data of a buffer to an output stream.
+     *
+     * @param outputStream To write to.
+     * @param buffer       To write from, which will have no data remaining after this.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void write(@NotNull OutputStream outputStream, @NotNull ByteBuffer buffer) throws IOException
+    {
+        if (buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            outputStream.write(bytes);
+        }
+    }
+
+    /**
+     * Receive more than one item as a bundle.
+     * <p>
+     * The errors related to a single item invalidate only that item, while the rest of the bundle is received as
+     * usual. An error that corrupts the bundle ends the operation since the rest of it cannot be read.
+     *
+     * @param bridge         The bridge that speaks on behalf of you when making requests.
+     * @param operation      The operation object that handles the GUI side of things.
+     * @param itemList       To receive.
+     * @param descriptorList Of the items in the same order.
+     * @param bufferPool     To take the buffers from.
+     * @param stateBatch     That the states of the items are saved with.
+     * @throws Exception If an error that should end the operation occurs.
+     */
+    private static void receiveBundle(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                      @NotNull List<@NotNull TransferItem> itemList,
+                                      @NotNull List<@NotNull StreamDescriptor> descriptorList,
+                                      @NotNull BufferPool bufferPool, @NotNull StateBatch stateBatch)
+            throws Exception
+    {
+        ActiveConnection activeConnection = bridge.getActiveConnection();
+
+        if (!requestBundle(bridge, itemList, descriptorList))
+            return;
+
+        ActiveConnection.Description description = activeConnection.readBegin();
+        DataInputStream inputStream = new DataInputStream(new DescriptionInputStream(activeConnection, description));
+
+        byte[] bytes = bufferPool.acquire(LENGTH_CHUNK);
+
+        try {
+            for (int i = 0; i < itemList.size(); i++) {
+                receiveBundledItem(bridge, operation, itemList.get(i), descriptorList.get(i), inputStream, bytes,
+                        stateBatch);
+            }
+        } finally {
+            bufferPool.release(bytes);
+        }
+
+        // This also consumes the end of the read operation.
+        if (inputStream.read() != -1)
+            throw new ProtocolException();
+    }
+
+    /**
+     * Receive a single item that is part of a bundle.
+     *
+     * @param bridge      The bridge that speaks on behalf of you when making requests.
+     * @param operation   The operation object that handles the GUI side of things.
+     * @param item        To receive.
+     * @param descriptor  That belongs to the item.
+     * @param inputStream Of the bundle, whose next entry is for this item.
+     * @param bytes       To copy the data of the item with.
+     * @param stateBatch  That the state of the item is saved with after its data is closed.
+     * @throws Exception If an error that should end the operation occurs.
+     */
+    private static void receiveBundledItem(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                           @NotNull TransferItem item, @NotNull StreamDescriptor descriptor,
+                                           @NotNull DataInputStream inputStream, byte @NotNull [] bytes,
+                                           @NotNull StateBatch stateBatch) throws Exception
+    {
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        Client client = bridge.getRemoteClient();
+
+        operation.setOngoing(item);
+        operation.publishProgress();
+        operation.setBytesOngoing(descriptor.length(), descriptor.length());
+
+        try {
+            if (inputStream.readLong() != item.getItemId())
+                throw new ProtocolException();
+
+            long length = inputStream.readLong();
+
+            if (length == LENGTH_BUNDLE_ERROR) {
+                String errorCode = inputStream.readUTF();
+
+                try {
+                    Responses.checkError(client, new JSONObject().put(Keyword.ERROR, errorCode));
+                } catch (ContentException e) {
+                    persistenceProvider.setState(client.getClientUid(), item,
+                            e.error == ContentException.Error.NotFound ? TransferItem.State.Invalidated
+                                    : TransferItem.State.InvalidatedTemporarily, e);
+                } catch (ProtocolException e) {
+                    persistenceProvider.setState(client.getClientUid(), item,
+                            TransferItem.State.InvalidatedTemporarily, e);
+                }
+                return;
+            } else if (length < 0) {
+                throw new ProtocolException();
+            }
+
+            try (OutputStream outputStream = persistenceProvider.openOutputStream(descriptor)) {
+                int len;
+
+                while (length > 0) {
+                    if ((len = inputStream.read(bytes, 0, (int) Math.min(bytes.length, length))) == -1)
+                        throw new EOFException("The bundle ended before the item did.");
+
+                    operation.publishProgress();
+                    operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
+                    outputStream.write(bytes, 0, len);
+                    length -= len;
+                }
+
+                outputStream.flush();
+            }
+
+            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
+            operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
+            operation.setCount(operation.getCount() + 1);
+            operation.installReceivedContent(descriptor);
+            operation.clearBytesOngoing();
+        } catch (CancelledException e) {
+            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Pending, e);
+            throw e;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            persistenceProvider.setState(client.getClientUid(), item,
+                    TransferItem.State.InvalidatedTemporarily, e);
+            throw e;
+        } finally {
+            stateBatch.add(item);
+            operation.clearOngoing();
+        }
+    }
+
+    /**
+     * Handle the sending process using the default options.
+     *
+     * @param bridge    The bridge that speaks on behalf of you when making requests.
+     * @param operation The operation object that handles the GUI side of things.
+     * @param groupId   As in {@link TransferItem#getItemGroupId()}.
+     * @see #send(CommunicationBridge, TransferOperation, long, TransferOptions)
+     */
+    public static void send(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation, long groupId)
+    {
+        send(bridge, operation, groupId, new TransferOptions());
+    }
+
+    /**
+     * Handle the sending process. You can invoke this method via {@link TransportSeat#beginFileTransfer} method when
+     * the direction is {@link Direction#Outgoing}.
+     * <p>
+     * This can also be invoked when using {@link CommunicationBridge#requestFileTransferStart}.
+     * <p>
+     * The items are read ahead of writing them as long as {@link TransferOptions#getReadAheadDepth()} is not '0'.
+     * <p>
+     * The progress reaches the operation at the rate set with {@link TransferOptions#setProgressInterval(long)}, and
+     * the states of the items are saved in batches as set with {@link TransferOptions#setStateBatchSize(int)}.
+     *
+     * @param bridge    The bridge that speaks on behalf of you when making requests.
+     * @param operation The operation object that handles the GUI side of things.
+     * @param groupId   As in {@link TransferItem#getItemGroupId()}.
+     * @param options   The tunable parameters of the operation.
+     * @see TransportSeat#beginFileTransfer
+     * @see CommunicationBridge#requestFileTransferStart
+     */
+    public static void send(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation, long groupId,
+                            @NotNull TransferOptions options)
+    {
+        ActiveConnection activeConnection = bridge.getActiveConnection();
+
+        StateBatch stateBatch = newStateBatch(bridge, options);
+
+        operation = new CoalescedTransferOperation(operation, options.getProgressInterval(),
+                options.getProgressThreshold(), stateBatch);
+
+        ChunkSizer chunkSizer = new ChunkSizer(options.getMinChunkLength(), options.getMaxChunkLength(),
+                operation::onChunkLengthChanged);
+
+        try (ReadAhead readAhead = options.getReadAheadDepth() > 0 ? new ReadAhead(options.getReadAheadDepth(),
+                options.getReadAheadBufferLength(), options.getBufferPool()) : null) {
+            while (activeConnection.getSocket().isConnected()) {
+                JSONObject request = bridge.receiveChecked();
+
+                if (!Responses.getResult(request))
+                    break;
+
+                operation.publishProgress();
+
+                List<TransferRequest> transferRequestList;
+
+                try {
+                    transferRequestList = getTransferRequestList(request);
+                } catch (JSONException e) {
+                    bridge.send(Keyword.ERROR_UNKNOWN);
+                    continue;
+                }
+
+                if (request.has(Keyword.TRANSFER_BUNDLE)) {
+                    sendBundle(bridge, operation, groupId, transferRequestList, options.getBufferPool(),
+                            stateBatch);
+                    continue;
+                }
+
+                for (TransferRequest transferRequest : transferRequestList) {
+                    sendItem(bridge, operation, groupId, transferRequest, readAhead, options.getBufferPool(),
+                            chunkSizer, stateBatch);
+                }
+            }
+
+            stateBatch.flush();
+        } catch (CancelledException e) {
+            stateBatch.flush();
+            operation.onCancelOperation();
+        } catch (Exception e) {
+            stateBatch.flush();
+            operation.onUnhandledException(e);
+        }
+    }
+
+    /**
+     * Serve a single item request.
+     * <p>
+     * The errors related to the item are sent to the remote as the result of the request, so only the errors that
+     * should end the operation are thrown.
+     *
+     * @param bridge          The bridge that speaks on behalf of you when making requests.
+     * @param operation       The operation object that handles the GUI side of things.
+     * @param groupId         As in {@link TransferItem#getItemGroupId()}.
+     * @param transferRequest That the remote sent.
+     * @param readAhead       To read the item with, or null if it should be read and written in turns.
+     * @param bufferPool      To take the buffers from.
+     * @param chunkSizer      To choose the length of the writes with.
+     * @param stateBatch      That the state of the item is saved with.
+     * @throws IOException   If an IO error occurs.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     */
+    private static void sendItem(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                 long groupId, @NotNull TransferRequest transferRequest,
+                                 @Nullable ReadAhead readAhead, @NotNull BufferPool bufferPool,
+                                 @NotNull ChunkSizer chunkSizer, @NotNull StateBatch stateBatch)
+            throws IOException, JSONException
+    {
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        ActiveConnection activeConnection = bridge.getActiveConnection();
+        Client client = bridge.getRemoteClient();
+        TransferItem item;
+
+        try {
+            item = persistenceProvider.loadTransferItem(client.getClientUid(), groupId, transferRequest.id,
+                    Direction.Outgoing);
+
+            final boolean ranged = transferRequest.length != TransferRequest.LENGTH_UNSPECIFIED;
+            final long length = ranged ? transferRequest.length : item.getItemSize() - transferRequest.position;
+
+            if (transferRequest.position < 0 || length < 0
+                    || transferRequest.position + length > item.getItemSize()) {
+                bridge.send(Keyword.ERROR_UNKNOWN);
+                return;
+            }
+
+            // A range does not count as progress made before it.
+            final long bytesOngoing = ranged ? 0 : transferRequest.position;
+
+            operation.setOngoing(item);
+            operation.setBytesOngoing(bytesOngoing, bytesOngoing);
+
+            byte[] bytes = bufferPool.acquire(chunkSizer.getMaxLength());
+
+            try {
+                StreamDescriptor descriptor = persistenceProvider.getDescriptorFor(item);
+                if (descriptor.length() != item.getItemSize())
+                    throw new FileNotFoundException("File size has changed. It is probably a different file.");
+
+                if (readAhead != null) {
+                    try (InputStream inputStream = openInputStream(persistenceProvider, descriptor,
+                            transferRequest.position)) {
+                        // The reading starts before the item is approved, so that the first buffers are ready by then.
+                        readAhead.begin(inputStream, length);
+
+                        try {
+                            ActiveConnection.Description description = beginItem(bridge, length);
+                            write(activeConnection, operation, description, readAhead, bytes, chunkSizer);
+                            activeConnection.writeEnd(description);
+                        } finally {
+                            readAhead.end();
+                        }
+                    }
+                } else if (descriptor instanceof FileStreamDescriptor) {
+                    try (FileChannel fileChannel = ((FileStreamDescriptor) descriptor).openReadableChannel()) {
+                        ActiveConnection.Description description = beginItem(bridge, length);
+                        write(activeConnection, operation, description, fileChannel, transferRequest.position,
+                                bytes, chunkSizer);
+                        activeConnection.writeEnd(description);
+                    }
+                } else {
+                    try (InputStream inputStream = persistenceProvider.openInputStream(descriptor,
+                            transferRequest.position)) {
+                        ActiveConnection.Description description = beginItem(bridge, length);
+                        write(activeConnection, operation, description, inputStream, bytes, chunkSizer);
+                        activeConnection.writeEnd(description);
+                    }
+                }
+
+                operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
+                operation.clearBytesOngoing();
+
+                if (!ranged) {
+                    operation.setCount(operation.getCount() + 1);
+                    persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
+                }
+            } catch (CancelledException e) {
+                persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Pending, e);
+                throw e;
+            } catch (FileNotFoundException e) {
+                persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Invalidated, e);
+                throw e;
+            } catch (Exception e) {
+                persistenceProvider.setState(client.getClientUid(), item,
+                        TransferItem.State.InvalidatedTemporarily, e);
+                throw e;
+            } finally {
+                bufferPool.release(bytes);
+                stateBatch.add(item);
+                operation.clearOngoing();
+            }
+        } catch (CancelledException e) {
+            throw e;
+        } catch (@NotNull FileNotFoundException | PersistenceException e) {
+            bridge.send(Keyword.ERROR_NOT_FOUND);
+        } catch (IOException e) {
+            bridge.send(Keyword.ERROR_NOT_ACCESSIBLE);
+        } catch (Exception e) {
+            bridge.send(Keyword.ERROR_UNKNOWN);
+        }
+    }
+
+    /**
+     * Serve a bundle request by writing all the requested items into a single write operation.
+     *
+     * @param bridge              The bridge that speaks on behalf of you when making requests.
+     * @param operation           The operation object that handles the GUI side of things.
+     * @param groupId             As in {@link TransferItem#getItemGroupId()}.
+     * @param transferRequestList That the remote sent.
+     * @param bufferPool          To take the buffers from.
+     * @param stateBatch          That the states of the items are saved with.
+     * @throws IOException   If an IO error occurs.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     * @see #requestBundle
+     */
+    private static void sendBundle(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                   long groupId, @NotNull List<@NotNull TransferRequest> transferRequestList,
+                                   @NotNull BufferPool bufferPool, @NotNull StateBatch stateBatch)
+            throws IOException, JSONException
+    {
+        ActiveConnection activeConnection = bridge.getActiveConnection();
+
+        bridge.send(true);
+
+        ActiveConnection.Description description = activeConnection.writeBegin(0);
+
+        // Every write is a separate chunk, so the small pieces such as the headers are buffered.
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+                new DescriptionOutputStream(activeConnection, description), LENGTH_CHUNK));
+
+        byte[] bytes = bufferPool.acquire(LENGTH_CHUNK);
+
+        try {
+            for (TransferRequest transferRequest : transferRequestList) {
+                sendBundledItem(bridge, operation, groupId, transferRequest, outputStream, bytes, stateBatch);
+            }
+        } finally {
+            bufferPool.release(bytes);
+        }
+
+        outputStream.flush();
+        activeConnection.writeEnd(description);
+    }
+
+    /**
+     * Write a single item as part of a bundle.
+     * <p>
+     * If the item cannot be opened, its error code is written in place of its data. Once the item data starts, the
+     * errors can only be thrown since the bundle cannot be recovered from that point on.
+     *
+     * @param bridge          The bridge that speaks on behalf of you when making requests.
+     * @param operation       The operation object that handles the GUI side of things.
+     * @param groupId         As in {@link TransferItem#getItemGroupId()}.
+     * @param transferRequest That the remote sent.
+     * @param outputStream    Of the bundle.
+     * @param bytes           To copy the data of the item with.
+     * @param stateBatch      That the state of the item is saved with.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void sendBundledItem(@NotNull CommunicationBridge bridge, @NotNull TransferOperation operation,
+                                        long groupId, @NotNull TransferRequest transferRequest,
+                                        @NotNull DataOutputStream outputStream, byte @NotNull [] bytes,
+                                        @NotNull StateBatch stateBatch) throws IOException
+    {
+        PersistenceProvider persistenceProvider = bridge.getPersistenceProvider();
+        Client client = bridge.getRemoteClient();
+        TransferItem item;
+        InputStream inputStream;
+
+        try {
+            item = persistenceProvider.loadTransferItem(client.getClientUid(), groupId, transferRequest.id,
+                    Direction.Outgoing);
+        } catch (PersistenceException e) {
+            writeBundleError(outputStream, transferRequest.id, Keyword.ERROR_NOT_FOUND);
+            return;
+        }
+
+        operation.setOngoing(item);
+        operation.setBytesOngoing(transferRequest.position, transferRequest.position);
+
+        try {
+            try {
+                StreamDescriptor descriptor = persistenceProvider.getDescriptorFor(item);
+                if (descriptor.length() != item.getItemSize())
+                    throw new FileNotFoundException("File size has changed. It is probably a different file.");
+
+                inputStream = persistenceProvider.openInputStream(descriptor, transferRequest.position);
+            } catch (FileNotFoundException e) {
+                persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Invalidated, e);
+                writeBundleError(outputStream, item.getItemId(), Keyword.ERROR_NOT_FOUND);
+                return;
+            } catch (IOException e) {
+                persistenceProvider.setState(client.getClientUid(), item,
+                        TransferItem.State.InvalidatedTemporarily, e);
+                writeBundleError(outputStream, item.getItemId(), Keyword.ERROR_NOT_ACCESSIBLE);
+                return;
+            } catch (Exception e) {
+                persistenceProvider.setState(client.getClientUid(), item,
+                        TransferItem.State.InvalidatedTemporarily, e);
+                writeBundleError(outputStream, item.getItemId(), Keyword.ERROR_UNKNOWN);
+                return;
+            }
+
+            try (InputStream closeable = inputStream) {
+                long length = item.getItemSize() - transferRequest.position;
+                int len;
+
+                outputStream.writeLong(item.getItemId());
+                outputStream.writeLong(length);
+
+                while (length > 0) {
+                    if ((len = closeable.read(bytes, 0, (int) Math.min(bytes.length, length))) == -1)
+                        throw new EOFException("The item ended before its reported size.");
+
+                    operation.publishProgress();
+                    operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
+                    outputStream.write(bytes, 0, len);
+                    length -= len;
+                }
+            }
+
+            operation.setBytesTotal(operation.getBytesTotal() + operation.getBytesOngoing());
+            operation.setCount(operation.getCount() + 1);
+            operation.clearBytesOngoing();
+            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Done, null);
+        } catch (CancelledException e) {
+            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.Pending, e);
+            throw e;
+        } catch (Exception e) {
+            persistenceProvider.setState(client.getClientUid(), item, TransferItem.State.InvalidatedTemporarily, e);
+            throw e;
+        } finally {
+            stateBatch.add(item);
+            operation.clearOngoing();
+        }
+    }
+
+    /**
+     * Write the header of an item that could not be sent as part of a bundle.
+     *
+     * @param outputStream Of the bundle.
+     * @param itemId       Corresponds to {@link TransferItem#getItemId()}.
+     * @param errorCode    That explains why the item could not be sent.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void writeBundleError(@NotNull DataOutputStream outputStream, long itemId,
+                                         @NotNull String errorCode) throws IOException
+    {
+        outputStream.writeLong(itemId);
+        outputStream.writeLong(LENGTH_BUNDLE_ERROR);
+        outputStream.writeUTF(errorCode);
+    }
+
+    /**
+     * Approve the item request and begin writing the item data.
+     *
+     * @param bridge The bridge that speaks on behalf of you when making requests.
+     * @param length Of the data that will be sent.
+     * @return The description of the write operation.
+     * @throws IOException   If an IO error occurs.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     */
+    private static @NotNull ActiveConnection.Description beginItem(@NotNull CommunicationBridge bridge, long length)
+            throws IOException, JSONException
+    {
+        bridge.send(true);
+        return bridge.getActiveConnection().writeBegin(0, length);
+    }
+
+    /**
+     * Write the data of a file-backed item by reading its channel directly into the buffer.
+     * <p>
+     * This spares the copy that an {@link InputStream} makes into its intermediate buffer, which is why this is
+     * preferred when the descriptor is a {@link FileStreamDescriptor} and the item is not read ahead, that is, when
+     * {@link TransferOptions#getReadAheadDepth()} is '0'.
+     *
+     * @param activeConnection To write to.
+     * @param operation        The operation object that handles the GUI side of things.
+     * @param description      Of the write operation that has begun.
+     * @param fileChannel      To read from.
+     * @param position         To start reading from.
+     * @param bytes            To read the data into, which should be as long as {@link ChunkSizer#getMaxLength()} or
+     *                         longer.
+     * @param chunkSizer       To choose the length of the writes with.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void write(@NotNull ActiveConnection activeConnection, @NotNull TransferOperation operation,
+                              @NotNull ActiveConnection.Description description, @NotNull FileChannel fileChannel,
+                              long position, byte @NotNull [] bytes, @NotNull ChunkSizer chunkSizer)
+            throws IOException
+    {
+        // If the file is shorter than what was reported, 'writeEnd' will fail as it should.
+        final long end = position + description.available();
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        int len;
+
+        while (position < end) {
+            byteBuffer.clear();
+            byteBuffer.limit((int) Math.min(chunkSizer.getLength(), end - position));
+
+            if ((len = fileChannel.read(byteBuffer, position)) == -1)
+                break;
+
+            position += len;
+
+            operation.publishProgress();
+            operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
+            write(activeConnection, description, bytes, len, chunkSizer);
+        }
+    }
+
+    /**
+     * Open the input stream for a descriptor starting from the given position.
+     * <p>
+     * The file-backed descriptors are read through their channels.
+     *
+     * @param persistenceProvider That provides the input stream for the other descriptors.
+     * @param descriptor          To open.
+     * @param position            To start reading from.
+     * @return The open input stream.
+     * @throws IOException If an IO error occurs.
+     */
+    private static @NotNull InputStream openInputStream(@NotNull PersistenceProvider persistenceProvider,
+                                                        @NotNull StreamDescriptor descriptor, long position)
+            throws IOException
+    {
+        if (descriptor instanceof FileStreamDescriptor) {
+            FileChannel fileChannel = ((FileStreamDescriptor) descriptor).openReadableChannel();
+
+            try {
+                fileChannel.position(position);
+            } catch (IOException e) {
+                fileChannel.close();
+                throw e;
+            }
+
+            return Channels.newInputStream(fileChannel);
+        }
+
+        return persistenceProvider.openInputStream(descriptor, position);
+    }
+
+    /**
+     * Write the data of an item that is read ahead.
+     *
+     * @param activeConnection To write to.
+     * @param operation        The operation object that handles the GUI side of things.
+     * @param description      Of the write operation that has begun.
+     * @param readAhead        That reads the item.
+     * @param bytes            To copy the slices that do not start at the beginning of a buffer with, which should be
+     *                         as long as {@link ChunkSizer#getMaxLength()} or longer.
+     * @param chunkSizer       To choose the length of the writes with.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void write(@NotNull ActiveConnection activeConnection, @NotNull TransferOperation operation,
+                              @NotNull ActiveConnection.Description description, @NotNull ReadAhead readAhead,
+                              byte @NotNull [] bytes, @NotNull ChunkSizer chunkSizer) throws IOException
+    {
+        ReadAhead.Chunk chunk;
+
+        while ((chunk = readAhead.take()).length != -1) {
+            try {
+                for (int offset = 0; offset < chunk.length; ) {
+                    int len = Math.min(chunkSizer.getLength(), chunk.length - offset);
+
+                    // For avoiding Android MediaStore bug where the reported size is different from actual data size.
+                    long available = description.available();
+                    boolean exceedingClose = len >= available;
+                    if (exceedingClose) {
+                        if (available <= 0)
+                            return;
+
+                        len = (int) available;
+                    }
+
+                    operation.publishProgress();
+                    operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
+                    // The connection only writes the slices that start at the beginning of the array correctly.
+                    if (offset == 0) {
+                        write(activeConnection, description, chunk.bytes, len, chunkSizer);
+                    } else {
+                        System.arraycopy(chunk.bytes, offset, bytes, 0, len);
+                        write(activeConnection, description, bytes, len, chunkSizer);
+                    }
+
+                    offset += len;
+
+                    if (exceedingClose) {
+                        return;
+                    }
+                }
+            } finally {
+                readAhead.recycle(chunk);
+            }
+        }
+
+        readAhead.recycle(chunk);
+    }
+
+    /**
+     * Write the data of an item using its input stream.
+     *
+     * @param activeConnection To write to.
+     * @param operation        The operation object that handles the GUI side of things.
+     * @param description      Of the write operation that has begun.
+     * @param inputStream      To read from.
+     * @param bytes            To copy the data with, which should be as long as {@link ChunkSizer#getMaxLength()} or
+     *                         longer.
+     * @param chunkSizer       To choose the length of the writes with.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void write(@NotNull ActiveConnection activeConnection, @NotNull TransferOperation operation,
+                              @NotNull ActiveConnection.Description description, @NotNull InputStream inputStream,
+                              byte @NotNull [] bytes, @NotNull ChunkSizer chunkSizer) throws IOException
+    {
+        int len;
+
+        // For avoiding Android MediaStore bug where the reported size is different from actual data size.
+        boolean exceedingClose = false;
+        long available;
+
+        while ((len = inputStream.read(bytes, 0, chunkSizer.getLength())) != -1) {
+            operation.publishProgress();
+
+            if (len > 0) {
+                available = description.available();
+                if (len >= available) {
+                    if (available <= 0)
+                        break;
+
+                    len = (int) available;
+                    exceedingClose = true;
+                }
+
+                operation.setBytesOngoing(operation.getBytesOngoing() + len, len);
+                write(activeConnection, description, bytes, len, chunkSizer);
+
+                if (exceedingClose) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a single chunk and let the chunk sizer know how long it took.
+     *
+     * @param activeConnection To write to.
+     * @param description      Of the write operation that has begun.
+     * @param bytes            To write from the beginning of.
+     * @param len              The length of the data to write.
+     * @param chunkSizer       To let know of the write.
+     * @throws IOException If an IO error occurs.
+     */
+    private static void write(@NotNull ActiveConnection activeConnection,
+                              @NotNull ActiveConnection.Description description, byte @NotNull [] bytes, int len,
+                              @NotNull ChunkSizer chunkSizer) throws IOException
+    {
+        long startTime = chunkSizer.start();
+        activeConnection.write(description, bytes, 0, len);
+        chunkSizer.record(len, startTime);
+    }
+
+    /**
+     * Read the index of a transfer group that the remote is streaming with {@link #sendIndex}.
+     * <p>
+     * The returned reader should be closed before responding to the remote, which also consumes the end of the read
+     * operation.
+     *
+     * @param activeConnection To read the index from.
+     * @param binary           True if the index is in the binary format, or false if it is in JSON.
+     * @return The reader that inflates the items as they arrive.
+     * @throws IOException If an IO error occurs.
+     */
+    public static @NotNull IndexReader receiveIndex(@NotNull ActiveConnection activeConnection, boolean binary)
+            throws IOException
+    {
+        ActiveConnection.Description description = activeConnection.readBegin();
+        InputStream inputStream = new DescriptionInputStream(activeConnection, description);
+
+        if (binary)
+            return new BinaryIndexReader(new BufferedInputStream(inputStream, LENGTH_CHUNK));
+
+        return new JsonIndexReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stream the index of a transfer group to the remote without building it in memory as a whole.
+     * <p>
+     * The remote should read it using {@link #receiveIndex(ActiveConnection, boolean)}.
+     *
+     * @param activeConnection To write the index to.
+     * @param transferItemList That the index is made of.
+     * @param binary           True if the index should be in the binary format, which needs the remote to be
+     *                         {@link Config#VERSION_UPROTOCOL_INDEX_BINARY} or newer, or false if it should be in JSON.
+     * @throws IOException   If an IO error occurs.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     */
+    public static void sendIndex(@NotNull ActiveConnection activeConnection,
+                                 @NotNull List<@NotNull TransferItem> transferItemList, boolean binary)
+            throws IOException, JSONException
+    {
+        ActiveConnection.Description description = activeConnection.writeBegin(0);
+
+        // Every write is a separate chunk, so the items are buffered.
+        OutputStream outputStream = new BufferedOutputStream(new DescriptionOutputStream(activeConnection,
+                description), LENGTH_CHUNK);
+
+        try (IndexWriter indexWriter = binary ? new BinaryIndexWriter(outputStream)
+                : new JsonIndexWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            indexWriter.writeAll(transferItemList);
+        }
+
+        activeConnection.writeEnd(description);
+    }
+
+    /**
+     * Transform a given {@link TransferItem} into its {@link JSONObject} equivalent as it appears in the index.
+     *
+     * @param transferItem To convert.
+     * @return The JSON equivalent of the item.
+     * @throws JSONException If something goes wrong when creating JSON object.
+     * @see #toJson(List)
+     */
+    public static @NotNull JSONObject toJson(@NotNull TransferItem transferItem) throws JSONException
+    {
+        JSONObject json = new JSONObject()
+                .put(Keyword.TRANSFER_ID, transferItem.getItemId())
+                .put(Keyword.INDEX_FILE_NAME, transferItem.getItemName())
+                .put(Keyword.INDEX_FILE_SIZE, transferItem.getItemSize())
+                .put(Keyword.INDEX_FILE_MIME, transferItem.getItemMimeType());
+
+        if (transferItem.getItemDirectory() != null) {
+            json.put(Keyword.INDEX_DIRECTORY, transferItem.getItemDirectory());
+        }
+
+        return json;
+    }
+
+    /**
+     * Transform a given {@link TransferItem} list into its {@link JSONArray} equivalent.
+     * <p>
+     * The resulting {@link JSONArray} can be fed to
+     * {@link CommunicationBridge#requestFileTransfer(long, List, OnPrepareListener)} to start a file transfer
+     * operation.
+     * <p>
+     * You can have the same JSON data back using {@link #toTransferItemList(String)}. For large groups, prefer
+     * {@link JsonIndexWriter}, which does not hold the whole index in memory.
+     *
+     * @param transferItemList To convert.
+     * @return The JSON equivalent of the same list.
+     */
+    public static @NotNull JSONArray toJson(@NotNull List<@NotNull TransferItem> transferItemList)
+    {
+        JSONArray jsonArray = new JSONArray();
+
+        for (TransferItem transferItem : transferItemList) {
+            jsonArray.put(toJson(transferItem));
+        }
+
+        return jsonArray;
+    }
+
+    /**
+     * Inflate an item of the index.
+     *
+     * @param jsonObject That is going to be inflated.
+     * @return The item inflated from the JSON data.
+     * @throws JSONException If the JSON data has missing/mismatch values.
+     */
+    static @NotNull MetaTransferItem toMetaTransferItem(@NotNull JSONObject jsonObject) throws JSONException
+    {
+        String directory = jsonObject.has(Keyword.INDEX_DIRECTORY) ? jsonObject.getString(Keyword.INDEX_DIRECTORY)
+                : null;
+        return new MetaTransferItem(jsonObject.getLong(Keyword.TRANSFER_ID),
+                jsonObject.getString(Keyword.INDEX_FILE_NAME), jsonObject.getLong(Keyword.INDEX_FILE_SIZE),
+                jsonObject.getString(Keyword.INDEX_FILE_MIME), directory);
+    }
+
+    /**
+     * Inflate the given JSON data that was received from the remote and make it consumable as a collection.
+     *
+     * @param jsonArray That is going to be inflated.
+     * @return The list of items inflated from the JSON data.
+     * @throws JSONException If the JSON data is corrupted or has missing/mismatch values.
+     * @see #toJson(List)
+     * @see JsonIndexReader
+     */
+    public static @NotNull List<@NotNull MetaTransferItem> toTransferItemList(@NotNull String jsonArray)
+            throws JSONException
+    {
+        JSONArray json = new JSONArray(jsonArray);
+        List<MetaTransferItem> list = new ArrayList<>(json.length());
+
+        for (int i = 0; i < json.length(); i++) {
+            list.add(toMetaTransferItem(json.getJSONObject(i)));
         }
 
         return list;
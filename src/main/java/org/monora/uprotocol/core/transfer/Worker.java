@@ -0,0 +1,169 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+
+/**
+ * Runs the tasks of a transfer operation one at a time on a single thread that is reused for all of them.
+ * <p>
+ * The thread is started with the first task and exits when this is closed, so a transfer operation does not start a
+ * new thread for each of its items.
+ */
+class Worker implements Closeable
+{
+    private final @NotNull String name;
+
+    private final @NotNull Object lock = new Object();
+
+    private @Nullable Thread thread;
+
+    private @Nullable Runnable task;
+
+    private volatile boolean cancelled;
+
+    private boolean closed;
+
+    /**
+     * Create a new instance.
+     *
+     * @param name Of the thread.
+     */
+    Worker(@NotNull String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Interrupt the current task, or keep it from running if it has not started yet.
+     * <p>
+     * This does not wait for the task to exit, which can be done with {@link #join()}.
+     */
+    void cancel()
+    {
+        synchronized (lock) {
+            if (task != null && thread != null) {
+                cancelled = true;
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Cancel the current task if there is any, and stop the thread after waiting for it to exit.
+     */
+    @Override
+    public void close()
+    {
+        Thread thread;
+
+        synchronized (lock) {
+            cancel();
+            closed = true;
+            lock.notifyAll();
+            thread = this.thread;
+        }
+
+        if (thread == null)
+            return;
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the current task to exit.
+     */
+    void join()
+    {
+        boolean interrupted = false;
+
+        synchronized (lock) {
+            while (task != null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run()
+    {
+        while (true) {
+            Runnable task;
+
+            synchronized (lock) {
+                while (this.task == null && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ignored) {
+                        // The task that was cancelled has already exited.
+                    }
+                }
+
+                if (this.task == null)
+                    return;
+
+                task = this.task;
+            }
+
+            // The interrupt that was meant for the previous task is cleared before checking if this one is cancelled.
+            Thread.interrupted();
+
+            try {
+                if (!cancelled) {
+                    task.run();
+                }
+            } finally {
+                synchronized (lock) {
+                    this.task = null;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the given task on the thread, starting the thread if this is the first task.
+     * <p>
+     * The previous task should have exited before this, which can be ensured with {@link #join()}.
+     *
+     * @param task To run.
+     */
+    void start(@NotNull Runnable task)
+    {
+        synchronized (lock) {
+            if (closed)
+                throw new IllegalStateException("The worker is closed.");
+            if (this.task != null)
+                throw new IllegalStateException("The previous task has not exited.");
+
+            if (thread == null || !thread.isAlive()) {
+                thread = new Thread(this::run, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            cancelled = false;
+            this.task = task;
+            lock.notifyAll();
+        }
+    }
+}
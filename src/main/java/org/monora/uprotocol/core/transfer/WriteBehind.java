@@ -0,0 +1,236 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the data of an item behind the reader on a separate thread, so that a slow storage does not keep the reader
+ * from taking the next data from the remote. The thread is reused for all the items and stops when this is closed.
+ * <p>
+ * The data is copied into a fixed ring of buffers that are reused for all the items, which bounds the memory that is
+ * held at any time. The reader waits when all the buffers are filled, and the writer waits when all of them are
+ * empty. An error that occurs while writing is thrown to the reader the next time it hands over data.
+ */
+class WriteBehind implements Closeable
+{
+    private static final @NotNull Chunk END = new Chunk(new byte[0]);
+
+    private final @NotNull BufferPool bufferPool;
+
+    private final int bufferLength;
+
+    private final @NotNull BlockingQueue<@NotNull Chunk> freeQueue;
+
+    private final @NotNull BlockingQueue<@NotNull Chunk> filledQueue;
+
+    private @Nullable Chunk chunk;
+
+    private final @NotNull Worker worker = new Worker("WriteBehind");
+
+    private boolean writing;
+
+    private volatile @Nullable IOException error;
+
+    /**
+     * Create a new instance.
+     *
+     * @param depth        The number of buffers in the ring.
+     * @param bufferLength The length of each buffer, which the writes are limited to even when the pool hands out a
+     *                     longer one.
+     * @param bufferPool   To take the buffers from, which they are given back to when this is closed.
+     */
+    WriteBehind(int depth, int bufferLength, @NotNull BufferPool bufferPool)
+    {
+        this.bufferPool = bufferPool;
+        this.bufferLength = bufferLength;
+        freeQueue = new ArrayBlockingQueue<>(depth);
+        // One more for the end mark.
+        filledQueue = new ArrayBlockingQueue<>(depth + 1);
+
+        for (int i = 0; i < depth; i++) {
+            freeQueue.add(new Chunk(bufferPool.acquire(bufferLength)));
+        }
+    }
+
+    /**
+     * Stop writing to the current output stream and drop the data that is not written yet.
+     * <p>
+     * This interrupts the writer and waits for it to exit, after which the output stream can be closed. It does nothing
+     * if the writing was already ended with {@link #end()}.
+     */
+    void abort()
+    {
+        if (!writing)
+            return;
+
+        if (chunk != null) {
+            recycle(chunk);
+            chunk = null;
+        }
+
+        filledQueue.drainTo(freeQueue);
+        filledQueue.offer(END);
+        // The data is dropped anyway, so the writer does not need to finish writing the current buffer.
+        worker.cancel();
+        join();
+    }
+
+    /**
+     * Start writing to the given output stream behind the reader.
+     * <p>
+     * The previous output stream should have been ended with {@link #end()} or {@link #abort()} before this.
+     *
+     * @param outputStream To write to, which should stay open until the writing is ended.
+     */
+    void begin(@NotNull OutputStream outputStream)
+    {
+        if (writing)
+            throw new IllegalStateException("The previous write is not ended.");
+
+        error = null;
+        writing = true;
+        worker.start(() -> write(outputStream));
+    }
+
+    @Override
+    public void close()
+    {
+        abort();
+        worker.close();
+
+        Chunk chunk;
+        while ((chunk = freeQueue.poll()) != null) {
+            bufferPool.release(chunk.bytes);
+        }
+    }
+
+    /**
+     * Hand over the data that is not full yet, and wait for all of it to be written to the current output stream.
+     *
+     * @throws IOException If the writer failed or if the thread is interrupted.
+     */
+    void end() throws IOException
+    {
+        if (!writing)
+            throw new IllegalStateException("The write is not begun.");
+
+        if (chunk != null) {
+            Chunk chunk = this.chunk;
+            this.chunk = null;
+            put(chunk);
+        }
+
+        put(END);
+        join();
+
+        IOException error = this.error;
+        if (error != null)
+            throw error;
+    }
+
+    private void join()
+    {
+        worker.join();
+        writing = false;
+    }
+
+    private void put(@NotNull Chunk chunk) throws IOException
+    {
+        try {
+            filledQueue.put(chunk);
+        } catch (InterruptedException e) {
+            if (chunk != END) {
+                recycle(chunk);
+            }
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void recycle(@NotNull Chunk chunk)
+    {
+        chunk.length = 0;
+        freeQueue.offer(chunk);
+    }
+
+    /**
+     * Copy the remaining data of the given buffer to be written to the current output stream.
+     * <p>
+     * The data is handed over to the writer as the buffers in the ring are filled up.
+     *
+     * @param buffer To copy from, which will have no data remaining after this.
+     * @throws IOException If the writer failed or if the thread is interrupted.
+     */
+    void write(@NotNull ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            IOException error = this.error;
+            if (error != null)
+                throw error;
+
+            Chunk chunk = this.chunk;
+            if (chunk == null) {
+                try {
+                    this.chunk = chunk = freeQueue.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            int len = Math.min(buffer.remaining(), bufferLength - chunk.length);
+            buffer.get(chunk.bytes, chunk.length, len);
+            chunk.length += len;
+
+            if (chunk.length == bufferLength) {
+                this.chunk = null;
+                put(chunk);
+            }
+        }
+    }
+
+    private void write(@NotNull OutputStream outputStream)
+    {
+        Chunk chunk;
+
+        try {
+            while ((chunk = filledQueue.take()) != END) {
+                try {
+                    // After an error, the buffers are only taken back so that the reader does not wait for them.
+                    if (error == null) {
+                        outputStream.write(chunk.bytes, 0, chunk.length);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = new IOException(e);
+                } finally {
+                    recycle(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException();
+        }
+    }
+
+    /**
+     * A buffer in the ring along with the length of the data it holds.
+     */
+    private static class Chunk
+    {
+        final byte @NotNull [] bytes;
+
+        int length;
+
+        Chunk(byte @NotNull [] bytes)
+        {
+            this.bytes = bytes;
+        }
+    }
+}
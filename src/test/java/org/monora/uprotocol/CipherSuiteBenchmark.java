@@ -0,0 +1,108 @@
+package org.monora.uprotocol;
+
+import org.monora.uprotocol.core.spec.v1.Config;
+import org.monora.uprotocol.variant.persistence.BasePersistenceProvider;
+import org.monora.uprotocol.variant.persistence.PrimaryPersistenceProvider;
+import org.monora.uprotocol.variant.persistence.SecondaryPersistenceProvider;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reports the bulk encryption throughput of each supported default cipher suite over a loopback connection.
+ * <p>
+ * This is not a test, so that the test runs do not spend time on it. Run it with the test classpath, e.g.,
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.monora.uprotocol.CipherSuiteBenchmark}.
+ */
+public class CipherSuiteBenchmark
+{
+    private static final int LENGTH_BENCHMARK = 16 * 1024 * 1024;
+
+    private static final int LENGTH_BUFFER = 64 * 1024;
+
+    public static void main(String[] args) throws Exception
+    {
+        BasePersistenceProvider primaryPersistence = new PrimaryPersistenceProvider();
+        BasePersistenceProvider secondaryPersistence = new SecondaryPersistenceProvider();
+        SSLContext serverContext = primaryPersistence.createSSLContextFor(secondaryPersistence.getClient());
+        SSLContext clientContext = secondaryPersistence.createSSLContextFor(primaryPersistence.getClient());
+        List<String> supportedList = Arrays.asList(serverContext.getSupportedSSLParameters().getCipherSuites());
+        InetAddress address = InetAddress.getLoopbackAddress();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            for (String cipherSuite : Config.CIPHER_SUITES_DEFAULT) {
+                if (!supportedList.contains(cipherSuite)) {
+                    System.out.printf("%s: not supported%n", cipherSuite);
+                    continue;
+                }
+
+                String protocol = cipherSuite.startsWith("TLS_ECDHE_") ? "TLSv1.2" : "TLSv1.3";
+
+                try (SSLServerSocket serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory()
+                        .createServerSocket(0, 1, address)) {
+                    Future<Long> result = executor.submit(() -> receive(serverSocket));
+
+                    try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket()) {
+                        socket.connect(new InetSocketAddress(address, serverSocket.getLocalPort()));
+                        socket.setEnabledProtocols(new String[]{protocol});
+                        socket.setEnabledCipherSuites(new String[]{cipherSuite});
+                        socket.startHandshake();
+
+                        long startTime = System.nanoTime();
+                        send(socket);
+                        long receivedLength = result.get();
+                        long elapsedTime = System.nanoTime() - startTime;
+
+                        if (receivedLength != LENGTH_BENCHMARK)
+                            throw new IOException("Only " + receivedLength + " bytes were received with " + cipherSuite);
+
+                        System.out.printf("%s (%s): %.1f MiB/s%n", cipherSuite, protocol,
+                                (LENGTH_BENCHMARK / 1048576d) / (elapsedTime / 1e9));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long receive(SSLServerSocket serverSocket) throws IOException
+    {
+        try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+            InputStream inputStream = socket.getInputStream();
+            byte[] buffer = new byte[LENGTH_BUFFER];
+            long length = 0;
+            int len;
+
+            while (length < LENGTH_BENCHMARK && (len = inputStream.read(buffer)) != -1) {
+                length += len;
+            }
+
+            return length;
+        }
+    }
+
+    private static void send(SSLSocket socket) throws IOException
+    {
+        OutputStream outputStream = socket.getOutputStream();
+        byte[] buffer = new byte[LENGTH_BUFFER];
+
+        for (int length = 0; length < LENGTH_BENCHMARK; length += buffer.length) {
+            outputStream.write(buffer);
+        }
+
+        outputStream.flush();
+    }
+}
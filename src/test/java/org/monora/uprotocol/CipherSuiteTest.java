@@ -0,0 +1,101 @@
+package org.monora.uprotocol;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.monora.uprotocol.core.CommunicationBridge;
+import org.monora.uprotocol.core.protocol.ConnectionFactory;
+import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+import org.monora.uprotocol.variant.DefaultConnectionFactory;
+import org.monora.uprotocol.variant.test.DefaultTestBase;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.util.List;
+
+public class CipherSuiteTest extends DefaultTestBase
+{
+    private static final String CIPHER_SUITE_LEGACY = "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA";
+
+    private static final String PROTOCOL_LEGACY = "TLSv1.2";
+
+    @Test
+    public void currentPeersNegotiateTls13WithAeadTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        SSLSession session = negotiate(connectionFactory);
+
+        Assert.assertEquals("Current peers should use TLS 1.3", "TLSv1.3", session.getProtocol());
+        Assert.assertTrue("The suite should be an AEAD one, but it is " + session.getCipherSuite(),
+                isAead(session.getCipherSuite()));
+    }
+
+    @Test
+    public void legacyPeerCanStillConnectTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        SSLSession session = negotiate(new DefaultConnectionFactory()
+        {
+            @Override
+            public void enableCipherSuites(String @NotNull [] supportedCipherSuites,
+                                           @NotNull List<@NotNull String> enabledCipherSuiteList)
+            {
+                enabledCipherSuiteList.clear();
+                enabledCipherSuiteList.add(CIPHER_SUITE_LEGACY);
+            }
+
+            @Override
+            public void enableProtocols(String @NotNull [] supportedProtocols,
+                                        @NotNull List<@NotNull String> enabledProtocolList)
+            {
+                enabledProtocolList.clear();
+                enabledProtocolList.add(PROTOCOL_LEGACY);
+            }
+        });
+
+        Assert.assertEquals("The legacy peer should get the protocol it supports", PROTOCOL_LEGACY,
+                session.getProtocol());
+        Assert.assertEquals("The legacy peer should get the suite it supports", CIPHER_SUITE_LEGACY,
+                session.getCipherSuite());
+    }
+
+    @Test
+    public void enabledProtocolsAreHonouredTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        SSLSession session = negotiate(new DefaultConnectionFactory()
+        {
+            @Override
+            public void enableProtocols(String @NotNull [] supportedProtocols,
+                                        @NotNull List<@NotNull String> enabledProtocolList)
+            {
+                enabledProtocolList.remove("TLSv1.3");
+            }
+        });
+
+        Assert.assertEquals("TLS 1.3 was removed, so TLS 1.2 should be used", "TLSv1.2", session.getProtocol());
+        Assert.assertTrue("The suite should still be an AEAD one, but it is " + session.getCipherSuite(),
+                isAead(session.getCipherSuite()));
+    }
+
+    private static boolean isAead(@NotNull String cipherSuite)
+    {
+        return cipherSuite.contains("_GCM_") || cipherSuite.contains("_CHACHA20_POLY1305_");
+    }
+
+    private @NotNull SSLSession negotiate(@NotNull ConnectionFactory clientConnectionFactory) throws IOException,
+            InterruptedException, ProtocolException, CertificateException
+    {
+        primarySession.start();
+
+        try (CommunicationBridge bridge = CommunicationBridge.connect(clientConnectionFactory, secondaryPersistence,
+                clientAddress)) {
+            Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
+            return ((SSLSocket) bridge.getActiveConnection().getSocket()).getSession();
+        } finally {
+            primarySession.stop();
+        }
+    }
+}
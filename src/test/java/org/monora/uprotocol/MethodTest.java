@@ -3,6 +3,26 @@ package org.monora.uprotocol;
 import org.junit.Assert;
 import org.junit.Test;
 import org.monora.uprotocol.core.protocol.ClientType;
+import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+import org.monora.uprotocol.core.transfer.BinaryIndexReader;
+import org.monora.uprotocol.core.transfer.BinaryIndexWriter;
+import org.monora.uprotocol.core.transfer.IndexReader;
+import org.monora.uprotocol.core.transfer.IndexWriter;
+import org.monora.uprotocol.core.transfer.JsonIndexReader;
+import org.monora.uprotocol.core.transfer.JsonIndexWriter;
+import org.monora.uprotocol.core.transfer.MetaTransferItem;
+import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.Transfers;
+import org.monora.uprotocol.variant.DefaultTransferItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
 
 public class MethodTest
 {
@@ -17,4 +37,68 @@ public class MethodTest
         Assert.assertEquals("Custom protocol values should match", type.getOriginalValue(),
                 ClientType.Any.getOriginalValue());
     }
+
+    @Test
+    public void streamedIndexMatchesJsonIndex() throws IOException, ProtocolException
+    {
+        List<TransferItem> itemList = Arrays.asList(
+                new DefaultTransferItem(1, 1, "File \"1\"", "text/plain", 10, null, Direction.Outgoing),
+                new DefaultTransferItem(1, 2, "File2", "image/png", 20, "Dir/Sub", Direction.Outgoing));
+
+        StringWriter writer = new StringWriter();
+        try (IndexWriter indexWriter = new JsonIndexWriter(writer)) {
+            indexWriter.writeAll(itemList);
+        }
+
+        List<MetaTransferItem> metaList = Transfers.toTransferItemList(writer.toString());
+        Assert.assertEquals("The JSON index should have all the items", itemList.size(), metaList.size());
+
+        try (IndexReader indexReader = new JsonIndexReader(new StringReader(
+                Transfers.toJson(itemList).toString()))) {
+            for (TransferItem item : itemList) {
+                MetaTransferItem metaItem = indexReader.read();
+
+                Assert.assertNotNull("The streamed index should have the item", metaItem);
+                Assert.assertEquals("The ids should match", item.getItemId(), metaItem.id);
+                Assert.assertEquals("The names should match", item.getItemName(), metaItem.name);
+                Assert.assertEquals("The directories should match", item.getItemDirectory(), metaItem.directory);
+            }
+
+            Assert.assertNull("The streamed index should end after the items", indexReader.read());
+        }
+    }
+
+    @Test
+    public void binaryIndexMatchesItems() throws IOException, ProtocolException
+    {
+        List<TransferItem> itemList = Arrays.asList(
+                new DefaultTransferItem(1, 1, "File1", "text/plain", 10, null, Direction.Outgoing),
+                new DefaultTransferItem(1, Long.MAX_VALUE, "File2", "image/png", 0x100000000L, "Dir/Sub",
+                        Direction.Outgoing),
+                new DefaultTransferItem(1, 3, "File3", "text/plain", 0, "Dir/Sub2", Direction.Outgoing),
+                new DefaultTransferItem(1, 4, "File\uD83D\uDE00", "image/png", 30, "Dir/\uD83D\uDE00",
+                        Direction.Outgoing),
+                new DefaultTransferItem(1, 5, "File5", "image/png", 30, "Dir/\uD83D\uDE01", Direction.Outgoing));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (IndexWriter indexWriter = new BinaryIndexWriter(outputStream)) {
+            indexWriter.writeAll(itemList);
+        }
+
+        try (IndexReader indexReader = new BinaryIndexReader(new ByteArrayInputStream(
+                outputStream.toByteArray()))) {
+            for (TransferItem item : itemList) {
+                MetaTransferItem metaItem = indexReader.read();
+
+                Assert.assertNotNull("The binary index should have the item", metaItem);
+                Assert.assertEquals("The ids should match", item.getItemId(), metaItem.id);
+                Assert.assertEquals("The names should match", item.getItemName(), metaItem.name);
+                Assert.assertEquals("The sizes should match", item.getItemSize(), metaItem.size);
+                Assert.assertEquals("The MIME types should match", item.getItemMimeType(), metaItem.mimeType);
+                Assert.assertEquals("The directories should match", item.getItemDirectory(), metaItem.directory);
+            }
+
+            Assert.assertNull("The binary index should end after the items", indexReader.read());
+        }
+    }
 }
@@ -8,8 +8,10 @@ import org.monora.coolsocket.core.session.CancelledException;
 import org.monora.coolsocket.core.session.ClosedException;
 import org.monora.uprotocol.core.ClientLoader;
 import org.monora.uprotocol.core.CommunicationBridge;
+import org.monora.uprotocol.core.SecureSessions;
 import org.monora.uprotocol.core.persistence.PersistenceException;
 import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ClientType;
 import org.monora.uprotocol.core.protocol.ClipboardType;
 import org.monora.uprotocol.core.protocol.Direction;
 import org.monora.uprotocol.core.protocol.communication.ContentException;
@@ -26,10 +28,12 @@ import org.monora.uprotocol.variant.holder.MemoryStreamDescriptor;
 import org.monora.uprotocol.variant.holder.TransferHolder;
 import org.monora.uprotocol.variant.test.DefaultTestBase;
 
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class RequestTest extends DefaultTestBase
@@ -122,6 +126,85 @@ public class RequestTest extends DefaultTestBase
         }
     }
 
+    @Test
+    public void requestFileTransferInPagesTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        primarySession.start();
+
+        final List<TransferItem> transferItemList = new ArrayList<>();
+        final long groupId = 1;
+
+        for (int i = 1; i <= 5; i++) {
+            transferItemList.add(secondaryPersistence.createTransferItemFor(groupId, i, i + ".jpg",
+                    "image/jpeg", 8196, null, Direction.Outgoing));
+        }
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            bridge.requestFileTransfer(groupId, transferItemList, null, 2);
+        } finally {
+            primarySession.stop();
+        }
+
+        Assert.assertEquals("The remote should have all the pages", transferItemList.size(),
+                primaryPersistence.getTransferHolderList().size());
+        Assert.assertEquals("The sender should have persisted all the pages", transferItemList.size(),
+                secondaryPersistence.getTransferHolderList().size());
+    }
+
+    @Test
+    public void requestFileTransferAppendTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        primarySession.start();
+
+        final long groupId = 1;
+        final List<TransferItem> transferItemList = Arrays.asList(
+                secondaryPersistence.createTransferItemFor(groupId, 1, "1.jpg", "image/jpeg", 8196, null,
+                        Direction.Outgoing),
+                secondaryPersistence.createTransferItemFor(groupId, 2, "2.jpg", "image/jpeg", 8196, null,
+                        Direction.Outgoing));
+        final List<TransferItem> appendedItemList = Collections.singletonList(
+                secondaryPersistence.createTransferItemFor(groupId, 3, "3.jpg", "image/jpeg", 8196, null,
+                        Direction.Outgoing));
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            bridge.requestFileTransfer(groupId, transferItemList, null);
+        }
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            Assert.assertTrue("The remote should add the items", bridge.requestFileTransferAppend(groupId,
+                    appendedItemList));
+        } finally {
+            primarySession.stop();
+        }
+
+        Assert.assertEquals("The remote should have the appended item", 3,
+                primaryPersistence.getTransferHolderList().size());
+    }
+
+    @Test(expected = ContentException.class)
+    public void requestFileTransferAppendFailsWhenGroupNotExists() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        primarySession.start();
+
+        final long randomGroupId = 42;
+        final List<TransferItem> transferItemList = Collections.singletonList(
+                secondaryPersistence.createTransferItemFor(randomGroupId, 1, "1.jpg", "image/jpeg", 8196, null,
+                        Direction.Outgoing));
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            bridge.requestFileTransferAppend(randomGroupId, transferItemList);
+        } catch (ContentException e) {
+            Assert.assertEquals("The error code should be 'NOT FOUND'.", e.error,
+                    ContentException.Error.NotFound);
+            throw e;
+        } finally {
+            primarySession.stop();
+        }
+    }
+
     @Test
     public void transferStateRemovedAppliedIfSenderNotifiesNotFound() throws IOException, InterruptedException,
             ProtocolException, CertificateException
@@ -447,6 +530,41 @@ public class RequestTest extends DefaultTestBase
                 secondaryPersistence.getClient().getClientRevisionOfPicture());
     }
 
+    @Test
+    public void secondaryClientPictureSentWhenRevisionIsUnknown() throws IOException, InterruptedException,
+            CertificateException, ProtocolException
+    {
+        primarySession.start();
+
+        try {
+            try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+                bridge.send(false);
+            }
+
+            Client secondaryOnPrimary = primaryPersistence.getClientFor(secondaryPersistence.getClientUid());
+            Assert.assertNotNull("Secondary should not be null on primary", secondaryOnPrimary);
+
+            // Primary is now known to leave out its picture, so secondary leaves out its own, too.
+            secondaryOnPrimary.setClientRevisionOfPicture(-1);
+            primaryPersistence.persist(secondaryOnPrimary, true);
+            primaryPersistence.persistClientPicture(secondaryOnPrimary, null);
+
+            try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+                bridge.send(false);
+            }
+        } finally {
+            primarySession.stop();
+        }
+
+        Client secondaryOnPrimary = primaryPersistence.getClientFor(secondaryPersistence.getClientUid());
+        Assert.assertNotNull("Secondary should not be null on primary", secondaryOnPrimary);
+        Assert.assertTrue("The secondary client should have a picture again",
+                primaryPersistence.hasPicture(secondaryOnPrimary));
+        Assert.assertEquals("Secondary picture revision should persist",
+                secondaryPersistence.getClient().getClientRevisionOfPicture(),
+                secondaryOnPrimary.getClientRevisionOfPicture());
+    }
+
     @Test
     public void rejectionRemovesTransfers() throws IOException, InterruptedException,
             ProtocolException, CertificateException
@@ -503,8 +621,9 @@ public class RequestTest extends DefaultTestBase
     {
         primarySession.start();
 
+        // The request makes sure the server has pinned the certificate before the credentials change.
         try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
-            bridge.send(false);
+            Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
         }
 
         primaryPersistence.regenerateSecrets();
@@ -526,8 +645,9 @@ public class RequestTest extends DefaultTestBase
     {
         primarySession.start();
 
+        // The request makes sure the server has pinned the certificate before the credentials change.
         try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
-            bridge.send(false);
+            Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
         }
 
         secondaryPersistence.regenerateSecrets();
@@ -579,4 +699,128 @@ public class RequestTest extends DefaultTestBase
             primarySession.stop();
         }
     }
+
+    @Test
+    public void secureSessionIsResumedTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        primarySession.start();
+
+        try {
+            // The certificates are pinned after the first connection, after which the contexts do not change.
+            for (int i = 0; i < 2; i++) {
+                try (CommunicationBridge bridge = CommunicationBridge.connect(connectionFactory, secondaryPersistence,
+                        clientAddress)) {
+                    Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
+                }
+            }
+
+            SecureSessions secureSessions = connectionFactory.getSecureSessions();
+            long resumedCount = secureSessions.getResumedCount();
+
+            try (CommunicationBridge bridge = CommunicationBridge.connect(connectionFactory, secondaryPersistence,
+                    clientAddress)) {
+                Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
+            }
+
+            Assert.assertTrue("The session should be resumed", secureSessions.getResumedCount() > resumedCount);
+        } finally {
+            primarySession.stop();
+        }
+    }
+
+    @Test
+    public void clientDetailsAreReusedWithPin()
+    {
+        JSONObject details = primaryPersistence.getClientDetails(true);
+        JSONObject otherDetails = primaryPersistence.getClientDetails(true);
+
+        Assert.assertNotSame("The details should be copied", details, otherDetails);
+        Assert.assertSame("The picture should be reused", details.getString(Keyword.CLIENT_PICTURE),
+                otherDetails.getString(Keyword.CLIENT_PICTURE));
+        Assert.assertFalse("The details should not include the picture when left out",
+                primaryPersistence.getClientDetails(false).has(Keyword.CLIENT_PICTURE));
+
+        details.put(Keyword.CLIENT_PIN, 1234);
+
+        Assert.assertEquals("The PIN should be put into the details", 1234, details.getInt(Keyword.CLIENT_PIN));
+        Assert.assertEquals("The details should be for the client", primaryPersistence.getClientUid(),
+                details.getString(Keyword.CLIENT_UID));
+        Assert.assertFalse("The kept details should not have the PIN",
+                primaryPersistence.getClientDetails(true).has(Keyword.CLIENT_PIN));
+
+        primaryPersistence.getClientDescriptorCache().clear();
+
+        Assert.assertNotSame("The details should be created again after clearing",
+                details.getString(Keyword.CLIENT_PICTURE),
+                primaryPersistence.getClientDetails(true).getString(Keyword.CLIENT_PICTURE));
+    }
+
+    @Test
+    public void unchangedClientIsNotSavedAgain() throws IOException, InterruptedException, CertificateException,
+            ProtocolException
+    {
+        int writeCount;
+
+        primarySession.start();
+
+        try {
+            // The request makes sure the server has saved the certificate it pinned before the count is taken.
+            try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+                Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
+            }
+
+            primaryPersistence.getClientUsageBatch().flush();
+            writeCount = primaryPersistence.getClientWriteCount();
+
+            try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+                Assert.assertTrue("Remote should send a positive message.", bridge.requestTest());
+            }
+
+            Assert.assertEquals("The unchanged client should not be saved again", writeCount,
+                    primaryPersistence.getClientWriteCount());
+        } finally {
+            primarySession.stop();
+        }
+
+        Assert.assertEquals("The last usage time should be saved when the session stops", writeCount + 1,
+                primaryPersistence.getClientWriteCount());
+    }
+
+    @Test
+    public void sslContextIsReusedUntilCredentialsChange() throws CertificateException
+    {
+        Client client = secondaryPersistence.getClient();
+        SSLContext context = primaryPersistence.getSSLContextFor(client);
+
+        Assert.assertSame("The context should be reused", context, primaryPersistence.getSSLContextFor(client));
+
+        primaryPersistence.regenerateSecrets();
+
+        try {
+            Assert.assertNotSame("The context should be created again for the new credentials", context,
+                    primaryPersistence.getSSLContextFor(client));
+        } finally {
+            primaryPersistence.restoreSecrets();
+        }
+    }
+
+    @Test
+    public void sslContextIsNotReusedForUnknownCertificate() throws CertificateException
+    {
+        Client client = primaryPersistence.createClientFor("unknown", "Unknown", "Manufacturer", "Product",
+                ClientType.Desktop, "1.0", 1, 1, 1, 0);
+
+        Assert.assertNotSame("The context that trusts any certificate should not be reused",
+                primaryPersistence.getSSLContextFor(client), primaryPersistence.getSSLContextFor(client));
+    }
+
+    @Test
+    public void sslContextIsNotSharedBetweenProviders() throws CertificateException
+    {
+        Client client = secondaryPersistence.getClient();
+
+        Assert.assertNotSame("Each persistence provider should keep its own contexts",
+                primaryPersistence.getSSLContextFor(client), secondaryPersistence.getSSLContextFor(client));
+    }
 }
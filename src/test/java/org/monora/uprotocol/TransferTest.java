@@ -8,18 +8,28 @@ import org.monora.uprotocol.core.CommunicationBridge;
 import org.monora.uprotocol.core.io.StreamDescriptor;
 import org.monora.uprotocol.core.protocol.Client;
 import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.core.persistence.PersistenceException;
 import org.monora.uprotocol.core.protocol.communication.ProtocolException;
 import org.monora.uprotocol.core.protocol.communication.client.UntrustedClientException;
+import org.monora.uprotocol.core.transfer.BufferPool;
 import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.TransferOptions;
+import org.monora.uprotocol.core.transfer.TransferRange;
 import org.monora.uprotocol.core.transfer.Transfers;
+import org.monora.uprotocol.variant.CountingBridge;
 import org.monora.uprotocol.variant.holder.MemoryStreamDescriptor;
 import org.monora.uprotocol.variant.holder.TransferHolder;
 import org.monora.uprotocol.variant.test.DefaultTestBase;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /**
  * This test class ensures that two different sides can communicate.
@@ -35,6 +45,7 @@ public class TransferTest extends DefaultTestBase
     private final static byte[] data1 = "This is the first demo data".getBytes();
     private final static byte[] data2 = "This is the second demo data".getBytes();
     private final long groupId = 1;
+    private final long largeGroupId = 3;
 
     @Before
     public void setUp() throws IOException
@@ -159,4 +170,609 @@ public class TransferTest extends DefaultTestBase
             primarySession.stop();
         }
     }
+
+    @Test
+    public void sendFileBackedItemTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        // Small buffers make both sides go around their rings many times.
+        TransferOptions options = new TransferOptions();
+        options.setWriteBehindDepth(2);
+        options.setWriteBehindMemory(1000);
+        secondarySeat.transferOptions.setReadAheadDepth(2);
+        secondarySeat.transferOptions.setReadAheadMemory(1000);
+        secondarySeat.transferOptions.setMinChunkLength(100);
+
+        sendFileBackedItem(options);
+    }
+
+    @Test
+    public void sendFileBackedItemInTurnsTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setWriteBehindDepth(0);
+        secondarySeat.transferOptions.setReadAheadDepth(0);
+        secondarySeat.transferOptions.setMinChunkLength(1000);
+        secondarySeat.transferOptions.setMaxChunkLength(1000);
+
+        sendFileBackedItem(options);
+    }
+
+    @Test
+    public void sendItemsWithSingleReadAheadBufferTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        final long multiChunkGroupId = 5;
+        final List<TransferItem> itemList = new ArrayList<>();
+        final List<byte[]> dataList = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            byte[] data = new byte[5000];
+            new Random().nextBytes(data);
+
+            TransferItem item = secondaryPersistence.createTransferItemFor(multiChunkGroupId, 10 + i, "File" + i,
+                    "application/octet-stream", data.length, null, Direction.Outgoing);
+            secondaryPersistence.openOutputStream(secondaryPersistence.getDescriptorFor(item)).write(data);
+            itemList.add(item);
+            dataList.add(data);
+        }
+
+        // A single buffer that is lost when the reader is stopped would leave the next item waiting forever.
+        TransferOptions options = new TransferOptions();
+        options.setBundleThreshold(0);
+        secondarySeat.transferOptions.setReadAheadDepth(1);
+        secondarySeat.transferOptions.setReadAheadMemory(1000);
+
+        primarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            bridge.requestFileTransfer(multiChunkGroupId, itemList, null);
+        } finally {
+            primarySession.stop();
+        }
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            Assert.assertTrue("The result should be positive", bridge.requestFileTransferStart(multiChunkGroupId,
+                    Direction.Incoming));
+            Transfers.receive(bridge, transferOperation, multiChunkGroupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        int matchCount = 0;
+        for (MemoryStreamDescriptor descriptor : primaryPersistence.getStreamDescriptorList()) {
+            if (descriptor.transferItem.getItemGroupId() == multiChunkGroupId) {
+                Assert.assertArrayEquals("The data should match", dataList.get(
+                        (int) descriptor.transferItem.getItemId() - 10), descriptor.data.toByteArray());
+                matchCount++;
+            }
+        }
+
+        Assert.assertEquals("Every item should be received", itemList.size(), matchCount);
+    }
+
+    private void sendFileBackedItem(@NotNull TransferOptions options) throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        final long fileGroupId = 2;
+        final byte[] data = new byte[MemoryStreamDescriptor.MAX_SIZE];
+        new Random().nextBytes(data);
+
+        File file = File.createTempFile("uprotocol", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+
+        TransferItem fileItem = secondaryPersistence.createTransferItemFor(fileGroupId, 3, "File3",
+                "application/octet-stream", data.length, null, Direction.Outgoing);
+        secondaryPersistence.setFileFor(fileItem, file);
+
+        // The item is small enough to be bundled, which does not read the file through its channel.
+        options.setBundleThreshold(0);
+
+        primarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            bridge.requestFileTransfer(fileGroupId, Collections.singletonList(fileItem), null);
+        } finally {
+            primarySession.stop();
+        }
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            Assert.assertTrue("The result should be positive", bridge.requestFileTransferStart(fileGroupId,
+                    Direction.Incoming));
+            Transfers.receive(bridge, transferOperation, fileGroupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        boolean dataMatched = false;
+        for (MemoryStreamDescriptor descriptor : primaryPersistence.getStreamDescriptorList()) {
+            if (descriptor.transferItem.getItemGroupId() == fileGroupId) {
+                Assert.assertArrayEquals("The data should match", data, descriptor.data.toByteArray());
+                dataMatched = true;
+            }
+        }
+
+        Assert.assertTrue("There should not be a missing data", dataMatched);
+    }
+
+    @Test
+    public void resumePartiallyReceivedItemTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        TransferItem incomingItem = primaryPersistence.getFirstReceivableItem(groupId);
+        Assert.assertNotNull("The item should be receivable", incomingItem);
+
+        byte[] expectedData = incomingItem.getItemId() == demoTransferItem1.getItemId() ? data1 : data2;
+        primaryPersistence.openOutputStream(primaryPersistence.getDescriptorFor(incomingItem))
+                .write(expectedData, 0, expectedData.length / 2);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId);
+        } finally {
+            secondarySession.stop();
+        }
+
+        MemoryStreamDescriptor descriptor = (MemoryStreamDescriptor) primaryPersistence.getDescriptorFor(
+                incomingItem);
+        Assert.assertArrayEquals("The resumed data should match", expectedData, descriptor.data.toByteArray());
+    }
+
+    @Test
+    public void itemStatesAreSavedInBatchesTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setStateBatchSize(32);
+        options.setStateBatchInterval(3600000);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        Assert.assertEquals("The items should be saved together", 1, primaryPersistence.getStateBatchCount());
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+        }
+    }
+
+    @Test
+    public void itemStatesAreSavedInBatchesWithDefaultCursorTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setStateBatchSize(32);
+        options.setStateBatchInterval(3600000);
+        options.setBundleThreshold(0);
+        primaryPersistence.setDefaultReceivableItemCursor(true);
+        primaryPersistence.setStatesSavedLater(true);
+
+        secondarySession.start();
+
+        try (CountingBridge bridge = new CountingBridge(openConnection(primaryPersistence, clientAddress))) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+
+            Assert.assertEquals("The items should be requested together and only once", 1,
+                    bridge.getItemRequestCount());
+        } finally {
+            secondarySession.stop();
+        }
+
+        Assert.assertEquals("The items should be saved together", 1, primaryPersistence.getStateBatchCount());
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+        }
+    }
+
+    @Test
+    public void receiveWithoutPipeliningTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setPipelineDepth(1);
+        options.setBundleThreshold(0);
+
+        secondarySession.start();
+
+        try (CountingBridge bridge = new CountingBridge(openConnection(primaryPersistence, clientAddress))) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+
+            Assert.assertEquals("Each item should be requested on its own", 2, bridge.getItemRequestCount());
+            Assert.assertEquals("The next item should be requested after the last one is received", 1,
+                    bridge.getMaxOutstandingCount());
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+        }
+    }
+
+    @Test
+    public void receiveWithFirstReceivableItemOnlyTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        primaryPersistence.setFirstReceivableItemOnly(true);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId);
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+        }
+
+        for (MemoryStreamDescriptor descriptor : primaryPersistence.getStreamDescriptorList()) {
+            Assert.assertArrayEquals("The data should match", descriptor.transferItem.getItemId()
+                    == demoTransferItem1.getItemId() ? data1 : data2, descriptor.data.toByteArray());
+        }
+    }
+
+    @Test
+    public void writeBehindThreadStopsWithTheOperationTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setBundleThreshold(0);
+        options.setWriteBehindDepth(2);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertFalse("The thread should stop when the operation ends", thread.isAlive()
+                    && "WriteBehind".equals(thread.getName()));
+        }
+    }
+
+    @Test
+    public void buffersAreReusedAcrossItemsTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        final BufferPool bufferPool = new BufferPool(0x100000);
+        TransferOptions options = new TransferOptions();
+        options.setBufferPool(bufferPool);
+        options.setBundleThreshold(0);
+        secondarySeat.transferOptions.setBufferPool(bufferPool);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+        }
+
+        Assert.assertTrue("The second item should reuse the buffer of the first", bufferPool.getHitCount() > 0);
+        Assert.assertTrue("The pool should not keep more than its cap",
+                bufferPool.getPooledMemory() <= bufferPool.getMaxMemory());
+    }
+
+    @Test
+    public void bufferLengthIsRoundedDownToSizeClassTest()
+    {
+        TransferOptions options = new TransferOptions();
+        options.setReadAheadMemory(3000000);
+        options.setWriteBehindDepth(3);
+
+        Assert.assertEquals("The read-ahead buffers should not be longer than their share", 0x80000,
+                options.getReadAheadBufferLength());
+        Assert.assertEquals("The write-behind buffers should not be longer than their share", 0x40000,
+                options.getWriteBehindBufferLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferLongerThanPoolLimitIsRejectedTest()
+    {
+        TransferOptions options = new TransferOptions();
+        options.setReadAheadDepth(1);
+        options.setReadAheadMemory((long) BufferPool.MAX_LENGTH + 1);
+    }
+
+    @Test
+    public void buffersShorterThanPoolSizeClassTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException, PersistenceException
+    {
+        final byte[] data = new byte[0x10000];
+        new Random().nextBytes(data);
+
+        File file = File.createTempFile("uprotocol", ".bin");
+        file.deleteOnExit();
+
+        setUpLargeItem(data, file);
+
+        // The buffers are 256 bytes long, while the pool hands out 1KiB arrays for them.
+        TransferOptions options = new TransferOptions();
+        options.setBundleThreshold(0);
+        options.setWriteBehindDepth(3);
+        options.setWriteBehindMemory(1000);
+        secondarySeat.transferOptions.setReadAheadDepth(3);
+        secondarySeat.transferOptions.setReadAheadMemory(1000);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(largeGroupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, largeGroupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        Assert.assertArrayEquals("The data should match", data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void receiveOverParallelConnectionsTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setPipelineDepth(1);
+        options.setBundleThreshold(0);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress);
+             CommunicationBridge joiningBridge = openConnection(primaryPersistence, clientAddress)) {
+            Assert.assertTrue("The result should be positive", bridge.requestFileTransferStart(groupId,
+                    Direction.Incoming));
+            Assert.assertTrue("The joining result should be positive", joiningBridge.requestFileTransferJoin(
+                    groupId));
+            Transfers.receive(Arrays.asList(bridge, joiningBridge), transferOperation, groupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+        }
+
+        for (MemoryStreamDescriptor descriptor : primaryPersistence.getStreamDescriptorList()) {
+            byte[] expectedData = descriptor.transferItem.getItemId() == demoTransferItem1.getItemId() ? data1 : data2;
+            Assert.assertArrayEquals("The data should match", expectedData, descriptor.data.toByteArray());
+        }
+    }
+
+    @Test
+    public void receiveBundledItemsTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setBundleSize(1);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (MemoryStreamDescriptor descriptor : primaryPersistence.getStreamDescriptorList()) {
+            byte[] expectedData = descriptor.transferItem.getItemId() == demoTransferItem1.getItemId() ? data1 : data2;
+            Assert.assertArrayEquals("The data should match", expectedData, descriptor.data.toByteArray());
+        }
+    }
+
+    @Test
+    public void bundledReceiveContinuesAfterItemErrorTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        receiveWithRejectedItem(new TransferOptions());
+    }
+
+    @Test
+    public void pipelinedReceiveContinuesAfterItemErrorTest() throws IOException, InterruptedException,
+            ProtocolException, CertificateException
+    {
+        TransferOptions options = new TransferOptions();
+        options.setBundleThreshold(0);
+
+        CountingBridge bridge = receiveWithRejectedItem(options);
+
+        Assert.assertEquals("The items should be requested at once", 1, bridge.getItemRequestCount());
+        Assert.assertEquals("Both items should be outstanding before the first is received", 2,
+                bridge.getMaxOutstandingCount());
+    }
+
+    private @NotNull CountingBridge receiveWithRejectedItem(TransferOptions options) throws IOException,
+            InterruptedException, ProtocolException, CertificateException
+    {
+        // Changing the size of the first item will make the sender reject it.
+        secondaryPersistence.openOutputStream(secondaryPersistence.getDescriptorFor(demoTransferItem1)).write(1);
+
+        secondarySession.start();
+
+        CountingBridge countingBridge;
+
+        try (CountingBridge bridge = new CountingBridge(openConnection(primaryPersistence, clientAddress))) {
+            bridge.requestFileTransferStart(groupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, groupId, options);
+            countingBridge = bridge;
+        } finally {
+            secondarySession.stop();
+        }
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            TransferItem.State expectedState = holder.item.getItemId() == demoTransferItem1.getItemId()
+                    ? TransferItem.State.Invalidated : TransferItem.State.Done;
+            Assert.assertEquals("The item should have the right state", expectedState, holder.state);
+        }
+
+        return countingBridge;
+    }
+
+    @Test
+    public void receiveLargeItemInRangesTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException, PersistenceException
+    {
+        final byte[] data = new byte[0x100000];
+        new Random().nextBytes(data);
+
+        File file = File.createTempFile("uprotocol", ".bin");
+        file.deleteOnExit();
+
+        TransferItem incomingItem = setUpLargeItem(data, file);
+
+        TransferOptions options = new TransferOptions();
+        options.setBundleThreshold(0);
+        options.setSegmentThreshold(1);
+        options.setSegmentLength(0x10000);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress);
+             CommunicationBridge joiningBridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(largeGroupId, Direction.Incoming);
+            joiningBridge.requestFileTransferJoin(largeGroupId);
+            Transfers.receive(Arrays.asList(bridge, joiningBridge), transferOperation, largeGroupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        Assert.assertArrayEquals("The data should match", data, Files.readAllBytes(file.toPath()));
+        Assert.assertTrue("The ranges should be cleared", primaryPersistence.getCompletedRanges(
+                incomingItem).isEmpty());
+
+        for (TransferHolder holder : primaryPersistence.getTransferHolderList()) {
+            if (holder.item.equals(incomingItem)) {
+                Assert.assertEquals("The item should be marked as done", TransferItem.State.Done, holder.state);
+            }
+        }
+
+        for (TransferHolder holder : secondaryPersistence.getTransferHolderList()) {
+            if (holder.item.getItemGroupId() == largeGroupId) {
+                Assert.assertEquals("The sender should mark the item as done", TransferItem.State.Done,
+                        holder.state);
+            }
+        }
+    }
+
+    @Test
+    public void progressIsCoalescedTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException, PersistenceException
+    {
+        final byte[] data = new byte[0x100000];
+        new Random().nextBytes(data);
+
+        File file = File.createTempFile("uprotocol", ".bin");
+        file.deleteOnExit();
+
+        setUpLargeItem(data, file);
+
+        // Only the start and the end of the item should publish the progress.
+        TransferOptions options = new TransferOptions();
+        options.setSegmentThreshold(0);
+        options.setProgressInterval(3600000);
+        secondarySeat.transferOptions.setProgressInterval(3600000);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(largeGroupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, largeGroupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        Assert.assertArrayEquals("The data should match", data, Files.readAllBytes(file.toPath()));
+        Assert.assertTrue("The progress should not be published for every chunk",
+                transferOperation.publishCount < 16);
+    }
+
+    @Test
+    public void resumeLargeItemFetchesOnlyGapsTest() throws IOException, InterruptedException, ProtocolException,
+            CertificateException, PersistenceException
+    {
+        final byte[] data = new byte[0x100000];
+        new Random().nextBytes(data);
+
+        File file = File.createTempFile("uprotocol", ".bin");
+        file.deleteOnExit();
+
+        TransferItem incomingItem = setUpLargeItem(data, file);
+
+        // The range in the middle is marked as complete while it is left empty, so it should stay empty.
+        final TransferRange completedRange = new TransferRange(0x40000, 0x40000);
+        Files.write(file.toPath(), new byte[(int) completedRange.end()]);
+        primaryPersistence.persistCompletedRanges(secondaryPersistence.getClientUid(), incomingItem,
+                Collections.singletonList(completedRange));
+
+        TransferOptions options = new TransferOptions();
+        options.setBundleThreshold(0);
+        options.setSegmentThreshold(1);
+        options.setSegmentLength(0x10000);
+
+        secondarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(primaryPersistence, clientAddress)) {
+            bridge.requestFileTransferStart(largeGroupId, Direction.Incoming);
+            Transfers.receive(bridge, transferOperation, largeGroupId, options);
+        } finally {
+            secondarySession.stop();
+        }
+
+        final byte[] expectedData = data.clone();
+        Arrays.fill(expectedData, (int) completedRange.offset, (int) completedRange.end(), (byte) 0);
+        Assert.assertArrayEquals("Only the gaps should be fetched", expectedData, Files.readAllBytes(file.toPath()));
+    }
+
+    private @NotNull TransferItem setUpLargeItem(byte @NotNull [] data, @NotNull File receivedFile)
+            throws IOException, InterruptedException, ProtocolException, CertificateException, PersistenceException
+    {
+        File file = File.createTempFile("uprotocol", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+
+        TransferItem item = secondaryPersistence.createTransferItemFor(largeGroupId, 4, "File4",
+                "application/octet-stream", data.length, null, Direction.Outgoing);
+        secondaryPersistence.setFileFor(item, file);
+
+        primarySession.start();
+
+        try (CommunicationBridge bridge = openConnection(secondaryPersistence, clientAddress)) {
+            bridge.requestFileTransfer(largeGroupId, Collections.singletonList(item), null);
+        } finally {
+            primarySession.stop();
+        }
+
+        TransferItem incomingItem = primaryPersistence.loadTransferItem(secondaryPersistence.getClientUid(),
+                largeGroupId, item.getItemId(), Direction.Incoming);
+        primaryPersistence.setFileFor(incomingItem, receivedFile);
+        return incomingItem;
+    }
 }
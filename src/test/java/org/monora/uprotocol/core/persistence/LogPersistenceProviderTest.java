@@ -0,0 +1,371 @@
+package org.monora.uprotocol.core.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.monora.uprotocol.core.io.StreamDescriptor;
+import org.monora.uprotocol.core.protocol.Client;
+import org.monora.uprotocol.core.protocol.ClientAddress;
+import org.monora.uprotocol.core.protocol.ClientType;
+import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.core.transfer.TransferItem;
+import org.monora.uprotocol.core.transfer.TransferRange;
+import org.monora.uprotocol.variant.DefaultClient;
+import org.monora.uprotocol.variant.DefaultClientAddress;
+import org.monora.uprotocol.variant.DefaultTransferItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LogPersistenceProviderTest
+{
+    private static final @NotNull String CLIENT_UID = "remote";
+
+    private static final long GROUP_ID = 1;
+
+    private final @NotNull List<@NotNull TestLogPersistenceProvider> providerList = new ArrayList<>();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("uprotocol", ".log").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (TestLogPersistenceProvider provider : providerList) {
+            provider.close();
+        }
+
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void reopensWithWhatWasSaved() throws IOException, PersistenceException
+    {
+        InetAddress address = InetAddress.getByAddress(new byte[]{10, 0, 0, 2});
+
+        try (TestLogPersistenceProvider provider = open(false)) {
+            TransferItem doneItem = newItem(1);
+            TransferItem rangedItem = newItem(2);
+
+            provider.persist(newClient("Remote"), false);
+            provider.persist(new DefaultClientAddress(address, CLIENT_UID, 100));
+            provider.persist(CLIENT_UID, Arrays.asList(doneItem, rangedItem));
+
+            provider.setState(CLIENT_UID, doneItem, TransferItem.State.Done, null);
+            provider.persistStates(CLIENT_UID, Collections.singletonList(doneItem));
+            provider.persistCompletedRanges(CLIENT_UID, rangedItem,
+                    Arrays.asList(new TransferRange(0, 10), new TransferRange(20, 5)));
+        }
+
+        TestLogPersistenceProvider provider = open(false);
+        Client client = provider.getClientFor(CLIENT_UID);
+        ClientAddress clientAddress = provider.getClientAddressFor(address);
+
+        Assert.assertNotNull("The client should be replayed", client);
+        Assert.assertEquals("The nickname should match", "Remote", client.getClientNickname());
+        Assert.assertNotNull("The client address should be replayed", clientAddress);
+        Assert.assertEquals("The usage time should match", 100, clientAddress.getClientAddressLastUsageTime());
+
+        TransferItem doneItem = provider.loadTransferItem(CLIENT_UID, GROUP_ID, 1, Direction.Incoming);
+        TransferItem rangedItem = provider.loadTransferItem(CLIENT_UID, GROUP_ID, 2, Direction.Incoming);
+
+        Assert.assertEquals("The state should be replayed", TransferItem.State.Done,
+                provider.getState(CLIENT_UID, doneItem));
+        Assert.assertEquals("The ranges should be replayed",
+                Arrays.asList(new TransferRange(0, 10), new TransferRange(20, 5)),
+                provider.getCompletedRanges(rangedItem));
+        Assert.assertEquals("Only the pending item should be receivable", rangedItem,
+                provider.getFirstReceivableItem(GROUP_ID));
+    }
+
+    @Test
+    public void reopensWithClientUsage() throws IOException
+    {
+        InetAddress address = InetAddress.getByAddress(new byte[]{10, 0, 0, 3});
+
+        try (TestLogPersistenceProvider provider = open(false)) {
+            Client client = newClient("Remote");
+            provider.persist(client, false);
+
+            long length = file.length();
+            client.setClientLastUsageTime(200);
+            provider.persistClientUsage(Collections.singletonList(client),
+                    Collections.singletonList(new DefaultClientAddress(address, CLIENT_UID, 300)));
+
+            Assert.assertEquals("The usage should be written as a single record", 1,
+                    countRecords(file) - countRecords(file, length));
+        }
+
+        TestLogPersistenceProvider provider = open(false);
+        Client client = provider.getClientFor(CLIENT_UID);
+        ClientAddress clientAddress = provider.getClientAddressFor(address);
+
+        Assert.assertNotNull("The client should be replayed", client);
+        Assert.assertEquals("The usage time should be replayed", 200, client.getClientLastUsageTime());
+        Assert.assertNotNull("The client address should be replayed", clientAddress);
+        Assert.assertEquals("The usage time should be replayed", 300,
+                clientAddress.getClientAddressLastUsageTime());
+    }
+
+    @Test
+    public void savesClientUsageBatchWhenClosed() throws IOException
+    {
+        try (TestLogPersistenceProvider provider = open(false)) {
+            Client client = newClient("Remote");
+            provider.persist(client, false);
+
+            client.setClientLastUsageTime(400);
+            provider.getClientUsageBatch().add(client);
+
+            Assert.assertEquals("The usage should wait in the batch", 1, provider.getClientUsageBatch().size());
+        }
+
+        Client client = open(false).getClientFor(CLIENT_UID);
+
+        Assert.assertNotNull("The client should be replayed", client);
+        Assert.assertEquals("The usage time in the batch should be saved", 400, client.getClientLastUsageTime());
+    }
+
+    @Test
+    public void stopsAtTornRecordAndCutsIt() throws IOException
+    {
+        long intactLength;
+
+        try (TestLogPersistenceProvider provider = open(false)) {
+            provider.persist(newClient("Remote"), false);
+            intactLength = file.length();
+            provider.persist(CLIENT_UID, Collections.singletonList(newItem(1)));
+        }
+
+        // Cut the last record in the middle as if the process was killed while writing it.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(file.length() - 3);
+        }
+
+        TestLogPersistenceProvider provider = open(false);
+
+        Assert.assertNotNull("The record before the torn one should be replayed", provider.getClientFor(CLIENT_UID));
+        Assert.assertFalse("The torn record should not be replayed", provider.containsTransfer(GROUP_ID));
+        Assert.assertEquals("The log should be cut where the torn record starts", intactLength, file.length());
+
+        provider.persist(CLIENT_UID, Collections.singletonList(newItem(1)));
+        provider.close();
+
+        Assert.assertTrue("The records after the cut should be replayed", open(false)
+                .containsTransfer(GROUP_ID));
+    }
+
+    @Test
+    public void reopensAfterCompaction() throws IOException, PersistenceException
+    {
+        try (TestLogPersistenceProvider provider = open(true)) {
+            Client client = newClient("Remote");
+            TransferItem item = newItem(1);
+
+            provider.persist(CLIENT_UID, Collections.singletonList(item));
+
+            for (int i = 0; i < 100; i++) {
+                client.setClientNickname("Remote " + i);
+                provider.persist(client, true);
+            }
+
+            long length = file.length();
+            provider.compact();
+
+            Assert.assertTrue("The log should be smaller after compaction", file.length() < length);
+            Assert.assertFalse("The side file should be gone", new File(file.getPath() + ".compact").exists());
+
+            provider.setState(CLIENT_UID, item, TransferItem.State.Done, null);
+            provider.persistStates(CLIENT_UID, Collections.singletonList(item));
+        }
+
+        TestLogPersistenceProvider provider = open(false);
+        Client client = provider.getClientFor(CLIENT_UID);
+        TransferItem item = provider.loadTransferItem(CLIENT_UID, GROUP_ID, 1, Direction.Incoming);
+
+        Assert.assertNotNull("The client should be replayed", client);
+        Assert.assertEquals("The last nickname should be replayed", "Remote 99", client.getClientNickname());
+        Assert.assertEquals("The state written after compaction should be replayed", TransferItem.State.Done,
+                provider.getState(CLIENT_UID, item));
+    }
+
+    @Test
+    public void keepsWritesMadeDuringCompaction() throws IOException, InterruptedException
+    {
+        int threadCount = 4;
+        int itemCount = 50;
+
+        try (TestLogPersistenceProvider provider = open(true)) {
+            List<Thread> threadList = new ArrayList<>();
+
+            for (int i = 0; i < threadCount; i++) {
+                long offset = (long) i * itemCount;
+                Thread thread = new Thread(() -> {
+                    for (long id = offset; id < offset + itemCount; id++) {
+                        provider.persist(CLIENT_UID, Collections.singletonList(newItem(id)));
+                    }
+                });
+
+                thread.start();
+                threadList.add(thread);
+            }
+
+            // The records that are written while compacting should be copied to the new log.
+            for (int i = 0; i < 10; i++) {
+                provider.compact();
+            }
+
+            for (Thread thread : threadList) {
+                thread.join();
+            }
+        }
+
+        Assert.assertEquals("Every item should be replayed", threadCount * itemCount,
+                open(false).getReceivableItems(GROUP_ID, Integer.MAX_VALUE).size());
+    }
+
+    private static int countRecords(@NotNull File file) throws IOException
+    {
+        return countRecords(file, file.length());
+    }
+
+    private static int countRecords(@NotNull File file, long length) throws IOException
+    {
+        int count = 0;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            for (long position = 0; position < length; count++) {
+                randomAccessFile.seek(position);
+                position += 8 + randomAccessFile.readInt();
+            }
+        }
+
+        return count;
+    }
+
+    private static @NotNull Client newClient(@NotNull String nickname)
+    {
+        return new DefaultClient(CLIENT_UID, nickname, "Manufacturer", "Product", ClientType.Desktop, "1.0", 1, 1,
+                1, 0);
+    }
+
+    private static @NotNull TransferItem newItem(long id)
+    {
+        return new DefaultTransferItem(GROUP_ID, id, id + ".txt", "text/plain", 1024, null, Direction.Incoming);
+    }
+
+    private @NotNull TestLogPersistenceProvider open(boolean sync) throws IOException
+    {
+        TestLogPersistenceProvider provider = new TestLogPersistenceProvider(file, sync);
+        provider.open();
+        providerList.add(provider);
+        return provider;
+    }
+
+    private static class TestLogPersistenceProvider extends LogPersistenceProvider
+    {
+        TestLogPersistenceProvider(@NotNull File file, boolean sync)
+        {
+            super(file, sync);
+        }
+
+        @Override
+        public @NotNull ClientAddress createClientAddressFor(@NotNull InetAddress address, @NotNull String clientUid)
+        {
+            return new DefaultClientAddress(address, clientUid, System.currentTimeMillis());
+        }
+
+        @Override
+        public @NotNull Client createClientFor(@NotNull String uid, @NotNull String nickname,
+                                               @NotNull String manufacturer, @NotNull String product,
+                                               @NotNull ClientType type, @NotNull String versionName,
+                                               int versionCode, int protocolVersion, int protocolVersionMin,
+                                               long revisionOfPicture)
+        {
+            return new DefaultClient(uid, nickname, manufacturer, product, type, versionName, versionCode,
+                    protocolVersion, protocolVersionMin, revisionOfPicture);
+        }
+
+        @Override
+        public @NotNull TransferItem createTransferItemFor(long groupId, long id, @NotNull String name,
+                                                           @NotNull String mimeType, long size,
+                                                           @Nullable String directory, @NotNull Direction direction)
+        {
+            return new DefaultTransferItem(groupId, id, name, mimeType, size, directory, direction);
+        }
+
+        @Override
+        public @NotNull X509Certificate getCertificate()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull Client getClient()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull String getClientNickname()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull String getClientUid()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull StreamDescriptor getDescriptorFor(@NotNull TransferItem transferItem)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull PrivateKey getPrivateKey()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull PublicKey getPublicKey()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull InputStream openInputStream(@NotNull StreamDescriptor descriptor)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull OutputStream openOutputStream(@NotNull StreamDescriptor descriptor)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ChunkSizerTest
+{
+    private static final long WRITE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private long time = 0;
+
+    private final @NotNull List<Integer> changeList = new ArrayList<>();
+
+    private final @NotNull ChunkSizer chunkSizer = new ChunkSizer(1000, 8000, () -> time, changeList::add);
+
+    @Test
+    public void growsUntilMaxLength()
+    {
+        Assert.assertEquals("Should start with the minimum length", 1000, chunkSizer.getLength());
+
+        for (int expected : new int[]{2000, 4000, 8000, 8000, 8000}) {
+            window(WRITE_NANOS);
+            Assert.assertEquals("Should double for every faster window", expected, chunkSizer.getLength());
+        }
+    }
+
+    @Test
+    public void doesNotChangeBeforeWindowEnds()
+    {
+        write(ChunkSizer.TARGET_NANOS - 1);
+        Assert.assertEquals("Should wait for the window to end", 1000, chunkSizer.getLength());
+    }
+
+    @Test
+    public void backsOffAndHoldsWhenGrowingIsSlower()
+    {
+        window(WRITE_NANOS);
+        Assert.assertEquals("Should grow first", 2000, chunkSizer.getLength());
+
+        // Larger writes that take three times as long make the data go slower.
+        window(WRITE_NANOS * 3);
+        Assert.assertEquals("Should go back after growing did not help", 1000, chunkSizer.getLength());
+
+        for (int i = 0; i < ChunkSizer.HOLD_WINDOWS; i++) {
+            window(WRITE_NANOS);
+            Assert.assertEquals("Should hold the length for a while", 1000, chunkSizer.getLength());
+        }
+
+        window(WRITE_NANOS);
+        Assert.assertEquals("Should grow again after holding", 2000, chunkSizer.getLength());
+    }
+
+    @Test
+    public void reportsOnlyChangedLengths()
+    {
+        for (int i = 0; i < 5; i++) {
+            window(WRITE_NANOS);
+        }
+
+        write(ChunkSizer.TARGET_NANOS + 1);
+        Assert.assertEquals("Every change should be reported once", Arrays.asList(2000, 4000, 8000, 4000),
+                changeList);
+    }
+
+    @Test
+    public void shrinksOnSlowWriteUntilMinLength()
+    {
+        window(WRITE_NANOS);
+        window(WRITE_NANOS);
+        Assert.assertEquals("Should grow first", 4000, chunkSizer.getLength());
+
+        for (int expected : new int[]{2000, 1000, 1000}) {
+            write(ChunkSizer.TARGET_NANOS + 1);
+            Assert.assertEquals("Should halve after a write that is too slow", expected, chunkSizer.getLength());
+        }
+    }
+
+    @Test
+    public void staysWhenMinAndMaxAreSame()
+    {
+        ChunkSizer fixedSizer = new ChunkSizer(1000, 500, () -> time);
+        Assert.assertEquals("The maximum should be clamped to the minimum", 1000, fixedSizer.getMaxLength());
+
+        for (int i = 0; i < 10; i++) {
+            long startTime = fixedSizer.start();
+            time += WRITE_NANOS;
+            fixedSizer.record(fixedSizer.getLength(), startTime);
+        }
+
+        Assert.assertEquals("The length should not change", 1000, fixedSizer.getLength());
+    }
+
+    private void window(long nanos)
+    {
+        for (long windowNanos = 0; windowNanos < ChunkSizer.TARGET_NANOS; windowNanos += nanos) {
+            write(nanos);
+        }
+    }
+
+    private void write(long nanos)
+    {
+        long startTime = chunkSizer.start();
+        time += nanos;
+        chunkSizer.record(chunkSizer.getLength(), startTime);
+    }
+}
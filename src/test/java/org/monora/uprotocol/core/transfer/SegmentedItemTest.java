@@ -0,0 +1,46 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.variant.DefaultTransferItem;
+import org.monora.uprotocol.variant.holder.LocalFileStreamDescriptor;
+
+import java.io.File;
+import java.util.Collections;
+
+public class SegmentedItemTest
+{
+    private final @NotNull TransferItem item = new DefaultTransferItem(1, 1, "File1", "application/octet-stream",
+            300, null, Direction.Incoming);
+
+    private final @NotNull SegmentedItem segmentedItem = new SegmentedItem(item, new LocalFileStreamDescriptor(item,
+            new File("File1")), Collections.emptyList(), 100);
+
+    @Test
+    public void abandonedSegmentIsClaimedAgain()
+    {
+        TransferRange range = segmentedItem.claim();
+        Assert.assertNotNull("A segment should be claimed", range);
+
+        Assert.assertFalse("The item has not failed", segmentedItem.abandon(range));
+        Assert.assertEquals("The abandoned segment should be claimed first", range, segmentedItem.claim());
+    }
+
+    @Test
+    public void lastAbandonAfterFailureEndsItem()
+    {
+        TransferRange failedRange = segmentedItem.claim();
+        TransferRange firstRange = segmentedItem.claim();
+        TransferRange secondRange = segmentedItem.claim();
+        Assert.assertNotNull("A segment should be claimed", failedRange);
+        Assert.assertNotNull("A segment should be claimed", firstRange);
+        Assert.assertNotNull("A segment should be claimed", secondRange);
+
+        Assert.assertFalse("Other segments are still ongoing", segmentedItem.fail());
+        Assert.assertFalse("Another segment is still ongoing", segmentedItem.abandon(firstRange));
+        Assert.assertTrue("The last ongoing segment should end the failed item", segmentedItem.abandon(secondRange));
+        Assert.assertNull("Nothing should be claimed after the failure", segmentedItem.claim());
+    }
+}
@@ -0,0 +1,73 @@
+package org.monora.uprotocol.core.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.monora.uprotocol.core.protocol.Direction;
+import org.monora.uprotocol.variant.DefaultTransferItem;
+import org.monora.uprotocol.variant.DefaultTransferOperation;
+import org.monora.uprotocol.variant.persistence.PrimaryPersistenceProvider;
+
+import java.util.concurrent.TimeUnit;
+
+public class StateBatchTest
+{
+    private static final long INTERVAL = 1000;
+
+    private final @NotNull PrimaryPersistenceProvider persistenceProvider = new PrimaryPersistenceProvider();
+
+    private long time = 0;
+
+    private final @NotNull StateBatch stateBatch = new StateBatch(persistenceProvider, "remote", 32, INTERVAL,
+            () -> time);
+
+    @Test
+    public void flushesWhenIntervalPassesWithoutNewItems()
+    {
+        stateBatch.add(newItem(1));
+
+        time += TimeUnit.MILLISECONDS.toNanos(INTERVAL) - 1;
+        stateBatch.flushIfDue();
+        Assert.assertEquals("The batch should wait for the interval", 0, persistenceProvider.getStateBatchCount());
+
+        time += 1;
+        stateBatch.flushIfDue();
+        Assert.assertEquals("The batch should be saved after the interval", 1,
+                persistenceProvider.getStateBatchCount());
+
+        time += TimeUnit.MILLISECONDS.toNanos(INTERVAL);
+        stateBatch.flushIfDue();
+        Assert.assertEquals("An empty batch should not be saved", 1, persistenceProvider.getStateBatchCount());
+    }
+
+    @Test
+    public void flushesWhenProgressIsPublished()
+    {
+        TransferOperation operation = new CoalescedTransferOperation(new DefaultTransferOperation(), 0, 0,
+                stateBatch);
+
+        stateBatch.add(newItem(1));
+        operation.publishProgress();
+        Assert.assertEquals("The batch should wait for the interval", 0, persistenceProvider.getStateBatchCount());
+
+        time += TimeUnit.MILLISECONDS.toNanos(INTERVAL);
+        operation.publishProgress();
+        Assert.assertEquals("The batch should be saved with the progress", 1,
+                persistenceProvider.getStateBatchCount());
+    }
+
+    @Test
+    public void flushesWhenFull()
+    {
+        for (int i = 0; i < 32; i++) {
+            stateBatch.add(newItem(i));
+        }
+
+        Assert.assertEquals("The batch should be saved when full", 1, persistenceProvider.getStateBatchCount());
+    }
+
+    private @NotNull TransferItem newItem(long id)
+    {
+        return new DefaultTransferItem(1, id, "File" + id, "text/plain", 10, null, Direction.Incoming);
+    }
+}
@@ -0,0 +1,62 @@
+package org.monora.uprotocol.variant;
+
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.monora.uprotocol.core.CommunicationBridge;
+import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+import org.monora.uprotocol.core.spec.v1.Keyword;
+
+import java.io.IOException;
+
+public class CountingBridge extends CommunicationBridge
+{
+    private int itemRequestCount;
+
+    private int outstandingCount;
+
+    private int maxOutstandingCount;
+
+    public CountingBridge(@NotNull CommunicationBridge bridge)
+    {
+        super(bridge.getPersistenceProvider(), bridge.getActiveConnection(), bridge.getRemoteClient(),
+                bridge.getRemoteClientAddress());
+    }
+
+    public int getItemRequestCount()
+    {
+        return itemRequestCount;
+    }
+
+    public int getMaxOutstandingCount()
+    {
+        return maxOutstandingCount;
+    }
+
+    @Override
+    public boolean receiveResult() throws IOException, JSONException, ProtocolException
+    {
+        try {
+            return super.receiveResult();
+        } finally {
+            if (outstandingCount > 0) {
+                outstandingCount--;
+            }
+        }
+    }
+
+    @Override
+    public void send(boolean result, @NotNull JSONObject jsonObject) throws JSONException, IOException
+    {
+        int count = jsonObject.has(Keyword.TRANSFER_BATCH) ? jsonObject.getJSONArray(Keyword.TRANSFER_BATCH).length()
+                : jsonObject.has(Keyword.TRANSFER_ID) ? 1 : 0;
+
+        if (count > 0) {
+            itemRequestCount++;
+            outstandingCount += count;
+            maxOutstandingCount = Math.max(maxOutstandingCount, outstandingCount);
+        }
+
+        super.send(result, jsonObject);
+    }
+}
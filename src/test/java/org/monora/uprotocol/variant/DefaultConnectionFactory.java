@@ -3,6 +3,8 @@ package org.monora.uprotocol.variant;
 import org.jetbrains.annotations.NotNull;
 import org.monora.coolsocket.core.session.ActiveConnection;
 import org.monora.uprotocol.core.CommunicationBridge;
+import org.monora.uprotocol.core.SecureSessions;
+import org.monora.uprotocol.core.protocol.Client;
 import org.monora.uprotocol.core.protocol.ConnectionFactory;
 
 import java.io.IOException;
@@ -11,6 +13,8 @@ import java.util.List;
 
 public class DefaultConnectionFactory implements ConnectionFactory
 {
+    private final @NotNull SecureSessions secureSessions = new SecureSessions();
+
     @Override
     public @NotNull ActiveConnection openConnection(@NotNull InetAddress address) throws IOException
     {
@@ -24,4 +28,15 @@ public class DefaultConnectionFactory implements ConnectionFactory
         enabledCipherSuiteList.add("TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384");
         enabledCipherSuiteList.add("TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256");
     }
+
+    public @NotNull SecureSessions getSecureSessions()
+    {
+        return secureSessions;
+    }
+
+    @Override
+    public void onSecureSessionEstablished(@NotNull Client client, boolean resumed)
+    {
+        secureSessions.record(resumed);
+    }
 }
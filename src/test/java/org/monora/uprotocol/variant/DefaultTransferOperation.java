@@ -8,6 +8,8 @@ import org.monora.uprotocol.core.transfer.TransferOperation;
 
 public class DefaultTransferOperation implements TransferOperation
 {
+    public int publishCount = 0;
+
     private @Nullable TransferItem transferItem;
 
     private long bytesOngoing;
@@ -81,7 +83,7 @@ public class DefaultTransferOperation implements TransferOperation
     @Override
     public void publishProgress()
     {
-
+        publishCount++;
     }
 
     @Override
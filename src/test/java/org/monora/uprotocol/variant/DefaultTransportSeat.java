@@ -9,9 +9,11 @@ import org.monora.uprotocol.core.protocol.ClientAddress;
 import org.monora.uprotocol.core.protocol.ClipboardType;
 import org.monora.uprotocol.core.protocol.Direction;
 import org.monora.uprotocol.core.protocol.communication.ProtocolException;
+import org.monora.uprotocol.core.transfer.IndexReader;
 import org.monora.uprotocol.core.transfer.MetaTransferItem;
 import org.monora.uprotocol.core.transfer.TransferItem;
 import org.monora.uprotocol.core.transfer.TransferOperation;
+import org.monora.uprotocol.core.transfer.TransferOptions;
 import org.monora.uprotocol.core.transfer.Transfers;
 import org.monora.uprotocol.variant.holder.ClipboardHolder;
 import org.monora.uprotocol.variant.holder.TransferRequestHolder;
@@ -27,6 +29,8 @@ public class DefaultTransportSeat implements TransportSeat
 
     public final @NotNull TransferOperation transferOperation;
 
+    public final @NotNull TransferOptions transferOptions = new TransferOptions();
+
     public boolean autoAcceptNewKeys;
 
     public boolean startTransferByDefault = false;
@@ -47,9 +51,9 @@ public class DefaultTransportSeat implements TransportSeat
                                   @NotNull Direction direction)
     {
         if (direction.equals(Direction.Incoming)) {
-            Transfers.receive(bridge, transferOperation, groupId);
+            Transfers.receive(bridge, transferOperation, groupId, transferOptions);
         } else if (direction.equals(Direction.Outgoing)) {
-            Transfers.send(bridge, transferOperation, groupId);
+            Transfers.send(bridge, transferOperation, groupId, transferOptions);
         }
     }
 
@@ -74,20 +78,25 @@ public class DefaultTransportSeat implements TransportSeat
 
     @Override
     public boolean handleFileTransferRequest(@NotNull Client client, boolean hasPin, long groupId,
-                                             @NotNull String jsonArray)
+                                             @NotNull IndexReader indexReader) throws IOException, ProtocolException
     {
-        List<MetaTransferItem> metaList = Transfers.toTransferItemList(jsonArray);
-        List<TransferItem> transferItemList = new ArrayList<>(metaList.size());
-
-        for (MetaTransferItem metaItem : metaList) {
-            TransferItem item = persistenceProvider.createTransferItemFor(groupId, metaItem.id, metaItem.name,
-                    metaItem.mimeType, metaItem.size, metaItem.directory, Direction.Incoming);
-            transferItemList.add(item);
-        }
+        persistIndex(client, groupId, indexReader);
+        return startTransferByDefault;
+    }
 
-        persistenceProvider.persist(client.getClientUid(), transferItemList);
+    @Override
+    public boolean handleFileTransferAppend(@NotNull Client client, long groupId, @NotNull IndexReader indexReader)
+            throws IOException, ProtocolException
+    {
+        persistIndex(client, groupId, indexReader);
+        return true;
+    }
 
-        return startTransferByDefault;
+    @Override
+    public void handleFileTransferIndexPage(@NotNull Client client, long groupId, @NotNull IndexReader indexReader,
+                                            boolean last) throws IOException, ProtocolException
+    {
+        persistIndex(client, groupId, indexReader);
     }
 
     @Override
@@ -122,4 +131,19 @@ public class DefaultTransportSeat implements TransportSeat
             persistenceProvider.approveInvalidationOfCredentials(client);
         }
     }
+
+    private void persistIndex(@NotNull Client client, long groupId, @NotNull IndexReader indexReader)
+            throws IOException, ProtocolException
+    {
+        List<TransferItem> transferItemList = new ArrayList<>();
+        MetaTransferItem metaItem;
+
+        while ((metaItem = indexReader.read()) != null) {
+            TransferItem item = persistenceProvider.createTransferItemFor(groupId, metaItem.id, metaItem.name,
+                    metaItem.mimeType, metaItem.size, metaItem.directory, Direction.Incoming);
+            transferItemList.add(item);
+        }
+
+        persistenceProvider.persist(client.getClientUid(), transferItemList);
+    }
 }
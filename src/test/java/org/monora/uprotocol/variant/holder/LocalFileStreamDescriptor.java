@@ -0,0 +1,44 @@
+package org.monora.uprotocol.variant.holder;
+
+import org.jetbrains.annotations.NotNull;
+import org.monora.uprotocol.core.io.FileStreamDescriptor;
+import org.monora.uprotocol.core.transfer.TransferItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A descriptor that points to a file on the local file system.
+ */
+public class LocalFileStreamDescriptor implements FileStreamDescriptor
+{
+    public final @NotNull File file;
+
+    public final @NotNull TransferItem transferItem;
+
+    public LocalFileStreamDescriptor(@NotNull TransferItem transferItem, @NotNull File file)
+    {
+        this.transferItem = transferItem;
+        this.file = file;
+    }
+
+    @Override
+    public long length()
+    {
+        return file.length();
+    }
+
+    @Override
+    public @NotNull FileChannel openReadableChannel() throws IOException
+    {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    @Override
+    public @NotNull FileChannel openWritableChannel() throws IOException
+    {
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    }
+}
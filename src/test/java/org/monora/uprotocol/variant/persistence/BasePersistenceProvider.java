@@ -3,8 +3,10 @@ package org.monora.uprotocol.variant.persistence;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.monora.uprotocol.core.io.StreamDescriptor;
+import org.monora.uprotocol.core.persistence.DefaultReceivableItemCursor;
+import org.monora.uprotocol.core.persistence.MemoryPersistenceProvider;
 import org.monora.uprotocol.core.persistence.PersistenceException;
-import org.monora.uprotocol.core.persistence.PersistenceProvider;
+import org.monora.uprotocol.core.persistence.ReceivableItemCursor;
 import org.monora.uprotocol.core.protocol.Client;
 import org.monora.uprotocol.core.protocol.ClientAddress;
 import org.monora.uprotocol.core.protocol.ClientType;
@@ -13,6 +15,7 @@ import org.monora.uprotocol.core.transfer.TransferItem;
 import org.monora.uprotocol.variant.DefaultClient;
 import org.monora.uprotocol.variant.DefaultClientAddress;
 import org.monora.uprotocol.variant.DefaultTransferItem;
+import org.monora.uprotocol.variant.holder.LocalFileStreamDescriptor;
 import org.monora.uprotocol.variant.holder.MemoryStreamDescriptor;
 import org.monora.uprotocol.variant.holder.TransferHolder;
 import org.spongycastle.asn1.x500.X500NameBuilder;
@@ -24,10 +27,7 @@ import org.spongycastle.jce.provider.BouncyCastleProvider;
 import org.spongycastle.operator.ContentSigner;
 import org.spongycastle.operator.jcajce.JcaContentSignerBuilder;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.security.*;
@@ -43,16 +43,15 @@ import java.util.*;
 /**
  * This class provides some level of "persistence" on the level for testing purposes.
  * <p>
- * This will be slow and is not meant to be used in production.
+ * The clients and the transfers are kept by {@link MemoryPersistenceProvider}, so the tests that use this also test
+ * it. The rest is kept in lists, which will be slow and is not meant to be used in production.
  */
-public abstract class BasePersistenceProvider implements PersistenceProvider
+public abstract class BasePersistenceProvider extends MemoryPersistenceProvider
 {
-    private final Set<@NotNull Client> clientList = new HashSet<>();
-    private final Set<@NotNull ClientAddress> clientAddressList = new HashSet<>();
+    private final Set<@NotNull InetAddress> clientAddressList = new LinkedHashSet<>();
     private final List<@NotNull TransferHolder> transferHolderList = new ArrayList<>();
     private final List<@NotNull MemoryStreamDescriptor> streamDescriptorList = new ArrayList<>();
-    private final List<@NotNull String> invalidationRequestList = new ArrayList<>();
-    private final Map<@NotNull String, byte @NotNull []> pictureList = new HashMap<>();
+    private final List<@NotNull LocalFileStreamDescriptor> fileDescriptorList = new ArrayList<>();
     private final BouncyCastleProvider bouncyCastleProvider = new BouncyCastleProvider();
     private final @NotNull KeyFactory keyFactory;
 
@@ -64,7 +63,17 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
 
     private boolean gotInvalidationRequest = false;
 
-    private int networkPin;
+    private int stateBatchCount = 0;
+
+    private int clientWriteCount = 0;
+
+    private boolean firstReceivableItemOnly = false;
+
+    private boolean defaultReceivableItemCursor = false;
+
+    private boolean statesSavedLater = false;
+
+    private final Map<@NotNull String, TransferItem.@NotNull State> unsavedStateMap = new HashMap<>();
 
     public BasePersistenceProvider()
     {
@@ -118,7 +127,7 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
 
     public boolean hasPicture(@NotNull Client client)
     {
-        return pictureList.containsKey(client.getClientUid());
+        return getClientPicture(client) != null;
     }
 
     public void regenerateSecrets()
@@ -146,33 +155,6 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
         }
     }
 
-    @Override
-    public boolean approveInvalidationOfCredentials(@NotNull Client client)
-    {
-        synchronized (invalidationRequestList) {
-            if (!invalidationRequestList.remove(client.getClientUid()))
-                return false;
-        }
-
-        client.setClientCertificate(null);
-        persist(client, true);
-        return true;
-    }
-
-    @Override
-    public boolean containsTransfer(long groupId)
-    {
-        synchronized (transferHolderList) {
-            for (TransferHolder holder : transferHolderList) {
-                if (holder.item.getItemGroupId() == groupId) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
     @Override
     public @NotNull ClientAddress createClientAddressFor(@NotNull InetAddress address, @NotNull String clientUid)
     {
@@ -197,35 +179,22 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
         return new DefaultTransferItem(groupId, id, name, mimeType, size, directory, direction);
     }
 
-    @Override
-    public @Nullable Client getClientFor(@NotNull String clientUid)
-    {
-        synchronized (clientList) {
-            for (Client persistentClient : clientList) {
-                if (clientUid.equals(persistentClient.getClientUid())) {
-                    return persistentClient;
-                }
-            }
-        }
-
-        return null;
-    }
-
     @Override
     public @NotNull X509Certificate getCertificate()
     {
         return certificate;
     }
 
-    @Override
-    public byte @Nullable [] getClientPicture(@NotNull Client client)
-    {
-        return pictureList.get(client.getClientUid());
-    }
-
     @Override
     public @NotNull StreamDescriptor getDescriptorFor(@NotNull TransferItem transferItem)
     {
+        synchronized (fileDescriptorList) {
+            for (LocalFileStreamDescriptor fileDescriptor : fileDescriptorList) {
+                if (fileDescriptor.transferItem.equals(transferItem))
+                    return fileDescriptor;
+            }
+        }
+
         synchronized (streamDescriptorList) {
             for (MemoryStreamDescriptor streamDescriptor : streamDescriptorList) {
                 if (streamDescriptor.transferItem.equals(transferItem))
@@ -239,28 +208,18 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
     }
 
     @Override
-    public @Nullable TransferItem getFirstReceivableItem(long groupId)
+    public @NotNull ReceivableItemCursor getReceivableItemCursor(long groupId, int prefetch)
     {
-        synchronized (transferHolderList) {
-            for (TransferHolder holder : transferHolderList) {
-                if (Direction.Incoming.equals(holder.item.getItemDirection())
-                        && holder.item.getItemGroupId() == groupId
-                        && TransferItem.State.Pending.equals(holder.state)) {
-                    return holder.item;
-                }
-            }
-        }
-        return null;
+        if (firstReceivableItemOnly || defaultReceivableItemCursor)
+            return new DefaultReceivableItemCursor(this, groupId, prefetch);
+
+        return super.getReceivableItemCursor(groupId, prefetch);
     }
 
     @Override
-    public int getNetworkPin()
+    public @NotNull List<@NotNull TransferItem> getReceivableItems(long groupId, int limit)
     {
-        if (networkPin == 0) {
-            networkPin = (int) (Integer.MAX_VALUE * Math.random());
-        }
-
-        return networkPin;
+        return super.getReceivableItems(groupId, firstReceivableItemOnly ? 1 : limit);
     }
 
     @Override
@@ -283,42 +242,64 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
         }
     }
 
-    public @NotNull Set<@NotNull ClientAddress> getClientAddressList()
+    public void setDefaultReceivableItemCursor(boolean defaultReceivableItemCursor)
     {
-        return Collections.unmodifiableSet(clientAddressList);
+        this.defaultReceivableItemCursor = defaultReceivableItemCursor;
     }
 
-    public @NotNull List<@NotNull MemoryStreamDescriptor> getStreamDescriptorList()
+    // Acts like a provider that only implements getFirstReceivableItem, which leaves the cursor to the default one.
+    public void setFirstReceivableItemOnly(boolean firstReceivableItemOnly)
     {
-        return Collections.unmodifiableList(streamDescriptorList);
+        this.firstReceivableItemOnly = firstReceivableItemOnly;
     }
 
-    public @NotNull List<@NotNull TransferHolder> getTransferHolderList()
+    // Acts like a database where the states are only seen by the queries after they are saved with persistStates.
+    public void setStatesSavedLater(boolean statesSavedLater)
     {
-        return Collections.unmodifiableList(transferHolderList);
+        this.statesSavedLater = statesSavedLater;
     }
 
-    @Override
-    public boolean hasRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    public void setFileFor(@NotNull TransferItem transferItem, @NotNull File file)
     {
-        synchronized (invalidationRequestList) {
-            return invalidationRequestList.contains(clientUid);
+        synchronized (fileDescriptorList) {
+            fileDescriptorList.add(new LocalFileStreamDescriptor(transferItem, file));
         }
     }
 
-    @Override
-    public @NotNull TransferItem loadTransferItem(@NotNull String clientUid, long groupId, long id,
-                                                  @NotNull Direction direction) throws PersistenceException
+    public @NotNull Set<@NotNull ClientAddress> getClientAddressList()
     {
-        synchronized (transferHolderList) {
-            for (TransferHolder holder : transferHolderList) {
-                if (holder.item.getItemGroupId() == groupId && holder.item.getItemId() == id
-                        && holder.item.getItemDirection().equals(direction) && holder.clientUid.equals(clientUid))
-                    return holder.item;
+        Set<ClientAddress> addressList = new LinkedHashSet<>();
+
+        synchronized (clientAddressList) {
+            for (InetAddress address : clientAddressList) {
+                ClientAddress clientAddress = getClientAddressFor(address);
+                if (clientAddress != null) {
+                    addressList.add(clientAddress);
+                }
             }
         }
 
-        throw new PersistenceException("There is no transfer data matching the given parameters.");
+        return addressList;
+    }
+
+    public int getClientWriteCount()
+    {
+        return clientWriteCount;
+    }
+
+    public int getStateBatchCount()
+    {
+        return stateBatchCount;
+    }
+
+    public @NotNull List<@NotNull MemoryStreamDescriptor> getStreamDescriptorList()
+    {
+        return Collections.unmodifiableList(streamDescriptorList);
+    }
+
+    public @NotNull List<@NotNull TransferHolder> getTransferHolderList()
+    {
+        return Collections.unmodifiableList(transferHolderList);
     }
 
     @Override
@@ -326,16 +307,35 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
     {
         if (descriptor instanceof MemoryStreamDescriptor) {
             return new ByteArrayInputStream(((MemoryStreamDescriptor) descriptor).data.toByteArray());
+        } else if (descriptor instanceof LocalFileStreamDescriptor) {
+            return new FileInputStream(((LocalFileStreamDescriptor) descriptor).file);
         }
 
         throw new IOException("Unknown descriptor type");
     }
 
+    @Override
+    public @NotNull InputStream openInputStream(@NotNull StreamDescriptor descriptor, long position)
+            throws IOException
+    {
+        if (descriptor instanceof MemoryStreamDescriptor) {
+            byte[] data = ((MemoryStreamDescriptor) descriptor).data.toByteArray();
+            if (position > data.length)
+                throw new IOException("Position is beyond the end of the data");
+
+            return new ByteArrayInputStream(data, (int) position, data.length - (int) position);
+        }
+
+        return super.openInputStream(descriptor, position);
+    }
+
     @Override
     public @NotNull OutputStream openOutputStream(@NotNull StreamDescriptor descriptor) throws IOException
     {
         if (descriptor instanceof MemoryStreamDescriptor) {
             return ((MemoryStreamDescriptor) descriptor).data;
+        } else if (descriptor instanceof LocalFileStreamDescriptor) {
+            return new FileOutputStream(((LocalFileStreamDescriptor) descriptor).file, true);
         }
 
         throw new IOException("Unknown descriptor type");
@@ -344,98 +344,138 @@ public abstract class BasePersistenceProvider implements PersistenceProvider
     @Override
     public void persist(@NotNull Client client, boolean updating)
     {
-        synchronized (clientList) {
-            clientList.add(client);
+        synchronized (this) {
+            clientWriteCount++;
         }
+
+        super.persist(client, updating);
     }
 
     @Override
     public void persist(@NotNull ClientAddress clientAddress)
     {
         synchronized (clientAddressList) {
-            clientAddressList.add(clientAddress);
+            clientAddressList.add(clientAddress.getClientAddress());
         }
+
+        super.persist(clientAddress);
     }
 
     @Override
     public void persist(@NotNull String clientUid, @NotNull TransferItem item)
     {
-        synchronized (transferHolderList) {
-            for (TransferHolder holder : transferHolderList) {
-                if (holder.item.equals(item)) {
-                    holder.item = item;
-                    holder.clientUid = clientUid;
-                    return;
-                }
-            }
-
-            transferHolderList.add(new TransferHolder(item, clientUid));
-        }
+        addHolder(clientUid, item);
+        super.persist(clientUid, item);
     }
 
     @Override
     public void persist(@NotNull String clientUid, @NotNull List<? extends @NotNull TransferItem> itemList)
     {
         for (TransferItem item : itemList) {
-            // This doesn't reflect the correct use case. In production, this should only insert
-            // while single item counterpart above is updating.
-            persist(clientUid, item);
+            addHolder(clientUid, item);
         }
+
+        super.persist(clientUid, itemList);
     }
 
     @Override
-    public void persistClientPicture(@NotNull Client client, byte @Nullable [] data)
+    public void persistStates(@NotNull String clientUid, @NotNull List<? extends @NotNull TransferItem> itemList)
     {
-        if (data == null) {
-            pictureList.remove(client.getClientUid());
-        } else {
-            pictureList.put(client.getClientUid(), data);
+        synchronized (this) {
+            stateBatchCount++;
         }
+
+        for (TransferItem item : itemList) {
+            TransferItem.State state;
+
+            synchronized (unsavedStateMap) {
+                state = unsavedStateMap.remove(stateKey(clientUid, item));
+            }
+
+            if (state != null) {
+                super.setState(clientUid, item, state, null);
+            }
+        }
+
+        super.persistStates(clientUid, itemList);
     }
 
-    public boolean removeTransfer(@NotNull Client client, long groupId)
+    private static @NotNull String stateKey(@NotNull String clientUid, @NotNull TransferItem item)
+    {
+        return clientUid + "/" + item.getItemGroupId() + "/" + item.getItemId() + "/" + item.getItemDirection();
+    }
+
+    private void addHolder(@NotNull String clientUid, @NotNull TransferItem item)
     {
         synchronized (transferHolderList) {
-            final List<TransferHolder> copyItems = new ArrayList<>(transferHolderList);
-            boolean removedAny = false;
-
-            for (TransferHolder transferHolder : copyItems) {
-                if (transferHolder.clientUid.equals(client.getClientUid())
-                        && transferHolder.item.getItemGroupId() == groupId
-                        && transferHolderList.remove(transferHolder)) {
-                    removedAny = true;
-                }
+            TransferHolder holder = findHolder(clientUid, item);
+
+            if (holder == null) {
+                transferHolderList.add(new TransferHolder(item, clientUid));
+            } else {
+                holder.item = item;
             }
+        }
+    }
 
-            return removedAny;
+    private @Nullable TransferHolder findHolder(@NotNull String clientUid, @NotNull TransferItem item)
+    {
+        for (TransferHolder holder : transferHolderList) {
+            if (holder.item.equals(item) && holder.clientUid.equals(clientUid))
+                return holder;
         }
+
+        return null;
     }
 
     @Override
-    public void revokeNetworkPin()
+    public @NotNull TransferItem loadTransferItem(@NotNull String clientUid, long groupId, long id,
+                                                  @NotNull Direction direction) throws PersistenceException
     {
-        networkPin = 0;
+        TransferItem item = super.loadTransferItem(clientUid, groupId, id, direction);
+
+        // The tests change the items in place to make them disappear, which the keys of the parent do not see.
+        if (item.getItemGroupId() != groupId || item.getItemId() != id)
+            throw new PersistenceException("There is no transfer data matching the given parameters.");
+
+        return item;
     }
 
-    @Override
-    public void saveRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    public boolean removeTransfer(@NotNull Client client, long groupId)
     {
-        gotInvalidationRequest = true;
-        synchronized (invalidationRequestList) {
-            invalidationRequestList.add(clientUid);
+        synchronized (transferHolderList) {
+            transferHolderList.removeIf(holder -> holder.clientUid.equals(client.getClientUid())
+                    && holder.item.getItemGroupId() == groupId);
         }
+
+        return removeTransfer(groupId);
     }
 
     @Override
     public void setState(@NotNull String clientUid, @NotNull TransferItem item, @NotNull TransferItem.State state,
                          @Nullable Exception e)
     {
+        if (statesSavedLater) {
+            synchronized (unsavedStateMap) {
+                unsavedStateMap.put(stateKey(clientUid, item), state);
+            }
+        } else {
+            super.setState(clientUid, item, state, e);
+        }
+
         synchronized (transferHolderList) {
-            for (TransferHolder holder : transferHolderList) {
-                if (clientUid.equals(holder.clientUid) && item.equals(holder.item)) {
-                    holder.state = state;
-                }
+            TransferHolder holder = findHolder(clientUid, item);
+            if (holder != null) {
+                holder.state = state;
             }
         }
     }
+
+    @Override
+    public void saveRequestForInvalidationOfCredentials(@NotNull String clientUid)
+    {
+        gotInvalidationRequest = true;
+        super.saveRequestForInvalidationOfCredentials(clientUid);
+    }
+
 }
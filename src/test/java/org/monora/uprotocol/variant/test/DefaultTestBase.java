@@ -5,7 +5,6 @@ import org.junit.After;
 import org.monora.uprotocol.core.CommunicationBridge;
 import org.monora.uprotocol.core.TransportSession;
 import org.monora.uprotocol.core.persistence.PersistenceProvider;
-import org.monora.uprotocol.core.protocol.ConnectionFactory;
 import org.monora.uprotocol.core.protocol.communication.ProtocolException;
 import org.monora.uprotocol.variant.DefaultConnectionFactory;
 import org.monora.uprotocol.variant.DefaultTransferOperation;
@@ -21,7 +20,7 @@ import java.security.cert.CertificateException;
 
 public class DefaultTestBase
 {
-    protected final ConnectionFactory connectionFactory = new DefaultConnectionFactory();
+    protected final DefaultConnectionFactory connectionFactory = new DefaultConnectionFactory();
     protected final DefaultTransferOperation transferOperation = new DefaultTransferOperation();
     protected final BasePersistenceProvider primaryPersistence = new PrimaryPersistenceProvider();
     protected final BasePersistenceProvider secondaryPersistence = new SecondaryPersistenceProvider();